@@ -73,6 +73,8 @@ public class GoldenGateIME extends GoldenGateAEP implements GoldenGateImeConstan
 	
 	private UserAccessAuthority uaa;
 	
+	private int errorDocumentCount = -1;
+	
 	/** Constructor passing 'IME' as the letter code to super constructor
 	 */
 	public GoldenGateIME() {
@@ -495,6 +497,7 @@ Build GoldenGateIME (Image Markup Error Handler):
 						";";
 				try {
 					this.io.executeUpdateQuery(insertQuery);
+					this.adjustErrorDocumentCount(1);
 					this.logInfo(" ==> database entry created");
 				}
 				catch (SQLException sqle) {
@@ -528,7 +531,9 @@ Build GoldenGateIME (Image Markup Error Handler):
 				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
 				";";
 		try {
-			this.io.executeUpdateQuery(deleteQuery);
+			int deleted = this.io.executeUpdateQuery(deleteQuery);
+			if (deleted != 0)
+				this.adjustErrorDocumentCount(-deleted);
 			this.logInfo(" ==> database entry deleted");
 		}
 		catch (SQLException sqle) {
@@ -542,14 +547,26 @@ Build GoldenGateIME (Image Markup Error Handler):
 		return this.ims.getDocumentList(userName, false, filter, imeExtension);
 	}
 	
-	private int getErrorDocumentCount() {
+	private synchronized void adjustErrorDocumentCount(int delta) {
+		if (this.errorDocumentCount != -1) // no use counting before initialized
+			this.errorDocumentCount += delta;
+	}
+	
+	private synchronized int getErrorDocumentCount() {
+		
+		//	use cached count, kept up to date on inserts and deletions
+		if (this.errorDocumentCount != -1)
+			return this.errorDocumentCount;
+		
+		//	count documents only on first request
 		String query = "SELECT count(*)" +
 				" FROM " + DOCUMENT_ERROR_TABLE_NAME +
 				";";
 		SqlQueryResult sqr = null;
 		try {
 			sqr = this.io.executeSelectQuery(query);
-			return (sqr.next() ? Integer.parseInt(sqr.getString(0)) : 0);
+			this.errorDocumentCount = (sqr.next() ? Integer.parseInt(sqr.getString(0)) : 0);
+			return this.errorDocumentCount;
 		}
 		catch (SQLException sqle) {
 			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while getting error document count.");
@@ -29,13 +29,16 @@ package de.uka.ipd.idaho.goldenGateServer.imi;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -59,20 +62,27 @@ import de.uka.ipd.idaho.gamta.Gamta;
 import de.uka.ipd.idaho.gamta.defaultImplementation.AbstractAttributed;
 import de.uka.ipd.idaho.gamta.util.GamtaClassLoader;
 import de.uka.ipd.idaho.gamta.util.GamtaClassLoader.ComponentInitializer;
+import de.uka.ipd.idaho.gamta.util.transfer.DocumentListElement;
 import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerActivityLogger;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent.EventLogger;
 import de.uka.ipd.idaho.goldenGateServer.dta.DataObjectTransitAuthority;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateIMS;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateIMS.ImsDocumentData;
+import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateImsConstants.ImsDocumentEvent;
+import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateImsConstants.ImsDocumentEvent.ImsDocumentEventListener;
+import de.uka.ipd.idaho.goldenGateServer.ims.data.ImsDocumentList;
 import de.uka.ipd.idaho.goldenGateServer.util.AsynchronousDataActionHandler;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineInputStream;
 import de.uka.ipd.idaho.goldenGateServer.util.BufferedLineOutputStream;
 import de.uka.ipd.idaho.im.ImDocument;
 import de.uka.ipd.idaho.im.util.ImDocumentData;
 import de.uka.ipd.idaho.im.util.ImDocumentData.DataHashOutputStream;
+import de.uka.ipd.idaho.im.util.ImDocumentData.FolderImDocumentData;
 import de.uka.ipd.idaho.im.util.ImDocumentData.ImDocumentEntry;
 import de.uka.ipd.idaho.im.util.ImDocumentIO;
+import de.uka.ipd.idaho.stringUtils.csvHandler.StringRelation;
+import de.uka.ipd.idaho.stringUtils.csvHandler.StringTupel;
 
 /**
  * GoldenGATE Image Markup Importer provides scheduled import and decoding of
@@ -100,6 +110,7 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 		private boolean deleteDataFile;
 		private URL dataUrl;
 		private String dataId;
+		private String dataHash;
 		
 		private ImiDocumentImportOwner owner;
 		
@@ -125,6 +136,9 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 		void setDataId(String dataId) {
 			this.dataId = dataId;
 		}
+		void setDataHash(String dataHash) {
+			this.dataHash = dataHash;
+		}
 		
 		ImiDocumentImport(String dataId, String[] arguments) throws IOException {
 			this.dataMimeType = arguments[2];
@@ -143,6 +157,8 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			ImDocumentIO.setAttributes(this, arguments[4]);
 			if (arguments[5].length() != 0)
 				this.owner = getImportOwner(arguments[5]);
+			if ((arguments.length > 6) && (arguments[6] != null) && (arguments[6].length() != 0))
+				this.dataHash = arguments[6];
 		}
 		
 		String[] getArguments() {
@@ -153,6 +169,7 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 				(this.deleteDataFile ? "D" : "R"),
 				ImDocumentIO.getAttributesString(this),
 				((this.owner == null) ? "" : this.owner.key),
+				((this.dataHash == null) ? "" : this.dataHash),
 			};
 			return arguments;
 		}
@@ -172,22 +189,55 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			if (this.dataFile != null)
 				return this.dataFile;
 			
-			//	download data
-			File dataFile = new File(dataCacheFolder, (this.dataUrl.toString().replaceAll("[^A-Za-z0-9]+", "_") + ".cache"));
-			InputStream urlIn = new BufferedInputStream(this.dataUrl.openStream());
-			OutputStream dataOut = new BufferedOutputStream(new FileOutputStream(dataFile));
-			byte[] buffer = new byte[1024];
-			for (int r; (r = urlIn.read(buffer, 0, buffer.length)) != -1;)
-				dataOut.write(buffer, 0, r);
-			dataOut.flush();
-			dataOut.close();
-			urlIn.close();
+			//	use data prefetched by download stage if available
+			Object[] prefetched = downloadPrefetcher.claim(this.dataUrl);
+			if (prefetched != null) {
+				this.dataFile = ((File) prefetched[0]);
+				this.dataHash = ((String) prefetched[1]);
+				return this.dataFile;
+			}
+			
+			//	download data, computing hash along the way
+			File dataFile = ImiDownloadPrefetcher.getCacheFile(dataCacheFolder, this.dataUrl);
+			String dataHash = ImiDownloadPrefetcher.download(this.dataUrl, dataFile);
 			
 			//	switch file live only now
 			this.dataFile = dataFile;
+			this.dataHash = dataHash;
 			return this.dataFile;
 		}
 		
+		/**
+		 * Retrieve the MD5 hash of the data to import. The hash is computed
+		 * only once, wherever the data is first read in full, i.e., on upload
+		 * or download, and then carried along with the import. Only if the
+		 * data did not pass through any of these points is it read again in
+		 * this method, and even then only once. If the import is from a URL,
+		 * the data is downloaded first.
+		 * @return the data hash
+		 */
+		public String getDataHash() throws IOException {
+			if (this.dataHash != null)
+				return this.dataHash;
+			File dataFile = this.getDataFile();
+			if (this.dataHash != null)
+				return this.dataHash; // computed on download
+			
+			//	read data to compute hash
+			InputStream dataIn = new BufferedInputStream(new FileInputStream(dataFile));
+			DataHashOutputStream dataHashOut = new DataHashOutputStream(new OutputStream() {
+				public void write(int b) throws IOException {}
+			});
+			byte[] buffer = new byte[1024];
+			for (int r; (r = dataIn.read(buffer, 0, buffer.length)) != -1;)
+				dataHashOut.write(buffer, 0, r);
+			dataHashOut.flush();
+			dataHashOut.close();
+			dataIn.close();
+			this.dataHash = dataHashOut.getDataHash();
+			return this.dataHash;
+		}
+		
 		/**
 		 * Retrieve the URL of the data to import. If the import is from a
 		 * file, this method returns null.
@@ -216,6 +266,7 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			}
 			catch (RuntimeException re) {
 				logWarning("Document import cancelled by owner after finishing: " + re.getMessage());
+				docIndex.removeScheduledDocument(this.dataId);
 				this.deleteDataFile();
 				return;
 			}
@@ -234,10 +285,12 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 					}
 				});
 				doc.dispose();
+				this.indexImported(doc.docId);
 			}
 			catch (IOException ioe) {
 				logError("Error storing document imported from " + this.toString() + ": " + ioe.getMessage());
 				logError(ioe);
+				docIndex.removeScheduledDocument(this.dataId);
 			}
 			finally {
 				ims.releaseDocument(importUserName, doc.docId);
@@ -265,6 +318,44 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 		 * @param docData the data representing the imported document
 		 */
 		public void setDocumentData(ImDocumentData docData) {
+			this.setDocumentData(docData, null);
+		}
+		
+		/**
+		 * Store the imported document from a folder holding its data, e.g.
+		 * the output folder of a decoder slave process. This spares loading
+		 * the whole document only to store it right away. This method adds
+		 * all import attributes to the document attributes before storing the
+		 * document, unless they are already set. The entry files are moved
+		 * over to the IMS rather than copied, so the argument folder is
+		 * empty after this method returns. After this method has been called,
+		 * any cached data is cleaned up.
+		 * @param docFolder the folder holding the imported document
+		 * @throws IOException
+		 */
+		public void setDocumentData(File docFolder) throws IOException {
+			FolderImDocumentData docData = new FolderImDocumentData(docFolder, null);
+			
+			//	add import attributes to document attributes
+			StringRelation docAttributeData = StringRelation.readCsvData(new InputStreamReader(docData.getInputStream("document.csv"), "UTF-8"), true, null);
+			if (docAttributeData.size() != 1)
+				throw new IOException("Invalid document attributes in " + docFolder.getAbsolutePath());
+			StringTupel docAttributeTupel = docAttributeData.get(0);
+			Attributed docAttributes = new AbstractAttributed();
+			ImDocumentIO.setAttributes(docAttributes, docAttributeTupel.getValue("attributes", ""));
+			AttributeUtils.copyAttributes(this, docAttributes, AttributeUtils.ADD_ATTRIBUTE_COPY_MODE);
+			docAttributeTupel.setValue("attributes", ImDocumentIO.getAttributesString(docAttributes));
+			BufferedWriter docAttributeOut = new BufferedWriter(new OutputStreamWriter(docData.getOutputStream("document.csv"), "UTF-8"));
+			StringRelation.writeCsvData(docAttributeOut, docAttributeData, ';', '"', docAttributeData.getKeys());
+			docAttributeOut.flush();
+			docAttributeOut.close();
+			docData.storeEntryList();
+			
+			//	store document
+			this.setDocumentData(docData, docFolder);
+		}
+		
+		private void setDocumentData(ImDocumentData docData, File docFolder) {
 			
 			//	notify owner
 			if (this.owner != null) try {
@@ -272,6 +363,7 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			}
 			catch (RuntimeException re) {
 				logWarning("Document import cancelled by owner after finishing: " + re.getMessage());
+				docIndex.removeScheduledDocument(this.dataId);
 				this.deleteDataFile();
 				return;
 			}
@@ -280,6 +372,8 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			String docId = ((String) docData.getDocumentAttributes().getAttribute(GoldenGateIMS.DOCUMENT_ID_ATTRIBUTE));
 			if (docId == null)
 				docId = ((String) this.getAttribute(GoldenGateIMS.DOCUMENT_ID_ATTRIBUTE));
+			if (docId == null)
+				docId = docData.getDocumentId();
 			
 			//	get user name to credit (if any)
 			String userName = ((String) this.getAttribute(GoldenGateIMS.CHECKIN_USER_ATTRIBUTE, importUserName));
@@ -294,10 +388,15 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 					iDocData = ims.checkoutDocumentAsData(importUserName, docId);
 				else iDocData = ims.getDocumentData(docId, true);
 				
-				//	copy entries
+				//	move entry files over if we have them, copy entries otherwise
 				ImDocumentEntry[] docEntries = docData.getEntries();
 				byte[] buffer = new byte[1024];
 				for (int e = 0; e < docEntries.length; e++) {
+					File entryFile = ((docFolder == null) ? null : new File(docFolder, docEntries[e].getFileName()));
+					if ((entryFile != null) && entryFile.exists()) {
+						iDocData.adoptEntryFile(docEntries[e], entryFile);
+						continue;
+					}
 					InputStream entryIn = docData.getInputStream(docEntries[e]);
 					OutputStream entryOut = iDocData.getOutputStream(docEntries[e]);
 					for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
@@ -309,10 +408,12 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 				
 				//	finally ...
 				ims.updateDocumentFromData(userName, importUserName, iDocData, null);
+				this.indexImported(docId);
 			}
 			catch (IOException ioe) {
 				logError("Error storing document imported from " + this.toString() + ": " + ioe.getMessage());
 				logError(ioe);
+				docIndex.removeScheduledDocument(this.dataId);
 			}
 			finally {
 				ims.releaseDocument(importUserName, docId);
@@ -332,6 +433,14 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 					"IMS");
 		}
 		
+		private void indexImported(String docId) {
+			docIndex.setStatus(docId, ImiDocumentIndex.IMPORTED_STATUS);
+			if (this.dataHash != null) {
+				docIndex.setDataHashDocumentId(this.dataHash, docId);
+				docIndex.removeScheduledDocument(this.dataHash);
+			}
+		}
+		
 		/**
 		 * Report an import error. After this method has been called, any
 		 * cached data is cleaned up.
@@ -343,6 +452,9 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			logError("Error importing document from " + this.toString() + ": " + error.getMessage());
 			logError(error);
 			
+			//	make document available for another import attempt
+			docIndex.removeScheduledDocument(this.dataId);
+			
 			//	notify owner
 			if (this.owner != null)
 				this.owner.importFailed(this, error);
@@ -490,6 +602,8 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 	}
 	
 	private GoldenGateIMS ims;
+	private ImiDocumentIndex docIndex;
+	private ImiDownloadPrefetcher downloadPrefetcher;
 	
 	private String importUserName;
 	
@@ -539,12 +653,34 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 		this.importerCacheFolder = (((importerCacheFolderName.indexOf(":\\") == -1) && (importerCacheFolderName.indexOf(":/") == -1) && !importerCacheFolderName.startsWith("/")) ? new File(this.dataPath, importerCacheFolderName) : new File(importerCacheFolderName));
 		this.importerCacheFolder.mkdirs();
 		
+		//	create index of imported documents (loaded in linkInit(), as we might have to populate it from IMS), with timeout for scheduled status (in hours)
+		int scheduledImportTimeout = 24;
+		try {
+			scheduledImportTimeout = Integer.parseInt(this.configuration.getSetting("scheduledImportTimeout", ("" + scheduledImportTimeout)));
+		} catch (NumberFormatException nfe) {}
+		this.docIndex = new ImiDocumentIndex(this.dataPath, (((long) scheduledImportTimeout) * 60 * 60 * 1000));
+		
 		//	read number of threads to use from config
 		String maxParallelImports = this.configuration.getSetting("maxParallelImports", ("" + this.maxParallelImporterRuns));
 		try {
 			this.maxParallelImporterRuns = Integer.parseInt(maxParallelImports);
 		} catch (NumberFormatException nfe) {}
 		
+		//	start download stage for URL imports (0 parallel downloads deactivates prefetching), with limits on disk space (in MB) for downloads waiting for import, and on waiting time (in minutes)
+		int maxParallelDownloads = 2;
+		try {
+			maxParallelDownloads = Integer.parseInt(this.configuration.getSetting("maxParallelDownloads", ("" + maxParallelDownloads)));
+		} catch (NumberFormatException nfe) {}
+		int maxPrefetchDiskSpace = 1024;
+		try {
+			maxPrefetchDiskSpace = Integer.parseInt(this.configuration.getSetting("maxPrefetchDiskSpace", ("" + maxPrefetchDiskSpace)));
+		} catch (NumberFormatException nfe) {}
+		int maxPrefetchAge = 60;
+		try {
+			maxPrefetchAge = Integer.parseInt(this.configuration.getSetting("maxPrefetchAge", ("" + maxPrefetchAge)));
+		} catch (NumberFormatException nfe) {}
+		this.downloadPrefetcher = new ImiDownloadPrefetcher(this.dataCacheFolder, maxParallelDownloads, (((long) maxPrefetchDiskSpace) * 1024 * 1024), (((long) maxPrefetchAge) * 60 * 1000));
+		
 		/* TODO keep database of imported documents, including
 		 * - document ID
 		 * - upload time
@@ -568,6 +704,7 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			new TableColumnDefinition("DeleteDataFile", TableDefinition.VARCHAR_DATATYPE, 1),
 			new TableColumnDefinition("DataAttributes", TableDefinition.VARCHAR_DATATYPE, 1536),
 			new TableColumnDefinition("OwnerKey", TableDefinition.VARCHAR_DATATYPE, 32),
+			new TableColumnDefinition("DataHash", TableDefinition.VARCHAR_DATATYPE, 32),
 		};
 		this.importHandler = new AsynchronousDataActionHandler("ImiImporter", this.maxParallelImporterRuns, argumentColumns, this, io) {
 			protected void performDataAction(String dataId, String[] arguments) throws Exception {
@@ -597,6 +734,39 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 	 */
 	public void linkInit() {
 		
+		//	restore document index, and build it from IMS document list only if that fails
+		boolean docIndexLoaded = this.docIndex.load();
+		this.ims.addDocumentEventListener(new ImsDocumentEventListener() {
+			public void documentCheckedOut(ImsDocumentEvent ide) {}
+			public void documentUpdated(ImsDocumentEvent ide) {
+				docIndex.setStatus(ide.dataId, ImiDocumentIndex.IMPORTED_STATUS);
+			}
+			public void documentDeleted(ImsDocumentEvent ide) {
+				docIndex.removeDocument(ide.dataId);
+			}
+			public void documentReleased(ImsDocumentEvent ide) {}
+		});
+		if (docIndexLoaded)
+			this.logInfo("GoldenGateIMI: document index restored");
+		else {
+			this.logInfo("GoldenGateIMI: document index missing or inconsistent, scanning IMS document list ...");
+			ImsDocumentList dl = this.ims.getDocumentListFull();
+			int docCount = 0;
+			while (dl.hasNextDocument()) {
+				DocumentListElement dle = dl.getNextDocument();
+				this.docIndex.addImportedDocument((String) dle.getAttribute(GoldenGateIMS.DOCUMENT_ID_ATTRIBUTE)); // no need for journaling, we're storing a snapshot right below
+				docCount++;
+			}
+			try {
+				this.docIndex.storeSnapshot();
+			}
+			catch (IOException ioe) {
+				this.logError("GoldenGateIMI: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing document index.");
+				this.logError(ioe);
+			}
+			this.logInfo(" ==> document index built for " + docCount + " documents");
+		}
+		
 		//	load importers
 		this.loadImporters(this);
 		
@@ -715,8 +885,14 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 		//	shut down import handler thread
 		this.importHandler.shutdown();
 		
+		//	shut down download stage
+		this.downloadPrefetcher.shutdown();
+		
 		//	shut down importers
 		this.shutdownImporters(null);
+		
+		//	persist document index
+		this.docIndex.close();
 	}
 	
 	private static final String LIST_IMPORTERS_COMMAND = "importers";
@@ -1070,8 +1246,8 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 							String docId = docHashOut.getDataHash();
 							this.reportResult("Document UUID computed: " + docId);
 							
-							//	schedule import
-							scheduleImport(mimeType, docFile, docId, readAttributes(arguments, attributeStart));
+							//	schedule import (the ID is the data hash, so importers don't have to compute it again)
+							scheduleImport(mimeType, docFile, docId, docId, false, readAttributes(arguments, attributeStart), null);
 						}
 					}
 					catch (IOException ioe) {
@@ -1238,15 +1414,23 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 					docId = docCacheOut.getDataHash();
 					logInfo("Document UUID computed: " + docId);
 					
-					//	check if document already in database, and report back if so
+					//	check if document already in database, and report back if so (only loading attributes if index says so)
 					Attributed exDocAttributes = null;
-					try {
+					char exDocStatus = docIndex.getStatus(docId);
+					if (exDocStatus == ImiDocumentIndex.IMPORTED_STATUS) try {
 						exDocAttributes = ims.getDocumentAttributes(docId);
 					} catch (Exception e) {}
 					
+					//	import of same document pending, no need to schedule it again
+					if (exDocStatus == ImiDocumentIndex.SCHEDULED_STATUS) {
+						docCacheFile.delete();
+						docStatus = "Scheduled for import.";
+					}
+					
 					//	schedule import if not imported before
-					if (exDocAttributes == null) {
-						scheduleImport(mimeType, docCacheFile, docId, true, docAttributes);
+					else if (exDocAttributes == null) {
+						docIndex.setStatus(docId, ImiDocumentIndex.SCHEDULED_STATUS);
+						scheduleImport(mimeType, docCacheFile, docId, docId, true, docAttributes, null);
 						docStatus = "Scheduled for import.";
 					}
 					else {
@@ -1376,6 +1560,9 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 			docId = Gamta.getAnnotationID();
 		}
 		idi.setDataId(docId);
+		
+		//	start fetching data right away (before enqueueing import, so download is known by the time import gets to it)
+		this.downloadPrefetcher.enqueue(url);
 		this.importHandler.enqueueDataAction(docId, idi.getArguments());
 	}
 	
@@ -1423,7 +1610,27 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 	 * @param owner the owner of the import
 	 */
 	public void scheduleImport(String mimeType, File file, String id, boolean deleteFile, Attributed attributes, ImiDocumentImportOwner owner) {
+		this.scheduleImport(mimeType, file, id, null, deleteFile, attributes, owner);
+	}
+	
+	/**
+	 * Schedule a document import from a file whose MD5 hash is known, e.g.
+	 * because it was computed while receiving the file. The hash is handed
+	 * on to importers, so they do not have to read the file again to compute
+	 * it. If the argument hash is null, this method behaves just like the
+	 * six-argument version.
+	 * @param mimeType the MIME type of the document
+	 * @param file the file to import from
+	 * @param id the identifier hashed from the file to import
+	 * @param dataHash the MD5 hash of the file to import
+	 * @param attributes additional document attributes
+	 * @param deleteFile delete the cache file after import?
+	 * @param owner the owner of the import
+	 */
+	public void scheduleImport(String mimeType, File file, String id, String dataHash, boolean deleteFile, Attributed attributes, ImiDocumentImportOwner owner) {
 		ImiDocumentImport idi = new ImiDocumentImport(id, mimeType, file, deleteFile, owner);
+		if (dataHash != null)
+			idi.setDataHash(dataHash);
 		
 		if (owner != null) // for good measures ... might have been reloaded dynamically or something
 			this.registerImportOwner(owner);
@@ -1453,73 +1660,82 @@ public class GoldenGateIMI extends AbstractGoldenGateServerComponent implements
 	 * @return true if a document with the argument ID exists
 	 */
 	public boolean checkDocumentExists(String docId) {
-		return (this.ims.getDocumentVersionHistory(docId) != null);
+		return this.docIndex.isImported(docId);
 	}
 	
 	private Map runningImportsByNumber = Collections.synchronizedMap(new TreeMap());
 	void handleImport(ImiDocumentImport idi) {
-		
-		//	find appropriate importer
-		ImiDocumentImporter importer = null;
-		synchronized (this) {
+		try {
 			
-			//	wait for importers to be reloaded
-//			while (this.importerTrays == null) try {
-			while (this.importers == null) try {
-				GoldenGateIMI.this.wait(1000);
-			} catch (InterruptedException ie) {}
+			//	find appropriate importer
+			ImiDocumentImporter importer = null;
+			synchronized (this) {
+				
+				//	wait for importers to be reloaded
+//				while (this.importerTrays == null) try {
+				while (this.importers == null) try {
+					GoldenGateIMI.this.wait(1000);
+				} catch (InterruptedException ie) {}
+				
+				//	get importer
+//				for (int i = 0; i < this.importerTrays.length; i++)
+//					if (this.importerTrays[i].importer.canHandleImport(idi)) {
+//						importer = this.importerTrays[i].importer;
+//						break;
+//					}
+				for (int i = 0; i < this.importers.length; i++)
+					if (this.importers[i].canHandleImport(idi)) {
+						importer = this.importers[i];
+						break;
+					}
+			}
+			if (importer == null) {
+				this.logWarning("Could not find importer for " + idi.dataMimeType + " document from " + idi.toString());
+				return;
+			}
 			
-			//	get importer
-//			for (int i = 0; i < this.importerTrays.length; i++)
-//				if (this.importerTrays[i].importer.canHandleImport(idi)) {
-//					importer = this.importerTrays[i].importer;
-//					break;
-//				}
-			for (int i = 0; i < this.importers.length; i++)
-				if (this.importers[i].canHandleImport(idi)) {
-					importer = this.importers[i];
-					break;
-				}
-		}
-		if (importer == null) {
-			this.logWarning("Could not find importer for " + idi.dataMimeType + " document from " + idi.toString());
-			return;
-		}
-		
-		//	create importer run object at lowest available number
-		ImporterRun importerRun = null;
-		synchronized (this.runningImportsByNumber) {
-			if (this.maxParallelImporterRuns == 1)
-				importerRun = new ImporterRun("", importer);
-			else {
-				String irNumber = null;
-				for (int i = 0;; i++) {
-					String irn = ("" + (i+1));
-					if (this.runningImportsByNumber.containsKey(irn))
-						continue;
-					irNumber = irn;
-					break;
+			//	create importer run object at lowest available number
+			ImporterRun importerRun = null;
+			synchronized (this.runningImportsByNumber) {
+				if (this.maxParallelImporterRuns == 1)
+					importerRun = new ImporterRun("", importer);
+				else {
+					String irNumber = null;
+					for (int i = 0;; i++) {
+						String irn = ("" + (i+1));
+						if (this.runningImportsByNumber.containsKey(irn))
+							continue;
+						irNumber = irn;
+						break;
+					}
+					importerRun = new ImporterRun(irNumber, importer.getRuntimeClone(importer.getName() + irNumber));
 				}
-				importerRun = new ImporterRun(irNumber, importer.getRuntimeClone(importer.getName() + irNumber));
+				this.runningImportsByNumber.put(importerRun.number, importerRun);
+			}
+			
+			//	notify owner
+			try {
+				idi.notifyStartring();
+			}
+			catch (RuntimeException re) {
+				this.logError("Exception notifying owner of starting import: " + re.getMessage());
+				this.logError(re);
+			}
+			
+			//	handle import
+			try {
+				importerRun.handleImport(idi);
+			}
+			finally {
+				this.runningImportsByNumber.remove(importerRun.number);
 			}
-			this.runningImportsByNumber.put(importerRun.number, importerRun);
-		}
-		
-		//	notify owner
-		try {
-			idi.notifyStartring();
-		}
-		catch (RuntimeException re) {
-			this.logError("Exception notifying owner of starting import: " + re.getMessage());
-			this.logError(re);
 		}
 		
-		//	handle import
-		try {
-			importerRun.handleImport(idi);
-		}
+		//	make sure scheduled status is cleared no matter what, so a failed import does not block another upload of the same data (no-op after successful import)
 		finally {
-			this.runningImportsByNumber.remove(importerRun.number);
+			this.docIndex.removeScheduledDocument(idi.dataId);
+			if (idi.dataHash != null)
+				this.docIndex.removeScheduledDocument(idi.dataHash);
 		}
 	}
 	
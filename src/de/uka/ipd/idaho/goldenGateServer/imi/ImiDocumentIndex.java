@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imi;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore;
+
+/**
+ * Persistent index of the documents known to a GoldenGATE IMI, mapping
+ * document IDs to their import status, and data hashes of imported files to
+ * the IDs of the resulting documents. This facilitates duplicate detection
+ * in constant time, without touching the document folders in the backing
+ * IMS. The index is kept up to date with document update and deletion
+ * events from the IMS. A scheduled status expires after a configurable
+ * time, so a document whose import got lost somewhere does not block
+ * further uploads of the same data forever.
+ * 
+ * @author sautter
+ */
+class ImiDocumentIndex extends JournaledSnapshotStore {
+	private static final int MAX_JOURNAL_SIZE = (64 * 1024);
+	
+	/** status of a document stored in the IMS */
+	static final char IMPORTED_STATUS = 'I';
+	
+	/** status of a document whose import is scheduled, but not finished */
+	static final char SCHEDULED_STATUS = 'S';
+	
+	private HashMap docStatus = new HashMap();
+	private HashMap scheduledTimes = new HashMap();
+	private HashMap dataHashDocIds = new HashMap();
+	
+	private long scheduledStatusTimeout;
+	
+	/** Constructor
+	 * @param dataFolder the folder to store the index in
+	 * @param scheduledStatusTimeout the time (in milliseconds) after which
+	 *            the scheduled status of a document expires
+	 */
+	ImiDocumentIndex(File dataFolder, long scheduledStatusTimeout) {
+		super(dataFolder, "documentIndex", MAX_JOURNAL_SIZE);
+		this.scheduledStatusTimeout = scheduledStatusTimeout;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#clearData()
+	 */
+	protected void clearData() {
+		this.docStatus.clear();
+		this.scheduledTimes.clear();
+		this.dataHashDocIds.clear();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#restoreSnapshotEntry(java.lang.String[])
+	 */
+	protected boolean restoreSnapshotEntry(String[] entry) {
+		if ("D".equals(entry[0]) && ((entry.length == 3) || (entry.length == 4))) {
+			this.putStatus(entry[1], entry[2].charAt(0), ((entry.length == 4) ? Long.parseLong(entry[3]) : -1));
+			return true;
+		}
+		else if ("H".equals(entry[0]) && (entry.length == 3)) {
+			this.dataHashDocIds.put(entry[1], entry[2]);
+			return true;
+		}
+		else return false;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#captureSnapshotEntries(java.util.ArrayList)
+	 */
+	protected void captureSnapshotEntries(ArrayList entries) {
+		for (Iterator dit = this.docStatus.entrySet().iterator(); dit.hasNext();) {
+			Map.Entry de = ((Map.Entry) dit.next());
+			Long scheduled = ((Long) this.scheduledTimes.get(de.getKey()));
+			String[] entry = {"D", ((String) de.getKey()), de.getValue().toString(), ((scheduled == null) ? null : scheduled.toString())};
+			entries.add(trimEntry(entry));
+		}
+		for (Iterator hit = this.dataHashDocIds.entrySet().iterator(); hit.hasNext();) {
+			Map.Entry he = ((Map.Entry) hit.next());
+			String[] entry = {"H", ((String) he.getKey()), ((String) he.getValue())};
+			entries.add(entry);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#replayModification(java.lang.String[])
+	 */
+	protected boolean replayModification(String[] modification) {
+		if ("+D".equals(modification[0]) && ((modification.length == 3) || (modification.length == 4))) {
+			this.putStatus(modification[1], modification[2].charAt(0), ((modification.length == 4) ? Long.parseLong(modification[3]) : -1));
+			return true;
+		}
+		else if ("-D".equals(modification[0]) && (modification.length == 2)) {
+			this.docStatus.remove(modification[1]);
+			this.scheduledTimes.remove(modification[1]);
+			return true;
+		}
+		else if ("+H".equals(modification[0]) && (modification.length == 3)) {
+			this.dataHashDocIds.put(modification[1], modification[2]);
+			return true;
+		}
+		else return false;
+	}
+	
+	private void putStatus(String docId, char status, long scheduled) {
+		this.docStatus.put(docId, new Character(status));
+		if (status == SCHEDULED_STATUS)
+			this.scheduledTimes.put(docId, new Long((scheduled == -1) ? System.currentTimeMillis() : scheduled));
+		else this.scheduledTimes.remove(docId);
+	}
+	
+	private static String[] trimEntry(String[] entry) {
+		if (entry[entry.length - 1] != null)
+			return entry;
+		String[] tEntry = new String[entry.length - 1];
+		System.arraycopy(entry, 0, tEntry, 0, tEntry.length);
+		return tEntry;
+	}
+	
+	/**
+	 * Retrieve the status of a document. The argument may also be the data
+	 * hash of an imported file, which is resolved to the ID of the resulting
+	 * document. If the document is not known, or if its scheduled status has
+	 * expired, this method returns 0.
+	 * @param docIdOrDataHash the document ID or data hash to check
+	 * @return the status of the document
+	 */
+	synchronized char getStatus(String docIdOrDataHash) {
+		char status = this.getCurrentStatus(docIdOrDataHash);
+		if (status != 0)
+			return status;
+		String docId = ((String) this.dataHashDocIds.get(docIdOrDataHash));
+		return ((docId == null) ? 0 : this.getCurrentStatus(docId));
+	}
+	
+	private char getCurrentStatus(String docId) {
+		Character status = ((Character) this.docStatus.get(docId));
+		if (status == null)
+			return 0;
+		if (status.charValue() != SCHEDULED_STATUS)
+			return status.charValue();
+		Long scheduled = ((Long) this.scheduledTimes.get(docId));
+		if ((scheduled != null) && ((scheduled.longValue() + this.scheduledStatusTimeout) < System.currentTimeMillis()))
+			return 0; // expired
+		return status.charValue();
+	}
+	
+	/**
+	 * Check whether or not a document is stored in the IMS. The argument may
+	 * also be the data hash of an imported file.
+	 * @param docIdOrDataHash the document ID or data hash to check
+	 * @return true if the document is stored in the IMS
+	 */
+	boolean isImported(String docIdOrDataHash) {
+		return (this.getStatus(docIdOrDataHash) == IMPORTED_STATUS);
+	}
+	
+	/**
+	 * Set the status of a document. Marking a document as scheduled for
+	 * import has no effect if it is stored in the IMS already, or if its
+	 * import is scheduled already and that status has not expired.
+	 * @param docId the document ID
+	 * @param status the status to set
+	 */
+	synchronized void setStatus(String docId, char status) {
+		Character oldStatus = ((Character) this.docStatus.get(docId));
+		if (status == SCHEDULED_STATUS) {
+			if (this.getCurrentStatus(docId) != 0)
+				return;
+		}
+		else if ((oldStatus != null) && (oldStatus.charValue() == status))
+			return;
+		long time = System.currentTimeMillis();
+		this.putStatus(docId, status, time);
+		String[] modification = {"+D", docId, ("" + status), ((status == SCHEDULED_STATUS) ? ("" + time) : null)};
+		this.logModification(trimEntry(modification));
+	}
+	
+	/**
+	 * Add a document stored in the IMS to the index without journaling the
+	 * addition. This is meant for populating the index from scratch, and
+	 * client code has to store a snapshot afterward.
+	 * @param docId the document ID
+	 */
+	synchronized void addImportedDocument(String docId) {
+		this.putStatus(docId, IMPORTED_STATUS, -1);
+	}
+	
+	/**
+	 * Remove a document from the index, e.g. after its deletion from the IMS,
+	 * or after its import failed.
+	 * @param docId the document ID
+	 */
+	synchronized void removeDocument(String docId) {
+		this.scheduledTimes.remove(docId);
+		if (this.docStatus.remove(docId) != null) {
+			String[] modification = {"-D", docId};
+			this.logModification(modification);
+		}
+	}
+	
+	/**
+	 * Remove a document from the index only if its import is scheduled, but
+	 * has not finished, e.g. after the import failed.
+	 * @param docId the document ID
+	 */
+	synchronized void removeScheduledDocument(String docId) {
+		Character status = ((Character) this.docStatus.get(docId));
+		if ((status != null) && (status.charValue() == SCHEDULED_STATUS))
+			this.removeDocument(docId);
+	}
+	
+	/**
+	 * Record the ID of the document resulting from the import of a file with
+	 * a given data hash.
+	 * @param dataHash the data hash of the imported file
+	 * @param docId the ID of the resulting document
+	 */
+	synchronized void setDataHashDocumentId(String dataHash, String docId) {
+		if (dataHash.equals(docId) || docId.equals(this.dataHashDocIds.get(dataHash)))
+			return;
+		this.dataHashDocIds.put(dataHash, docId);
+		String[] modification = {"+H", dataHash, docId};
+		this.logModification(modification);
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher;
+import de.uka.ipd.idaho.im.util.ImDocumentData.DataHashOutputStream;
+
+/**
+ * Download stage for imports from URLs, fetching the data of scheduled URL
+ * imports ahead of time, so importers find it local once they get to the
+ * import, rather than sitting idle during slow downloads. Downloads run in
+ * a bounded number of threads, and the disk space taken up by downloads
+ * not yet claimed by an import is bounded as well. Downloads not claimed
+ * within a given time are deleted, and running downloads count against
+ * the disk space bound with the bytes received so far. Imports whose data
+ * has not been prefetched simply download it themselves.
+ * 
+ * @author sautter
+ */
+class ImiDownloadPrefetcher extends Prefetcher {
+	private static final int CONNECT_TIMEOUT = (1000 * 30);
+	private static final int READ_TIMEOUT = (1000 * 60 * 2);
+	
+	private File cacheFolder;
+	private HashSet downloadConnections = new HashSet();
+	
+	/** Constructor
+	 * @param cacheFolder the folder to store downloaded data in
+	 * @param maxDownloads the maximum number of parallel downloads
+	 * @param maxPrefetchBytes the maximum number of bytes to hold on to
+	 * @param maxPrefetchAge the time after which to delete unclaimed downloads (in milliseconds)
+	 */
+	ImiDownloadPrefetcher(File cacheFolder, int maxDownloads, long maxPrefetchBytes, long maxPrefetchAge) {
+		super("ImiDownloadPrefetcher", maxDownloads, maxPrefetchBytes, maxPrefetchAge);
+		this.cacheFolder = cacheFolder;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher#prefetch(java.lang.String)
+	 */
+	protected Object prefetch(String dataUrl) throws Exception {
+		URL url = new URL(dataUrl);
+		File cacheFile = getCacheFile(this.cacheFolder, url);
+		String dataHash = download(url, cacheFile, this);
+		Object[] prefetched = {cacheFile, dataHash};
+		return prefetched;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher#getSize(java.lang.Object)
+	 */
+	protected long getSize(Object prefetched) {
+		return ((File) ((Object[]) prefetched)[0]).length();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher#discard(java.lang.String, java.lang.Object)
+	 */
+	protected void discard(String dataUrl, Object prefetched) {
+		((File) ((Object[]) prefetched)[0]).delete();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher#cancelPrefetches()
+	 */
+	protected void cancelPrefetches() {
+		
+		//	close connections of running downloads, as interrupting does not end a blocking read
+		synchronized (this.downloadConnections) {
+			for (Iterator cit = this.downloadConnections.iterator(); cit.hasNext();)
+				closeConnection((URLConnection) cit.next());
+			this.downloadConnections.clear();
+		}
+	}
+	
+	private boolean addConnection(URLConnection urlConnection) {
+		synchronized (this.downloadConnections) {
+			if (this.isShutdown())
+				return false;
+			this.downloadConnections.add(urlConnection);
+			return true;
+		}
+	}
+	
+	private void removeConnection(URLConnection urlConnection) {
+		synchronized (this.downloadConnections) {
+			this.downloadConnections.remove(urlConnection);
+		}
+	}
+	
+	private static void closeConnection(URLConnection urlConnection) {
+		if (urlConnection instanceof HttpURLConnection)
+			((HttpURLConnection) urlConnection).disconnect();
+		else try {
+			urlConnection.getInputStream().close();
+		} catch (IOException ioe) {}
+	}
+	
+	/**
+	 * Enqueue the data of a URL import for prefetching.
+	 * @param dataUrl the URL to download from
+	 */
+	void enqueue(URL dataUrl) {
+		this.enqueue(dataUrl.toString());
+	}
+	
+	/**
+	 * Claim the prefetched data of a URL import. If the download is still
+	 * running, this method waits for it to finish. If the download has not
+	 * started yet, it is cancelled. In either of the latter two cases, as
+	 * well as if the download failed, this method returns null, and client
+	 * code has to download the data itself. Otherwise, the returned array
+	 * holds the downloaded file and the hash of the data, in this order. The
+	 * claimed file is no longer accounted for in the disk space budget.
+	 * @param dataUrl the URL to claim the downloaded data for
+	 * @return an array holding the downloaded file and data hash
+	 */
+	Object[] claim(URL dataUrl) {
+		return ((Object[]) this.claim(dataUrl.toString()));
+	}
+	
+	/**
+	 * Determine the cache file for the data of an import from a URL.
+	 * @param cacheFolder the cache folder
+	 * @param dataUrl the URL to download from
+	 * @return the cache file for the argument URL
+	 */
+	static File getCacheFile(File cacheFolder, URL dataUrl) {
+		return new File(cacheFolder, (dataUrl.toString().replaceAll("[^A-Za-z0-9]+", "_") + ".cache"));
+	}
+	
+	/**
+	 * Download the data from a URL to a file, computing the hash of the data
+	 * along the way. The data is first written to a temporary file, which is
+	 * switched live only after the download is complete, and deleted if the
+	 * download fails. Connecting to the URL and reading from it time out, so
+	 * a stalled server cannot block the download forever.
+	 * @param dataUrl the URL to download from
+	 * @param dataFile the file to store the data in
+	 * @return the hash of the downloaded data
+	 * @throws IOException
+	 */
+	static String download(URL dataUrl, File dataFile) throws IOException {
+		return download(dataUrl, dataFile, null);
+	}
+	
+	private static String download(URL dataUrl, File dataFile, ImiDownloadPrefetcher prefetcher) throws IOException {
+		File dataFileLoading = new File(dataFile.getParentFile(), (dataFile.getName() + ".loading"));
+		URLConnection urlConnection = dataUrl.openConnection();
+		urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+		urlConnection.setReadTimeout(READ_TIMEOUT);
+		if ((prefetcher != null) && !prefetcher.addConnection(urlConnection))
+			throw new IOException("Download from " + dataUrl.toString() + " cancelled by shutdown");
+		InputStream urlIn = null;
+		DataHashOutputStream dataOut = null;
+		boolean complete = false;
+		try {
+			urlIn = new BufferedInputStream(urlConnection.getInputStream());
+			
+			//	count whole announced download against disk space bound right away
+			String dataKey = dataUrl.toString();
+			if ((prefetcher != null) && (urlConnection.getContentLength() > 0))
+				prefetcher.setPrefetchingSize(dataKey, urlConnection.getContentLength());
+			
+			dataOut = new DataHashOutputStream(new BufferedOutputStream(new FileOutputStream(dataFileLoading)));
+			byte[] buffer = new byte[65536];
+			long received = 0;
+			for (int r; (r = urlIn.read(buffer, 0, buffer.length)) != -1;) {
+				dataOut.write(buffer, 0, r);
+				received += r;
+				if (prefetcher != null)
+					prefetcher.setPrefetchingSize(dataKey, received);
+			}
+			dataOut.flush();
+			complete = true;
+		}
+		finally {
+			if (dataOut != null)
+				dataOut.close();
+			if (urlIn != null)
+				urlIn.close();
+			if (prefetcher != null)
+				prefetcher.removeConnection(urlConnection);
+			if (!complete)
+				dataFileLoading.delete();
+		}
+		if (dataFile.exists())
+			dataFile.delete();
+		if (!dataFileLoading.renameTo(dataFile))
+			throw new IOException("Could not store data downloaded from " + dataUrl.toString());
+		return dataOut.getDataHash();
+	}
+}
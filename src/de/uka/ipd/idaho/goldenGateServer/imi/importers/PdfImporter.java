@@ -27,17 +27,28 @@
  */
 package de.uka.ipd.idaho.goldenGateServer.imi.importers;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
-import de.uka.ipd.idaho.easyIO.util.HashUtils.MD5;
-import de.uka.ipd.idaho.easyIO.util.RandomByteSource;
+import de.uka.ipd.idaho.gamta.AttributeUtils;
+import de.uka.ipd.idaho.gamta.Attributed;
+import de.uka.ipd.idaho.gamta.defaultImplementation.AbstractAttributed;
 import de.uka.ipd.idaho.gamta.util.ProgressMonitor;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentAction;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent.ComponentActionConsole;
@@ -47,9 +58,13 @@ import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveErrorRecorder;
 import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveInstallerUtils;
 import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveJob;
 import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveProcessInterface;
-import de.uka.ipd.idaho.im.ImDocument;
 import de.uka.ipd.idaho.im.pdf.PdfExtractor;
+import de.uka.ipd.idaho.im.util.ImDocumentData.FolderImDocumentData;
+import de.uka.ipd.idaho.im.util.ImDocumentData.ImDocumentEntry;
 import de.uka.ipd.idaho.im.util.ImDocumentIO;
+import de.uka.ipd.idaho.stringUtils.StringVector;
+import de.uka.ipd.idaho.stringUtils.csvHandler.StringRelation;
+import de.uka.ipd.idaho.stringUtils.csvHandler.StringTupel;
 
 /**
  * Importer for PDF documents, decoding them synchronously, but in a slave JVM.
@@ -62,6 +77,7 @@ public class PdfImporter extends ImiDocumentImporter {
 	
 	private int maxSlaveMemory = 4096;
 	private int maxSlaveCores = 1;
+	private int slavePageImageCacheSize = 16;
 	private File logFolder;
 	private String docStyleListUrl;
 	private File docStyleFolder;
@@ -82,6 +98,14 @@ public class PdfImporter extends ImiDocumentImporter {
 	private int decodingProgress = -1;
 	private boolean decodeVerbose = false;
 	
+	private int maxSlaveJobs = 32;
+	private PdfDecoderWorker decoderWorker = null;
+	private Set decoderWorkers = Collections.synchronizedSet(new HashSet());
+	
+	private int pageRangeDecoders = 1;
+	private long pageRangeMinFileSize = (64 * 1024 * 1024); // 64 MB
+	private LinkedList idlePageRangeWorkers = new LinkedList();
+	
 	/** the usual zero-argument constructor for class loading */
 	public PdfImporter() {}
 	
@@ -93,6 +117,12 @@ public class PdfImporter extends ImiDocumentImporter {
 		
 		this.maxSlaveMemory = original.maxSlaveMemory;
 		this.maxSlaveCores = original.maxSlaveCores;
+		this.slavePageImageCacheSize = original.slavePageImageCacheSize;
+		this.maxSlaveJobs = original.maxSlaveJobs;
+		this.decoderWorkers = original.decoderWorkers;
+		this.pageRangeDecoders = original.pageRangeDecoders;
+		this.pageRangeMinFileSize = original.pageRangeMinFileSize;
+		this.idlePageRangeWorkers = original.idlePageRangeWorkers;
 		this.logFolder = original.logFolder;
 		this.docStyleListUrl = original.docStyleListUrl;
 		this.docStyleFolder = original.docStyleFolder;
@@ -141,6 +171,24 @@ public class PdfImporter extends ImiDocumentImporter {
 			this.maxSlaveCores = Integer.parseInt(config.getSetting("maxSlaveCores", ("" + this.maxSlaveCores)));
 		} catch (RuntimeException re) {}
 		
+		//	get memory budget (in MB) for page images cached in slave process (0 switches cache off)
+		try {
+			this.slavePageImageCacheSize = Integer.parseInt(config.getSetting("slavePageImageCacheSize", ("" + this.slavePageImageCacheSize)));
+		} catch (RuntimeException re) {}
+		
+		//	get number of PDFs after which to recycle decoder slave processes (less than 2 means new slave for every PDF)
+		try {
+			this.maxSlaveJobs = Integer.parseInt(config.getSetting("maxSlaveJobs", ("" + this.maxSlaveJobs)));
+		} catch (RuntimeException re) {}
+		
+		//	get number of slaves to decode large scanned PDFs with in page ranges (less than 2 means no splitting), and minimum file size (in MB) to do so
+		try {
+			this.pageRangeDecoders = Integer.parseInt(config.getSetting("pageRangeDecoders", ("" + this.pageRangeDecoders)));
+		} catch (RuntimeException re) {}
+		try {
+			this.pageRangeMinFileSize = (Long.parseLong(config.getSetting("pageRangeMinFileSize", ("" + (this.pageRangeMinFileSize / (1024 * 1024))))) * 1024 * 1024);
+		} catch (RuntimeException re) {}
+		
 		//	set up folder for logging
 		this.logFolder = new File(this.workingFolder, "Logs");
 		this.logFolder.mkdirs();
@@ -183,6 +231,20 @@ public class PdfImporter extends ImiDocumentImporter {
 			SlaveErrorRecorder.setErrorPath(slaveErrorPath);
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.imi.ImiDocumentImporter#exit()
+	 */
+	public void exit() {
+		
+		//	shut down decoder slave processes kept running between imports (including those of runtime clones)
+		PdfDecoderWorker[] decoderWorkers;
+		synchronized (this.decoderWorkers) {
+			decoderWorkers = ((PdfDecoderWorker[]) this.decoderWorkers.toArray(new PdfDecoderWorker[this.decoderWorkers.size()]));
+		}
+		for (int w = 0; w < decoderWorkers.length; w++)
+			decoderWorkers[w].shutdown();
+	}
+	
 	private static final String IMPORT_STATUS_COMMAND = "status";
 	private static final String IMPORT_THREADS_COMMAND = "threads";
 	private static final String IMPORT_THREAD_GROUPS_COMMAND = "threadGroups";
@@ -487,11 +549,11 @@ public class PdfImporter extends ImiDocumentImporter {
 		//	get document source file
 		File docInFile = idi.getDataFile();
 		
-		//	hash input file first to check whether or not all the decoding hassle makes sense
+		//	get hash of input file first to check whether or not all the decoding hassle makes sense (computed only once, on upload or download)
 		String docInFileHash = null;
 		boolean docExists = false;
 		try {
-			docInFileHash = getDocInFileChecksum(docInFile);
+			docInFileHash = idi.getDataHash();
 			if (this.parent.checkDocumentExists(docInFileHash))
 				docExists = true;
 		}
@@ -546,79 +608,89 @@ public class PdfImporter extends ImiDocumentImporter {
 		//	read verbose flag
 		boolean verbose = ((idi.removeAttribute("verbose") != null) || this.decodeVerbose);
 		
-		//	assemble decoder slave job
-		SyncPdfSlaveJob spsj = new SyncPdfSlaveJob(docInFileHash);
-		spsj.setDataPath(docInFile.getAbsolutePath());
-		spsj.setProperty("DATATYPE", pdfType);
+		//	collect decoding parameters
+		Properties decodeParams = new Properties();
+		decodeParams.setProperty("DATATYPE", pdfType);
 		if ("D".equals(pdfType)) {
-			spsj.setProperty("FONTMODE", fontMode);
+			decodeParams.setProperty("FONTMODE", fontMode);
 			if ("C".equals(fontCharset)) {
-				spsj.setProperty("FONTCS", "C");
-				spsj.setProperty("FONTCSPATH", this.fontCharsetPath);
+				decodeParams.setProperty("FONTCS", "C");
+				decodeParams.setProperty("FONTCSPATH", this.fontCharsetPath);
 			}
-			else spsj.setProperty("FONTCS", fontCharset);
+			else decodeParams.setProperty("FONTCS", fontCharset);
 		}
 		else if (scanDecodeFlags != -1)
-			spsj.setProperty("SCANFLAGS", Integer.toString(scanDecodeFlags, 16).toUpperCase());
-		if (verbose)
-			spsj.setProperty(SlaveJob.VERBOSE_PARAMETER);
-		spsj.setResultPath(docOutFolder.getAbsolutePath());
-		
-		//	start document decoder slave process
-		this.decoderRun = Runtime.getRuntime().exec(spsj.getCommand(docCacheFolder.getAbsolutePath()), new String[0], this.workingFolder);
+			decodeParams.setProperty("SCANFLAGS", Integer.toString(scanDecodeFlags, 16).toUpperCase());
 		this.decodingDocId = docInFileHash;
 		this.decodingParams = idiParamString;
 		
-		//	set up slave process communication
-		this.decoderInterface = new SyncPdfSlaveProcessInterface(this.decoderRun, ("SyncPdf" + idi.hashCode()), docInFileHash, docInFile.getName(), idiParamString, verbose);
-		this.decoderInterface.setProgressMonitor(new ProgressMonitor() {
-			public void setStep(String step) {
-				host.logInfo(getName() + ": " + step);
-				decodingStep = step;
-				decodingStepStart = System.currentTimeMillis();
-			}
-			public void setInfo(String info) {
-				host.logDebug(getName() + ": " + info);
-				decodingInfo = info;
-				decodingInfoStart = System.currentTimeMillis();
-			}
-			private int baseProgress = 0;
-			private int maxProgress = 0;
-			public void setBaseProgress(int baseProgress) {
-				this.baseProgress = baseProgress;
-			}
-			public void setMaxProgress(int maxProgress) {
-				this.maxProgress = maxProgress;
-			}
-			public void setProgress(int progress) {
-				decodingProgress = (this.baseProgress + (((this.maxProgress - this.baseProgress) * progress) / 100));
+		//	split large scans (unless meta pages need to see the whole document) into page ranges decoded in parallel if configured to
+		boolean decodedInPageRanges = false;
+		if (!verbose && (this.pageRangeDecoders > 1) && (scanDecodeFlags != -1) && ((scanDecodeFlags & PdfExtractor.META_PAGES) == 0) && (docInFile.length() >= this.pageRangeMinFileSize)) {
+			decodedInPageRanges = this.decodePageRanges(docInFile, docOutFolder, decodeParams, docInFileHash, idiParamString);
+			
+			//	clean up after failed attempt, we'll decode sequentially below
+			if (!decodedInPageRanges) {
+				this.host.logWarning(this.getName() + ": failed to decode '" + docInFile.getName() + "' in page ranges, decoding sequentially");
+				cleanupFile(docOutFolder);
+				docOutFolder.mkdirs();
 			}
-		});
-		this.decoderInterface.start();
-		
-		//	wait for decoder to finish
-		while (true) try {
-			this.decoderRun.waitFor();
-			break;
-		} catch (InterruptedException ie) {}
+		}
 		
-		try {
+		//	decode sequentially unless page ranges did the job
+		if (!decodedInPageRanges) {
 			
-			//	create document on top of import result
-			ImDocument doc = ImDocumentIO.loadDocument(docOutFolder, new ProgressMonitor() {
-				public void setStep(String step) {
-					host.logInfo(getName() + ": " + step);
+			//	hand PDF to decoder slave process kept running between imports (verbose decoding requires dedicated slave)
+			if (!verbose && (this.maxSlaveJobs > 1)) {
+				if (this.decoderWorker == null)
+					this.decoderWorker = new PdfDecoderWorker(this.createDecodingProgressMonitor());
+				this.decoderRun = this.decoderWorker.slave;
+				this.decoderInterface = this.decoderWorker.slaveInterface;
+				this.decoderInterface.setJob(docInFileHash, docInFile.getName(), idiParamString);
+				boolean decoded = this.decoderWorker.decodePdf(docInFile, docOutFolder, decodeParams);
+				
+				//	recycle decoder slave on failure, or after configured number of jobs
+				if (!decoded || (this.decoderWorker.jobCount >= this.maxSlaveJobs)) {
+					this.decoderWorker.shutdown();
+					this.decoderWorker = null;
 				}
-				public void setInfo(String info) {
-					host.logDebug(getName() + ": " + info);
+			}
+			
+			//	start dedicated decoder slave process otherwise
+			else {
+				
+				//	assemble decoder slave job
+				SyncPdfSlaveJob spsj = new SyncPdfSlaveJob(docInFileHash);
+				spsj.setDataPath(docInFile.getAbsolutePath());
+				for (Iterator pnit = decodeParams.keySet().iterator(); pnit.hasNext();) {
+					String paramName = ((String) pnit.next());
+					spsj.setProperty(paramName, decodeParams.getProperty(paramName));
 				}
-				public void setBaseProgress(int baseProgress) {}
-				public void setMaxProgress(int maxProgress) {}
-				public void setProgress(int progress) {}
-			});
+				if (verbose)
+					spsj.setProperty(SlaveJob.VERBOSE_PARAMETER);
+				spsj.setResultPath(docOutFolder.getAbsolutePath());
+				
+				//	start document decoder slave process
+				this.decoderRun = Runtime.getRuntime().exec(spsj.getCommand(docCacheFolder.getAbsolutePath()), new String[0], this.workingFolder);
+				
+				//	set up slave process communication
+				this.decoderInterface = new SyncPdfSlaveProcessInterface(this.decoderRun, ("SyncPdf" + idi.hashCode()), verbose);
+				this.decoderInterface.setJob(docInFileHash, docInFile.getName(), idiParamString);
+				this.decoderInterface.setProgressMonitor(this.createDecodingProgressMonitor());
+				this.decoderInterface.start();
+				
+				//	wait for decoder to finish
+				while (true) try {
+					this.decoderRun.waitFor();
+					break;
+				} catch (InterruptedException ie) {}
+			}
+		}
+		
+		try {
 			
-			//	hand document back to caller via idi.setDocument()
-			idi.setDocument(doc);
+			//	hand import result straight back to caller via idi.setDocumentData() (saves loading whole document into memory)
+			idi.setDocumentData(docOutFolder);
 		}
 		
 		//	report whatever error might have occurred
@@ -641,16 +713,266 @@ public class PdfImporter extends ImiDocumentImporter {
 		}
 	}
 	
-	private static String getDocInFileChecksum(File docInFile) throws IOException {
-		MD5 checksumDigester = new MD5(); // uses instance pool inside, and takes care of all initialization, resetting, etc.
-		InputStream docInFileIn = new BufferedInputStream(new FileInputStream(docInFile));
-		byte[] buffer = new byte[1024];
-		for (int r; (r = docInFileIn.read(buffer, 0, buffer.length)) != -1;)
-			checksumDigester.update(buffer, 0, r);
-		docInFileIn.close();
-		byte[] checksumBytes = checksumDigester.digest();
-		String checksum = new String(RandomByteSource.getHexCode(checksumBytes));
-		return checksum;
+	/* Decode a scanned PDF in as many page ranges as configured, each in its
+	 * own decoder slave, and merge the resulting document folders. The first
+	 * page range goes to our own decoder slave and straight into the output
+	 * folder, the others go to helper slaves shared between runtime clones.
+	 * Any error is reported by returning false, leaving it to the caller to
+	 * clean up the output folder and decode sequentially. */
+	private boolean decodePageRanges(final File docInFile, File docOutFolder, Properties decodeParams, String docId, String idiParamString) {
+		PdfDecoderWorker[] workers = new PdfDecoderWorker[this.pageRangeDecoders];
+		File[] partOutFolders = new File[workers.length];
+		final boolean[] partDecoded = new boolean[workers.length];
+		try {
+			
+			//	get decoder slaves
+			if (this.decoderWorker == null)
+				this.decoderWorker = new PdfDecoderWorker(this.createDecodingProgressMonitor());
+			this.decoderRun = this.decoderWorker.slave;
+			this.decoderInterface = this.decoderWorker.slaveInterface;
+			workers[0] = this.decoderWorker;
+			partOutFolders[0] = docOutFolder;
+			for (int p = 1; p < workers.length; p++) {
+				workers[p] = this.getPageRangeWorker();
+				partOutFolders[p] = new File(docOutFolder.getParentFile(), (docOutFolder.getName() + "-part" + p));
+				partOutFolders[p].mkdirs();
+			}
+			
+			//	decode page ranges in parallel (first one in current thread)
+			Thread[] partDecoders = new Thread[workers.length];
+			for (int p = 1; p < workers.length; p++) {
+				final int part = p;
+				final PdfDecoderWorker partWorker = workers[p];
+				final File partOutFolder = partOutFolders[p];
+				final Properties partDecodeParams = getPageRangeDecodeParams(decodeParams, p, workers.length);
+				partWorker.slaveInterface.setJob(docId, (docInFile.getName() + " [pages " + p + "/" + workers.length + "]"), idiParamString);
+				partDecoders[p] = new Thread(this.getName() + "PageRangeDecoder" + p) {
+					public void run() {
+						partDecoded[part] = partWorker.decodePdf(docInFile, partOutFolder, partDecodeParams);
+					}
+				};
+				partDecoders[p].start();
+			}
+			workers[0].slaveInterface.setJob(docId, (docInFile.getName() + " [pages 0/" + workers.length + "]"), idiParamString);
+			partDecoded[0] = workers[0].decodePdf(docInFile, docOutFolder, getPageRangeDecodeParams(decodeParams, 0, workers.length));
+			for (int p = 1; p < workers.length; p++) {
+				while (true) try {
+					partDecoders[p].join();
+					break;
+				} catch (InterruptedException ie) {}
+			}
+			
+			//	hand back or recycle decoder slaves
+			if (!partDecoded[0] || (this.decoderWorker.jobCount >= this.maxSlaveJobs)) {
+				this.decoderWorker.shutdown();
+				this.decoderWorker = null;
+			}
+			for (int p = 1; p < workers.length; p++) {
+				this.releasePageRangeWorker(workers[p], partDecoded[p]);
+				workers[p] = null;
+			}
+			
+			//	check success
+			for (int p = 0; p < workers.length; p++) {
+				if (!partDecoded[p])
+					return false;
+			}
+			
+			//	merge page ranges into output folder
+			mergePageRanges(docOutFolder, partOutFolders);
+			return true;
+		}
+		
+		//	catch errors starting helper slaves or merging page ranges
+		catch (IOException ioe) {
+			this.host.logError(this.getName() + ": error decoding '" + docInFile.getName() + "' in page ranges - " + ioe.getMessage());
+			this.host.logError(ioe);
+			return false;
+		}
+		
+		//	clean up
+		finally {
+			for (int p = 1; p < workers.length; p++) {
+				if (workers[p] != null)
+					workers[p].shutdown(); // only happens if we failed to start some worker
+				if (partOutFolders[p] != null)
+					cleanupFile(partOutFolders[p]);
+			}
+		}
+	}
+	
+	private static Properties getPageRangeDecodeParams(Properties decodeParams, int part, int parts) {
+		Properties partDecodeParams = new Properties();
+		partDecodeParams.putAll(decodeParams);
+		partDecodeParams.setProperty("DATATYPE", "S");
+		partDecodeParams.setProperty("PAGERANGE", (part + "/" + parts));
+		return partDecodeParams;
+	}
+	
+	private PdfDecoderWorker getPageRangeWorker() throws IOException {
+		synchronized (this.idlePageRangeWorkers) {
+			if (this.idlePageRangeWorkers.size() != 0)
+				return ((PdfDecoderWorker) this.idlePageRangeWorkers.removeFirst());
+		}
+		return new PdfDecoderWorker(new ProgressMonitor() {
+			public void setStep(String step) {
+				host.logDebug(getName() + " (page range): " + step);
+			}
+			public void setInfo(String info) {}
+			public void setBaseProgress(int baseProgress) {}
+			public void setMaxProgress(int maxProgress) {}
+			public void setProgress(int progress) {}
+		});
+	}
+	
+	private void releasePageRangeWorker(PdfDecoderWorker worker, boolean decoded) {
+		if (decoded && (worker.jobCount < this.maxSlaveJobs)) synchronized (this.idlePageRangeWorkers) {
+			if (this.idlePageRangeWorkers.size() < this.pageRangeDecoders) {
+				this.idlePageRangeWorkers.addLast(worker);
+				return;
+			}
+		}
+		worker.shutdown();
+	}
+	
+	/* Merge the document folders decoded from page ranges 1 through n-1 into
+	 * the one of page range 0. The rows of the CSV entries are merged by
+	 * their key columns, so document level objects like fonts and the source
+	 * supplement are not duplicated. The document attributes come from range
+	 * 0. */
+	private static void mergePageRanges(File docOutFolder, File[] partOutFolders) throws IOException {
+		FolderImDocumentData docData = new FolderImDocumentData(docOutFolder, null);
+		for (int p = 1; p < partOutFolders.length; p++) {
+			FolderImDocumentData partDocData = new FolderImDocumentData(partOutFolders[p], null);
+			ImDocumentEntry[] partEntries = partDocData.getEntries();
+			for (int e = 0; e < partEntries.length; e++) {
+				if ("document.csv".equals(partEntries[e].name))
+					continue;
+				if (partEntries[e].name.endsWith(".csv"))
+					mergeCsvEntry(docData, partDocData, partEntries[e]);
+				else if (!docData.hasEntry(partEntries[e].name))
+					copyEntry(docData, partDocData, partEntries[e]);
+			}
+		}
+		docData.storeEntryList();
+	}
+	
+	/* columns identifying the rows of the various CSV entries, so rows of
+	 * the same object decoded in several page ranges (e.g. font characters
+	 * or the source supplement) can be merged */
+	private static final String[] CSV_KEY_COLUMNS = {"pageId", "box", "type", "id", "name", "charId", "firstWord", "lastWord"};
+	
+	private static void mergeCsvEntry(FolderImDocumentData docData, FolderImDocumentData partDocData, ImDocumentEntry partEntry) throws IOException {
+		StringRelation rows = (docData.hasEntry(partEntry.name) ? readCsvRows(docData.getInputStream(partEntry.name)) : new StringRelation());
+		StringRelation partRows = readCsvRows(partDocData.getInputStream(partEntry));
+		StringVector keys = partRows.getKeys();
+		if ((rows.size() != 0) && !rows.getKeys().concatStrings(";").equals(keys.concatStrings(";")))
+			throw new IOException("Incompatible page range data in '" + partEntry.name + "'");
+		
+		//	index existing rows by key columns
+		StringVector keyColumns = new StringVector();
+		for (int k = 0; k < CSV_KEY_COLUMNS.length; k++) {
+			if (keys.contains(CSV_KEY_COLUMNS[k]))
+				keyColumns.addElement(CSV_KEY_COLUMNS[k]);
+		}
+		if (keyColumns.isEmpty())
+			keyColumns.addContent(keys); // no dedicated key columns, use whole row
+		HashMap rowsByKey = new HashMap();
+		for (int r = 0; r < rows.size(); r++)
+			rowsByKey.put(getCsvRowKey(rows.get(r), keyColumns), rows.get(r));
+		
+		//	add rows of page range, merging ones whose keys we have already
+		for (int r = 0; r < partRows.size(); r++) {
+			StringTupel partRow = partRows.get(r);
+			String rowKey = getCsvRowKey(partRow, keyColumns);
+			StringTupel row = ((StringTupel) rowsByKey.get(rowKey));
+			if (row == null) {
+				rows.addElement(partRow);
+				rowsByKey.put(rowKey, partRow);
+			}
+			else mergeCsvRows(row, partRow, keys);
+		}
+		
+		//	write merged rows
+		BufferedWriter csvOut = new BufferedWriter(new OutputStreamWriter(docData.getOutputStream(partEntry.name), "UTF-8"));
+		StringRelation.writeCsvData(csvOut, rows, ';', '"', keys);
+		csvOut.flush();
+		csvOut.close();
+	}
+	
+	private static StringRelation readCsvRows(InputStream in) throws IOException {
+		Reader csvIn = new InputStreamReader(in, "UTF-8");
+		StringRelation rows = StringRelation.readCsvData(csvIn, true, null);
+		csvIn.close();
+		return rows;
+	}
+	
+	private static String getCsvRowKey(StringTupel row, StringVector keyColumns) {
+		StringBuffer rowKey = new StringBuffer();
+		for (int k = 0; k < keyColumns.size(); k++) {
+			rowKey.append(row.getValue(keyColumns.get(k), ""));
+			rowKey.append('\t');
+		}
+		return rowKey.toString();
+	}
+	
+	/* fill in values missing from row, and add attributes it doesn't have
+	 * (values from earlier page ranges take precedence) */
+	private static void mergeCsvRows(StringTupel row, StringTupel partRow, StringVector keys) {
+		for (int k = 0; k < keys.size(); k++) {
+			String key = keys.get(k);
+			String partValue = partRow.getValue(key, "");
+			if (partValue.length() == 0)
+				continue;
+			String value = row.getValue(key, "");
+			if (value.length() == 0)
+				row.setValue(key, partValue);
+			else if ("attributes".equals(key) && !value.equals(partValue)) {
+				Attributed attributes = new AbstractAttributed();
+				ImDocumentIO.setAttributes(attributes, value);
+				Attributed partAttributes = new AbstractAttributed();
+				ImDocumentIO.setAttributes(partAttributes, partValue);
+				AttributeUtils.copyAttributes(partAttributes, attributes, AttributeUtils.ADD_ATTRIBUTE_COPY_MODE);
+				row.setValue(key, ImDocumentIO.getAttributesString(attributes));
+			}
+		}
+	}
+	
+	private static void copyEntry(FolderImDocumentData docData, FolderImDocumentData partDocData, ImDocumentEntry partEntry) throws IOException {
+		InputStream entryIn = partDocData.getInputStream(partEntry);
+		OutputStream entryOut = docData.getOutputStream(partEntry.name);
+		byte[] buffer = new byte[65536];
+		for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+			entryOut.write(buffer, 0, r);
+		entryOut.flush();
+		entryOut.close();
+		entryIn.close();
+	}
+	
+	private ProgressMonitor createDecodingProgressMonitor() {
+		return new ProgressMonitor() {
+			public void setStep(String step) {
+				host.logInfo(getName() + ": " + step);
+				decodingStep = step;
+				decodingStepStart = System.currentTimeMillis();
+			}
+			public void setInfo(String info) {
+				host.logDebug(getName() + ": " + info);
+				decodingInfo = info;
+				decodingInfoStart = System.currentTimeMillis();
+			}
+			private int baseProgress = 0;
+			private int maxProgress = 0;
+			public void setBaseProgress(int baseProgress) {
+				this.baseProgress = baseProgress;
+			}
+			public void setMaxProgress(int maxProgress) {
+				this.maxProgress = maxProgress;
+			}
+			public void setProgress(int progress) {
+				decodingProgress = (this.baseProgress + (((this.maxProgress - this.baseProgress) * progress) / 100));
+			}
+		};
 	}
 	
 	private static String checkCharParameter(String setValue, String permittedValues, String defValue) {
@@ -684,6 +1006,7 @@ public class PdfImporter extends ImiDocumentImporter {
 				maxCores = (Runtime.getRuntime().availableProcessors() / 4);
 			this.setMaxCores(maxCores);
 			this.setLogPath(logFolder.getAbsolutePath());
+			this.setProperty("PICACHE", ("" + slavePageImageCacheSize));
 			if (docStyleFolder != null)
 				this.setProperty("DSPATH", docStyleFolder.getAbsolutePath());
 			if (docStyleListUrl != null)
@@ -697,18 +1020,45 @@ public class PdfImporter extends ImiDocumentImporter {
 		private String pdfFileName;
 		private String importParams;
 		private boolean verbose;
-		SyncPdfSlaveProcessInterface(Process slave, String slaveName, String docId, String pdfFileName, String importParams, boolean verbose) {
+		private String jobResult = null;
+		private boolean slaveExited = false;
+		SyncPdfSlaveProcessInterface(Process slave, String slaveName, boolean verbose) {
 			super(slave, slaveName);
-			this.docId = docId;
-			this.pdfFileName = pdfFileName;
-			this.importParams = importParams;
 			this.verbose = verbose;
 		}
 		void setReportTo(ComponentActionConsole reportTo) {
 			this.reportTo = reportTo;
 		}
+		void setJob(String docId, String pdfFileName, String importParams) {
+			this.docId = docId;
+			this.pdfFileName = pdfFileName;
+			this.importParams = importParams;
+		}
+		synchronized boolean waitForJob() {
+			while ((this.jobResult == null) && !this.slaveExited) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			boolean jobSuccessful = "OK".equals(this.jobResult);
+			this.jobResult = null;
+			return jobSuccessful;
+		}
+		synchronized boolean isSlaveExited() {
+			return this.slaveExited;
+		}
+		private synchronized void notifyJobDone(String jobResult) {
+			this.jobResult = jobResult;
+			this.notifyAll();
+		}
+		private synchronized void notifySlaveExited() {
+			this.slaveExited = true;
+			this.notifyAll();
+		}
 		protected void handleInput(String input) {
-			if (this.verbose)
+			if (input.startsWith("JD:"))
+				this.notifyJobDone(input.substring("JD:".length()));
+			else if (input.startsWith("PIS:"))
+				host.logDebug(getName() + ": " + input.substring("PIS:".length()));
+			else if (this.verbose)
 				host.logInfo(getName() + ": " + input);
 		}
 		protected void handleResult(String result) {
@@ -728,6 +1078,7 @@ public class PdfImporter extends ImiDocumentImporter {
 		}
 		protected void finalizeSystemOut() {
 			this.reportError(this.outStackTrace);
+			this.notifySlaveExited();
 		}
 		private ArrayList errStackTrace = new ArrayList();
 		protected void handleError(String error, boolean fromSysErr) {
@@ -773,4 +1124,63 @@ public class PdfImporter extends ImiDocumentImporter {
 			SlaveErrorRecorder.recordError((parent.getLetterCode() + "." + getName()), this.docId, errorClassName, (errorMessage + " (in " + this.pdfFileName + ", params " + this.importParams + ")"), errorStackTrace);
 		}
 	}
-}
\ No newline at end of file
+	
+	/* decoder slave process kept running across imports, recycled on
+	 * failure or after a configurable number of decoded PDFs */
+	private class PdfDecoderWorker {
+		final Process slave;
+		final SyncPdfSlaveProcessInterface slaveInterface;
+		final File slaveCacheFolder;
+		int jobCount = 0;
+		PdfDecoderWorker(ProgressMonitor pm) throws IOException {
+			String spsjId = (getName() + "-" + System.currentTimeMillis());
+			
+			//	create cache folder for slave lifetime
+			this.slaveCacheFolder = new File(cacheFolder, ("decoder-" + spsjId));
+			this.slaveCacheFolder.mkdirs();
+			
+			//	assemble decoder slave job (decoding parameters come with individual PDFs)
+			SyncPdfSlaveJob spsj = new SyncPdfSlaveJob(spsjId);
+			spsj.setDataPath(this.slaveCacheFolder.getAbsolutePath());
+			spsj.setResultPath(this.slaveCacheFolder.getAbsolutePath());
+			spsj.setProperty("POOLED", "true");
+			
+			//	start decoder slave process and set up communication
+			this.slave = Runtime.getRuntime().exec(spsj.getCommand(this.slaveCacheFolder.getAbsolutePath()), new String[0], workingFolder);
+			this.slaveInterface = new SyncPdfSlaveProcessInterface(this.slave, ("SyncPdf" + spsjId), false);
+			this.slaveInterface.setProgressMonitor(pm);
+			this.slaveInterface.start();
+			decoderWorkers.add(this);
+			host.logInfo(getName() + ": started decoder slave " + spsjId);
+		}
+		boolean decodePdf(File docInFile, File docOutFolder, Properties decodeParams) {
+			this.jobCount++;
+			StringBuffer job = new StringBuffer("JOB:");
+			job.append(docInFile.getAbsolutePath());
+			job.append("\t" + docOutFolder.getAbsolutePath());
+			for (Iterator pnit = decodeParams.keySet().iterator(); pnit.hasNext();) {
+				String paramName = ((String) pnit.next());
+				job.append("\t" + paramName + "=" + decodeParams.getProperty(paramName));
+			}
+			this.slaveInterface.sendOutput(job.toString());
+			return this.slaveInterface.waitForJob();
+		}
+		void shutdown() {
+			if (!decoderWorkers.remove(this))
+				return; // shut down before
+			if (!this.slaveInterface.isSlaveExited())
+				this.slaveInterface.sendOutput("EXIT");
+			Thread slaveCleaner = new Thread("PdfDecoderSlaveCleaner") {
+				public void run() {
+					while (true) try {
+						slave.waitFor();
+						break;
+					} catch (InterruptedException ie) {}
+					cleanupFile(slaveCacheFolder);
+				}
+			};
+			slaveCleaner.setDaemon(true);
+			slaveCleaner.start();
+		}
+	}
+}
@@ -31,17 +31,28 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 
+import org.icepdf.core.pobjects.Document;
+
+import de.uka.ipd.idaho.easyIO.util.HashUtils;
 import de.uka.ipd.idaho.gamta.util.AnalyzerDataProvider;
 import de.uka.ipd.idaho.gamta.util.AnalyzerDataProviderFileBased;
 import de.uka.ipd.idaho.gamta.util.DocumentStyle;
@@ -68,12 +79,15 @@ import de.uka.ipd.idaho.im.util.ImSupplementCache;
 /**
  * Stripped-down copy of Image Markup's generic PDF importer command line tool,
  * with options restricted to specific application needs, and amended with URL
- * based document style provider for increased accuracy.
+ * based document style provider for increased accuracy. In pooled mode, the
+ * slave keeps running after its first PDF, decoding any further PDFs the
+ * master hands over, until told to exit.
  * 
  * @author sautter
  */
 public class PdfImporterSlave implements SlaveConstants {
 	private static final int maxInMemorySupplementBytes = (50 * 1024 * 1024); // 50 MB
+	private static final String POOLED_PARAMETER = "POOLED";
 	
 	public static void main(String[] args) throws Exception {
 //		
@@ -194,54 +208,31 @@ public class PdfImporterSlave implements SlaveConstants {
 		Properties argsMap = SlaveRuntimeUtils.parseArguments(args);
 		
 		//	set up communication with master (before logging tampers with output streams)
-		MasterProcessInterface mpi = new MasterProcessInterface();
+		PdfDecoderMasterProcessInterface mpi = new PdfDecoderMasterProcessInterface();
 		mpi.start();
 		
-		//	check parameters before investing effort in loading data
-		String sourceType = argsMap.getProperty("DATATYPE", "G");
-		if (("GDSM".indexOf(sourceType) == -1) || (sourceType.length() != 1)) {
-			mpi.sendError("Invalid source type '" + sourceType + "'");
-			return;
-		}
-		String fontMode = argsMap.getProperty("FONTMODE", "V");
-		if (("DVURQ".indexOf(fontMode) == -1) || (fontMode.length() != 1)) {
-			mpi.sendError("Invalid font decoding mode '" + fontMode + "'");
-			return;
-		}
-		String fontCharSet = argsMap.getProperty("FONTCS", "U");
-		if (("UFEBC".indexOf(fontCharSet) == -1) || (fontCharSet.length() != 1)) {
-			mpi.sendError("Invalid font decoding charset '" + fontCharSet + "'");
-			return;
-		}
-		String fontCharSetPath = argsMap.getProperty("FONTCSPATH");
-		if ("C".equals(fontCharSet) && (fontCharSetPath == null)) {
-			mpi.sendError("Missing font decoding charset path for charset '" + fontCharSet + "'");
-			return;
-		}
-		String scanDecodeFlagsHex = argsMap.getProperty("SCANFLAGS");
-		int scanDecodeFlags = -1;
-		if ((scanDecodeFlagsHex != null) && ("GSM".indexOf(sourceType) != -1)) try {
-			scanDecodeFlags = Integer.parseInt(scanDecodeFlagsHex, 16);
-			if ("G".equals(sourceType))
-				sourceType = (((scanDecodeFlags & PdfExtractor.META_PAGES) == 0) ? "S" : "M");
+		//	keep decoding PDFs handed over by master until told to exit
+		if (argsMap.getProperty(POOLED_PARAMETER) != null) {
+			decodePdfs(argsMap, mpi);
+			
+			//	shut down whatever threads are left
+			System.exit(0);
 		}
-		catch (NumberFormatException nfe) {
-			mpi.sendError("Invalid scan decoding flags '" + scanDecodeFlagsHex + "'");
+		
+		//	check parameters before investing effort in loading data
+		PdfDecodingParameters params = PdfDecodingParameters.getParameters(argsMap, mpi);
+		if (params == null)
 			return;
-		}
 		
-		//	create input source
-		BufferedInputStream pdfIn;
+		//	check input source
+		File sourceFile = null;
 		String sourcePath = argsMap.getProperty(DATA_PATH_PARAMETER);
-		if (sourcePath == null)
-			pdfIn = new BufferedInputStream(System.in);
-		else {
-			File sourceFile = new File(sourcePath);
+		if (sourcePath != null) {
+			sourceFile = new File(sourcePath);
 			if (!sourceFile.exists()) {
 				mpi.sendError("Invalid input file '" + sourcePath + "'");
 				return;
 			}
-			pdfIn = new BufferedInputStream(new FileInputStream(sourceFile));
 		}
 		
 		//	create output destination
@@ -253,60 +244,23 @@ public class PdfImporterSlave implements SlaveConstants {
 		}
 		
 		//	create document style provider
-		String docStylePath = argsMap.getProperty("DSPATH");
-		String docStyleListUrl = argsMap.getProperty("DSURL");
-		System.out.println("ImiPdfDecoder: document styles are from " + docStylePath + " and " + docStyleListUrl);
-		if (docStylePath != null) try {
-			PisDocumentStyleProvider dsp = new PisDocumentStyleProvider(docStyleListUrl, new File(docStylePath));
-			System.out.println("ImiPdfDecoder: document style provider created");
-			dsp.init();
-			System.out.println("ImiPdfDecoder: document style provider initialized");
-		}
-		catch (IOException ioe) {
-			mpi.sendError("Could not load document style templates: " + ioe.getMessage());
-		}
+		createDocumentStyleProvider(argsMap, mpi);
 		
 		//	read input PDF
-		byte[] pdfByteBuffer = new byte[1024];
-		ByteArrayOutputStream pdfByteCollector = new ByteArrayOutputStream();
-		for (int r; (r = pdfIn.read(pdfByteBuffer, 0, pdfByteBuffer.length)) != -1;)
-			pdfByteCollector.write(pdfByteBuffer, 0, r);
-		pdfIn.close();
-		byte[] pdfBytes = pdfByteCollector.toByteArray();
+		byte[] pdfBytes = ((sourceFile == null) ? readPdfBytes(new BufferedInputStream(System.in)) : readPdfBytes(sourceFile));
 		
 		//	set up logging (if we have a folder)
 		SlaveRuntimeUtils.setUpLogFiles(argsMap, "ImiPdfDecoder");
 		
 		//	get charset
-		FontDecoderCharset useFontCharSet;
-		if ("Q".equals(fontMode))
-			useFontCharSet = PdfFontDecoder.NO_DECODING;
-		else if ("R".equals(fontMode))
-			useFontCharSet = PdfFontDecoder.RENDER_ONLY;
-		else {
-			if ("U".equals(fontCharSet))
-				useFontCharSet = PdfFontDecoder.UNICODE;
-			else if ("F".equals(fontCharSet))
-				useFontCharSet = PdfFontDecoder.LATIN_FULL;
-			else if ("E".equals(fontCharSet))
-				useFontCharSet = PdfFontDecoder.LATIN;
-			else if ("B".equals(fontCharSet))
-				useFontCharSet = PdfFontDecoder.LATIN_BASIC;
-			else if ("C".equals(fontCharSet))
-				useFontCharSet = readCustomCharSet(fontCharSetPath);
-			else return;
-			
-			//	add font mode if required
-			if ("U".equals(fontMode))
-				useFontCharSet = FontDecoderCharset.union(useFontCharSet, PdfFontDecoder.DECODE_UNMAPPED);
-			else if ("V".equals(fontMode))
-				useFontCharSet = FontDecoderCharset.union(useFontCharSet, PdfFontDecoder.VERIFY_MAPPED);
-		}
+		FontDecoderCharset useFontCharSet = params.getFontCharSet();
+		if (useFontCharSet == null)
+			return;
 		
 		//	create page image store
 		String cacheBasePath = argsMap.getProperty(CACHE_PATH_PARAMETER, ".");
 		ImageIO.setUseCache(false);
-		PageImageStore pis = new PisPageImageStore(new File(cacheBasePath + "/PageImages/"));
+		PisPageImageStore pis = new PisPageImageStore(new File(cacheBasePath + "/PageImages/"), getPageImageCacheSize(argsMap));
 		PageImage.addPageImageSource(pis);
 		
 		//	switch parallel jobs to linear or limited parallel execution if requested to
@@ -320,33 +274,379 @@ public class PdfImporterSlave implements SlaveConstants {
 		final File supplementFolder = new File(cacheBasePath + "/Supplements/");
 		if (!supplementFolder.exists())
 			supplementFolder.mkdirs();
-		PdfExtractor pdfExtractor = new PisPdfExtractor(new File("."), new File(cacheBasePath), pis, true, supplementFolder);
+		PisPdfExtractor pdfExtractor = new PisPdfExtractor(new File("."), new File(cacheBasePath), pis, true, supplementFolder);
 		
 		//	decode input PDF
 		ProgressMonitor pm = mpi.createProgressMonitor();
-		ImDocument imDoc;
-		if ("G".equals(sourceType))
-			imDoc = pdfExtractor.loadGenericPdf(pdfBytes, pm);
-		else if ("D".equals(sourceType))
-			imDoc = pdfExtractor.loadTextPdf(pdfBytes, useFontCharSet, pm);
-		else if (scanDecodeFlags != -1)
-			imDoc = pdfExtractor.loadImagePdf(pdfBytes, scanDecodeFlags, pm);
-		else if ("S".equals(sourceType))
-			imDoc = pdfExtractor.loadImagePdf(pdfBytes, false, pm);
-		else if ("M".equals(sourceType))
-			imDoc = pdfExtractor.loadImagePdf(pdfBytes, true, pm);
-		else imDoc = null; // never gonna happen, as we exit further upstream if none of the types match ...
+		ImDocument imDoc = params.decodePdf(pdfExtractor, pdfBytes, useFontCharSet, pm);
+		pdfBytes = null; // release PDF bytes for garbage collection before storing document
 		
 		//	shut down PDF extractor
 		pdfExtractor.shutdown();
 		
 		//	write output to folder
 		ImDocumentIO.storeDocument(imDoc, outFile, pm);
+		mpi.sendOutput("PIS:" + pis.getStatistics());
 //		
 //		//	shut down whatever threads are left
 //		System.exit(0);
 	}
 	
+	private static void decodePdfs(Properties argsMap, PdfDecoderMasterProcessInterface mpi) throws Exception {
+		
+		//	create document style provider
+		createDocumentStyleProvider(argsMap, mpi);
+		
+		//	set up logging (if we have a folder)
+		SlaveRuntimeUtils.setUpLogFiles(argsMap, "ImiPdfDecoder");
+		
+		//	create page image store
+		String cacheBasePath = argsMap.getProperty(CACHE_PATH_PARAMETER, ".");
+		ImageIO.setUseCache(false);
+		File pageImageFolder = new File(cacheBasePath + "/PageImages/");
+		PisPageImageStore pis = new PisPageImageStore(pageImageFolder, getPageImageCacheSize(argsMap));
+		PageImage.addPageImageSource(pis);
+		
+		//	switch parallel jobs to limited parallel execution if requested to
+		SlaveRuntimeUtils.setUpMaxCores(argsMap);
+		
+		//	create PDF extractor
+		final File supplementFolder = new File(cacheBasePath + "/Supplements/");
+		if (!supplementFolder.exists())
+			supplementFolder.mkdirs();
+		PisPdfExtractor pdfExtractor = new PisPdfExtractor(new File("."), new File(cacheBasePath), pis, true, supplementFolder);
+		
+		//	create progress monitor reporting back to master
+		ProgressMonitor pm = mpi.createProgressMonitor();
+		
+		//	decode PDFs as they come in
+		while (true) {
+			String job = mpi.getNextJob();
+			if (job == null)
+				break;
+			
+			//	parse job (source path, output path, and decoding parameters)
+			String[] jobData = job.split("\\t");
+			Properties jobArgs = new Properties();
+			for (int d = 2; d < jobData.length; d++) {
+				if (jobData[d].indexOf('=') != -1)
+					jobArgs.setProperty(jobData[d].substring(0, jobData[d].indexOf('=')), jobData[d].substring(jobData[d].indexOf('=') + "=".length()));
+			}
+			
+			//	decode PDF
+			boolean jobSuccessful = false;
+			try {
+				jobSuccessful = decodePdf(jobData, jobArgs, pdfExtractor, mpi, pm);
+			}
+			catch (Throwable t) {
+				mpi.sendError("Error decoding PDF: " + t.getMessage());
+				mpi.sendError(t);
+			}
+			
+			//	clean up cached page images and supplements of decoded document (reporting cache statistics to master for logging)
+			mpi.sendOutput("PIS:" + pis.getStatistics());
+			pis.clear();
+			cleanupFolderContent(pageImageFolder);
+			cleanupFolderContent(supplementFolder);
+			
+			//	report back to master
+			mpi.sendOutput("JD:" + (jobSuccessful ? "OK" : "E"));
+		}
+		
+		//	shut down PDF extractor
+		pdfExtractor.shutdown();
+	}
+	
+	private static boolean decodePdf(String[] jobData, Properties jobArgs, PisPdfExtractor pdfExtractor, PdfDecoderMasterProcessInterface mpi, ProgressMonitor pm) throws Exception {
+		
+		//	check parameters
+		PdfDecodingParameters params = PdfDecodingParameters.getParameters(jobArgs, mpi);
+		if (params == null)
+			return false;
+		if (jobData.length < 2) {
+			mpi.sendError("Invalid job '" + Arrays.toString(jobData) + "'");
+			return false;
+		}
+		
+		//	check input source
+		File sourceFile = new File(jobData[0]);
+		if (!sourceFile.exists()) {
+			mpi.sendError("Invalid input file '" + jobData[0] + "'");
+			return false;
+		}
+		
+		//	check output destination
+		File outFile = new File(jobData[1]);
+		if (!outFile.exists() || !outFile.isDirectory()) {
+			mpi.sendError("Invalid output destination '" + jobData[1] + "'");
+			return false;
+		}
+		
+		//	get charset
+		FontDecoderCharset useFontCharSet = params.getFontCharSet();
+		if (useFontCharSet == null)
+			return false;
+		
+		//	read input PDF
+		byte[] pdfBytes = readPdfBytes(sourceFile);
+		
+		//	decode input PDF
+		ImDocument imDoc = params.decodePdf(pdfExtractor, pdfBytes, useFontCharSet, pm);
+		pdfBytes = null; // release PDF bytes for garbage collection before storing document
+		
+		//	write output to folder
+		ImDocumentIO.storeDocument(imDoc, outFile, pm);
+		imDoc.dispose();
+		return true;
+	}
+	
+	private static void createDocumentStyleProvider(Properties argsMap, MasterProcessInterface mpi) {
+		String docStylePath = argsMap.getProperty("DSPATH");
+		String docStyleListUrl = argsMap.getProperty("DSURL");
+		System.out.println("ImiPdfDecoder: document styles are from " + docStylePath + " and " + docStyleListUrl);
+		if (docStylePath != null) try {
+			PisDocumentStyleProvider dsp = new PisDocumentStyleProvider(docStyleListUrl, new File(docStylePath));
+			System.out.println("ImiPdfDecoder: document style provider created");
+			dsp.init();
+			System.out.println("ImiPdfDecoder: document style provider initialized");
+		}
+		catch (IOException ioe) {
+			mpi.sendError("Could not load document style templates: " + ioe.getMessage());
+		}
+	}
+	
+	/* Read a whole PDF file into memory, straight into a byte array of the
+	 * exact file size. This avoids the intermediate buffer and the doubling
+	 * growth of a byte array output stream, which used to take up to three
+	 * times the PDF size in heap for large scans. */
+	private static byte[] readPdfBytes(File pdfFile) throws IOException {
+		long pdfSize = pdfFile.length();
+		if (pdfSize > Integer.MAX_VALUE)
+			throw new IOException("PDF file '" + pdfFile.getName() + "' too large (" + pdfSize + " bytes)");
+		DataInputStream pdfIn = new DataInputStream(new FileInputStream(pdfFile));
+		try {
+			byte[] pdfBytes = new byte[(int) pdfSize];
+			pdfIn.readFully(pdfBytes);
+			return pdfBytes;
+		}
+		finally {
+			pdfIn.close();
+		}
+	}
+	
+	private static byte[] readPdfBytes(BufferedInputStream pdfIn) throws IOException {
+		byte[] pdfByteBuffer = new byte[1024];
+		ByteArrayOutputStream pdfByteCollector = new ByteArrayOutputStream();
+		for (int r; (r = pdfIn.read(pdfByteBuffer, 0, pdfByteBuffer.length)) != -1;)
+			pdfByteCollector.write(pdfByteBuffer, 0, r);
+		pdfIn.close();
+		return pdfByteCollector.toByteArray();
+	}
+	
+	private static long getPageImageCacheSize(Properties argsMap) {
+		try {
+			return (Long.parseLong(argsMap.getProperty("PICACHE", "16")) * 1024 * 1024);
+		}
+		catch (NumberFormatException nfe) {
+			return (16 * 1024 * 1024);
+		}
+	}
+	
+	private static void cleanupFolderContent(File folder) {
+		File[] files = folder.listFiles();
+		if (files == null)
+			return;
+		for (int f = 0; f < files.length; f++) {
+			if (files[f].isDirectory())
+				cleanupFolderContent(files[f]);
+			files[f].delete();
+		}
+	}
+	
+	private static class PdfDecodingParameters {
+		final String sourceType;
+		final String fontMode;
+		final String fontCharSet;
+		final String fontCharSetPath;
+		final int scanDecodeFlags;
+		final int pageRangePart;
+		final int pageRangeParts;
+		private PdfDecodingParameters(String sourceType, String fontMode, String fontCharSet, String fontCharSetPath, int scanDecodeFlags, int pageRangePart, int pageRangeParts) {
+			this.sourceType = sourceType;
+			this.fontMode = fontMode;
+			this.fontCharSet = fontCharSet;
+			this.fontCharSetPath = fontCharSetPath;
+			this.scanDecodeFlags = scanDecodeFlags;
+			this.pageRangePart = pageRangePart;
+			this.pageRangeParts = pageRangeParts;
+		}
+		
+		FontDecoderCharset getFontCharSet() throws IOException {
+			FontDecoderCharset useFontCharSet;
+			if ("Q".equals(this.fontMode))
+				useFontCharSet = PdfFontDecoder.NO_DECODING;
+			else if ("R".equals(this.fontMode))
+				useFontCharSet = PdfFontDecoder.RENDER_ONLY;
+			else {
+				if ("U".equals(this.fontCharSet))
+					useFontCharSet = PdfFontDecoder.UNICODE;
+				else if ("F".equals(this.fontCharSet))
+					useFontCharSet = PdfFontDecoder.LATIN_FULL;
+				else if ("E".equals(this.fontCharSet))
+					useFontCharSet = PdfFontDecoder.LATIN;
+				else if ("B".equals(this.fontCharSet))
+					useFontCharSet = PdfFontDecoder.LATIN_BASIC;
+				else if ("C".equals(this.fontCharSet))
+					useFontCharSet = readCustomCharSet(this.fontCharSetPath);
+				else return null;
+				
+				//	add font mode if required
+				if ("U".equals(this.fontMode))
+					useFontCharSet = FontDecoderCharset.union(useFontCharSet, PdfFontDecoder.DECODE_UNMAPPED);
+				else if ("V".equals(this.fontMode))
+					useFontCharSet = FontDecoderCharset.union(useFontCharSet, PdfFontDecoder.VERIFY_MAPPED);
+			}
+			return useFontCharSet;
+		}
+		
+		ImDocument decodePdf(PisPdfExtractor pdfExtractor, byte[] pdfBytes, FontDecoderCharset useFontCharSet, ProgressMonitor pm) throws IOException {
+			if (this.pageRangeParts > 1)
+				return this.decodePdfPageRange(pdfExtractor, pdfBytes, pm);
+			else if ("G".equals(this.sourceType))
+				return pdfExtractor.loadGenericPdf(pdfBytes, pm);
+			else if ("D".equals(this.sourceType))
+				return pdfExtractor.loadTextPdf(pdfBytes, useFontCharSet, pm);
+			else if (this.scanDecodeFlags != -1)
+				return pdfExtractor.loadImagePdf(pdfBytes, this.scanDecodeFlags, pm);
+			else if ("S".equals(this.sourceType))
+				return pdfExtractor.loadImagePdf(pdfBytes, false, pm);
+			else if ("M".equals(this.sourceType))
+				return pdfExtractor.loadImagePdf(pdfBytes, true, pm);
+			else return null; // never gonna happen, as we exit further upstream if none of the types match ...
+		}
+		
+		private ImDocument decodePdfPageRange(PisPdfExtractor pdfExtractor, byte[] pdfBytes, ProgressMonitor pm) throws IOException {
+			
+			//	count pages
+			int pageCount;
+			Document pdfDoc = new Document();
+			try {
+				pdfDoc.setByteArray(pdfBytes, 0, pdfBytes.length, null);
+				pageCount = pdfDoc.getNumberOfPages();
+			}
+			catch (IOException ioe) {
+				throw ioe;
+			}
+			catch (Exception e) {
+				throw new IOException(e.getMessage());
+			}
+			finally {
+				pdfDoc.dispose();
+			}
+			
+			//	compute our part of page range
+			int minPageId = ((this.pageRangePart * pageCount) / this.pageRangeParts);
+			int maxPageId = ((((this.pageRangePart + 1) * pageCount) / this.pageRangeParts) - 1);
+			pm.setInfo("Decoding pages " + minPageId + " through " + maxPageId + " of " + pageCount);
+			
+			//	use ID of whole document (rather than one factoring in page IDs) so parts can be merged
+			String docId = HashUtils.getMd5(pdfBytes);
+			if (maxPageId < minPageId)
+				return pdfExtractor.createDocument(docId); // fewer pages than parts, nothing to do here
+			Set pageIds = new LinkedHashSet();
+			for (int p = minPageId; p <= maxPageId; p++)
+				pageIds.add(new Integer(p));
+			pdfExtractor.setDocumentId(docId);
+			try {
+				return pdfExtractor.loadImagePdf(pdfBytes, this.scanDecodeFlags, pageIds, pm);
+			}
+			finally {
+				pdfExtractor.setDocumentId(null);
+			}
+		}
+		
+		static PdfDecodingParameters getParameters(Properties argsMap, MasterProcessInterface mpi) {
+			String sourceType = argsMap.getProperty("DATATYPE", "G");
+			if (("GDSM".indexOf(sourceType) == -1) || (sourceType.length() != 1)) {
+				mpi.sendError("Invalid source type '" + sourceType + "'");
+				return null;
+			}
+			String fontMode = argsMap.getProperty("FONTMODE", "V");
+			if (("DVURQ".indexOf(fontMode) == -1) || (fontMode.length() != 1)) {
+				mpi.sendError("Invalid font decoding mode '" + fontMode + "'");
+				return null;
+			}
+			String fontCharSet = argsMap.getProperty("FONTCS", "U");
+			if (("UFEBC".indexOf(fontCharSet) == -1) || (fontCharSet.length() != 1)) {
+				mpi.sendError("Invalid font decoding charset '" + fontCharSet + "'");
+				return null;
+			}
+			String fontCharSetPath = argsMap.getProperty("FONTCSPATH");
+			if ("C".equals(fontCharSet) && (fontCharSetPath == null)) {
+				mpi.sendError("Missing font decoding charset path for charset '" + fontCharSet + "'");
+				return null;
+			}
+			String scanDecodeFlagsHex = argsMap.getProperty("SCANFLAGS");
+			int scanDecodeFlags = -1;
+			if ((scanDecodeFlagsHex != null) && ("GSM".indexOf(sourceType) != -1)) try {
+				scanDecodeFlags = Integer.parseInt(scanDecodeFlagsHex, 16);
+				if ("G".equals(sourceType))
+					sourceType = (((scanDecodeFlags & PdfExtractor.META_PAGES) == 0) ? "S" : "M");
+			}
+			catch (NumberFormatException nfe) {
+				mpi.sendError("Invalid scan decoding flags '" + scanDecodeFlagsHex + "'");
+				return null;
+			}
+			String pageRange = argsMap.getProperty("PAGERANGE");
+			int pageRangePart = 0;
+			int pageRangeParts = 1;
+			if (pageRange != null) try {
+				pageRangePart = Integer.parseInt(pageRange.substring(0, pageRange.indexOf('/')));
+				pageRangeParts = Integer.parseInt(pageRange.substring(pageRange.indexOf('/') + "/".length()));
+				if ((pageRangePart < 0) || (pageRangeParts <= pageRangePart))
+					throw new NumberFormatException(pageRange);
+			}
+			catch (RuntimeException re /* number format as well as string index out of bounds */) {
+				mpi.sendError("Invalid page range '" + pageRange + "'");
+				return null;
+			}
+			
+			//	page ranges only work for plain scans (meta pages need to see the whole document)
+			if ((pageRangeParts > 1) && (!"S".equals(sourceType) || (scanDecodeFlags == -1) || ((scanDecodeFlags & PdfExtractor.META_PAGES) != 0))) {
+				mpi.sendError("Page range '" + pageRange + "' only applicable to scanned PDFs with explicit decoding flags");
+				return null;
+			}
+			return new PdfDecodingParameters(sourceType, fontMode, fontCharSet, fontCharSetPath, scanDecodeFlags, pageRangePart, pageRangeParts);
+		}
+	}
+	
+	private static class PdfDecoderMasterProcessInterface extends MasterProcessInterface {
+		private LinkedList jobs = new LinkedList();
+		synchronized String getNextJob() {
+			while (this.jobs.isEmpty()) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			String job = ((String) this.jobs.removeFirst());
+			return ("EXIT".equals(job) ? null : job);
+		}
+		private synchronized void enqueueJob(String job) {
+			this.jobs.addLast(job);
+			this.notify();
+		}
+		protected void handleInput(String input) {
+			if (input == null)
+				this.enqueueJob("EXIT"); // end of input, master is gone
+			else if (input.startsWith("JOB:"))
+				this.enqueueJob(input.substring("JOB:".length()));
+			else if (input.equals("EXIT"))
+				this.enqueueJob(input);
+		}
+		@Override
+		protected void finalizeSystemIn() {
+			this.enqueueJob("EXIT"); // end of input, master is gone, so don't wait for further jobs
+		}
+	}
+	
 	private static FontDecoderCharset readCustomCharSet(String path) throws IOException {
 		BufferedReader fdcIn;
 		if (path.startsWith("http://") || path.startsWith("https://"))
@@ -383,27 +683,63 @@ public class PdfImporterSlave implements SlaveConstants {
 		}
 	}
 	
+	/* page image store writing to files, keeping the bytes of the most
+	 * recently read page images in memory up to a small given budget (zero
+	 * switches caching off) */
 	private static class PisPageImageStore extends AbstractPageImageStore {
 		private AnalyzerDataProvider pisDataProvider;
-		private HashMap byteCache = new HashMap();
-		PisPageImageStore(File pisDataPath) {
+		private LinkedHashMap byteCache = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (cachedBytes <= maxCachedBytes)
+					return false;
+				for (Iterator eit = this.entrySet().iterator(); eit.hasNext();) {
+					if (cachedBytes <= maxCachedBytes)
+						break;
+					byte[] bytes = ((byte[]) ((Map.Entry) eit.next()).getValue());
+					eit.remove(); // page image is in backing file anyway
+					cachedBytes -= bytes.length;
+					evictions++;
+				}
+				return false; // we've done the removal ourselves
+			}
+		};
+		private long cachedBytes = 0;
+		private long maxCachedBytes;
+		private int hits = 0;
+		private int misses = 0;
+		private int evictions = 0;
+		PisPageImageStore(File pisDataPath, long maxCachedBytes) {
 			this.pisDataProvider = new AnalyzerDataProviderFileBased(pisDataPath);
+			this.maxCachedBytes = maxCachedBytes;
 		}
-		public boolean isPageImageAvailable(String name) {
+		public synchronized boolean isPageImageAvailable(String name) {
 			if (!name.endsWith(IMAGE_FORMAT))
 				name += ("." + IMAGE_FORMAT);
-			if (pisDataProvider.isDataAvailable(name))
+			if (this.byteCache.containsKey(name))
 				return true;
-			else return this.byteCache.containsKey(name);
+			else return pisDataProvider.isDataAvailable(name);
 		}
 		public PageImageInputStream getPageImageAsStream(String name) throws IOException {
 			if (!name.endsWith(IMAGE_FORMAT))
 				name += ("." + IMAGE_FORMAT);
-			if (pisDataProvider.isDataAvailable(name))
+			byte[] bytes = this.getCachedBytes(name);
+			if (bytes != null)
+				return new PageImageInputStream(new ByteArrayInputStream(bytes), this);
+			if (!pisDataProvider.isDataAvailable(name))
+				return null;
+			if (this.maxCachedBytes < 1)
 				return new PageImageInputStream(pisDataProvider.getInputStream(name), this);
-			else if (this.byteCache.containsKey(name))
-				return new PageImageInputStream(new ByteArrayInputStream((byte[]) this.byteCache.get(name)), this);
-			else return null;
+			
+			//	read page image from file, and cache it
+			InputStream imageIn = pisDataProvider.getInputStream(name);
+			ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[65536];
+			for (int r; (r = imageIn.read(buffer, 0, buffer.length)) != -1;)
+				imageBytes.write(buffer, 0, r);
+			imageIn.close();
+			bytes = imageBytes.toByteArray();
+			this.cacheBytes(name, bytes);
+			return new PageImageInputStream(new ByteArrayInputStream(bytes), this);
 		}
 		public boolean storePageImage(String name, PageImage pageImage) throws IOException {
 			if (!name.endsWith(IMAGE_FORMAT))
@@ -412,6 +748,7 @@ public class PdfImporterSlave implements SlaveConstants {
 				OutputStream imageOut = pisDataProvider.getOutputStream(name);
 				pageImage.write(imageOut);
 				imageOut.close();
+				this.uncacheBytes(name); // cache on next read
 				return true;
 			}
 			catch (IOException ioe) {
@@ -419,6 +756,37 @@ public class PdfImporterSlave implements SlaveConstants {
 				return false;
 			}
 		}
+		private synchronized byte[] getCachedBytes(String name) {
+			if (this.maxCachedBytes < 1)
+				return null;
+			byte[] bytes = ((byte[]) this.byteCache.get(name));
+			if (bytes == null)
+				this.misses++;
+			else this.hits++;
+			return bytes;
+		}
+		private synchronized void cacheBytes(String name, byte[] bytes) {
+			if (bytes.length > this.maxCachedBytes)
+				return; // no use pushing everything else out
+			this.uncacheBytes(name);
+			this.cachedBytes += bytes.length;
+			this.byteCache.put(name, bytes);
+		}
+		private synchronized void uncacheBytes(String name) {
+			byte[] oldBytes = ((byte[]) this.byteCache.remove(name));
+			if (oldBytes != null)
+				this.cachedBytes -= oldBytes.length;
+		}
+		synchronized void clear() {
+			this.byteCache.clear();
+			this.cachedBytes = 0;
+			this.hits = 0;
+			this.misses = 0;
+			this.evictions = 0;
+		}
+		synchronized String getStatistics() {
+			return ("PisPageImageStore: " + this.hits + " hits, " + this.misses + " misses, " + this.evictions + " evictions, " + this.byteCache.size() + " page images with " + this.cachedBytes + " bytes (of " + this.maxCachedBytes + ") in cache");
+		}
 		public int getPriority() {
 			return 0; // we're a general page image store, yield to specific ones
 		}
@@ -426,12 +794,16 @@ public class PdfImporterSlave implements SlaveConstants {
 	
 	private static class PisPdfExtractor extends PdfExtractor {
 		private File supplementFolder;
+		private String documentId = null;
 		PisPdfExtractor(File basePath, File cachePath, PageImageStore imageStore, boolean useMultipleCores, File supplementFolder) {
 			super(basePath, cachePath, imageStore, useMultipleCores);
 			this.supplementFolder = supplementFolder;
 		}
+		void setDocumentId(String documentId) {
+			this.documentId = documentId;
+		}
 		protected ImDocument createDocument(String docId) {
-			return new PisImDocument(docId, this.supplementFolder);
+			return new PisImDocument(((this.documentId == null) ? docId : this.documentId), this.supplementFolder);
 		}
 	}
 	
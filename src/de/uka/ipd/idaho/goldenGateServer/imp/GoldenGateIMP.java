@@ -34,16 +34,23 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -57,10 +64,12 @@ import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent.EventLogger;
 import de.uka.ipd.idaho.goldenGateServer.imi.GoldenGateIMI;
+import de.uka.ipd.idaho.goldenGateServer.imp.ImpJobCheckpoints.JobCheckpoint;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateIMS;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateIMS.ImsDocumentData;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateImsConstants.ImsDocumentEvent;
 import de.uka.ipd.idaho.goldenGateServer.ims.GoldenGateImsConstants.ImsDocumentEvent.ImsDocumentEventListener;
+import de.uka.ipd.idaho.goldenGateServer.ims.util.Prefetcher;
 import de.uka.ipd.idaho.goldenGateServer.uaa.UserAccessAuthority;
 import de.uka.ipd.idaho.goldenGateServer.util.AsynchronousDataActionHandler;
 import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveErrorRecorder;
@@ -90,11 +99,32 @@ public class GoldenGateIMP extends AbstractGoldenGateServerComponent implements
 	private String batchUserName;
 	private int maxSlaveMemory = 1024;
 	private int maxSlaveCores = 1;
+	private int minSlaveMemory = 512;
+	private int slaveMemoryPerPage = 2;
+	private int slaveMemoryPerDataMb = 2;
+	private int slavePagesPerCore = 32;
+	private boolean directEntryTransfer = true;
+	private boolean pipelineDocuments = true;
+	private Prefetcher documentPrefetcher = null;
+	private int maxToolStatisticsSamples = 1000;
+	private ImpToolStatistics toolStatistics;
+	private boolean toolCheckpoints = false;
+	private int toolCheckpointMinSeconds = 60;
+	private int maxResumeAttempts = 3;
+	private ImpJobCheckpoints jobCheckpoints;
+	private boolean shuttingDown = false;
+	private ImpMarkupToolCache markupToolCache;
 	
 	private File workingFolder;
 	private File logFolder;
 	private File cacheFolder;
 	private AsynchronousDataActionHandler documentProcessor;
+	private ImpJobScheduler jobScheduler;
+	private int reservedInteractiveRuns = -1;
+	private int queueAgingMinutes = 60;
+	
+	/* priority of interactive jobs, putting them ahead of any bulk jobs in the processing queue */
+	private static final int INTERACTIVE_PRIORITY = 12;
 	
 	//	TODOne keep these fields _per_slave_ soon as we start using multiple !!!
 //	private Process batchRun = null;
@@ -153,6 +183,43 @@ TODO Do NOT keep IMP batch runs in array ...
 			this.maxSlaveCores = Integer.parseInt(this.configuration.getSetting("maxSlaveCores", ("" + this.maxSlaveCores)));
 		} catch (RuntimeException re) {}
 		
+		//	get parameters for sizing slave processes to individual documents
+		try {
+			this.minSlaveMemory = Integer.parseInt(this.configuration.getSetting("minSlaveMemory", ("" + this.minSlaveMemory)));
+		} catch (RuntimeException re) {}
+		try {
+			this.slaveMemoryPerPage = Integer.parseInt(this.configuration.getSetting("slaveMemoryPerPage", ("" + this.slaveMemoryPerPage)));
+		} catch (RuntimeException re) {}
+		try {
+			this.slaveMemoryPerDataMb = Integer.parseInt(this.configuration.getSetting("slaveMemoryPerDataMb", ("" + this.slaveMemoryPerDataMb)));
+		} catch (RuntimeException re) {}
+		try {
+			this.slavePagesPerCore = Integer.parseInt(this.configuration.getSetting("slavePagesPerCore", ("" + this.slavePagesPerCore)));
+		} catch (RuntimeException re) {}
+		
+		//	get number of documents and memory load (in percent) after which to recycle pooled slave processes
+		try {
+			this.slaveMaxDocuments = Integer.parseInt(this.configuration.getSetting("slaveMaxDocuments", ("" + this.slaveMaxDocuments)));
+		} catch (RuntimeException re) {}
+		try {
+			this.slaveMaxMemoryLoad = Integer.parseInt(this.configuration.getSetting("slaveMaxMemoryLoad", ("" + this.slaveMaxMemoryLoad)));
+		} catch (RuntimeException re) {}
+		
+		//	check whether or not to give slaves direct read access to IMS entry files (requires slaves on same file system)
+		this.directEntryTransfer = "true".equals(this.configuration.getSetting("directEntryTransfer", ("" + this.directEntryTransfer)));
+		
+		//	check whether or not to prepare next documents and finalize previous ones while slaves are busy
+		this.pipelineDocuments = "true".equals(this.configuration.getSetting("pipelineDocuments", ("" + this.pipelineDocuments)));
+		
+		//	check whether or not to have slaves store the document after long running tools, and how often to resume interrupted jobs
+		this.toolCheckpoints = "true".equals(this.configuration.getSetting("toolCheckpoints", ("" + this.toolCheckpoints)));
+		try {
+			this.toolCheckpointMinSeconds = Integer.parseInt(this.configuration.getSetting("toolCheckpointMinSeconds", ("" + this.toolCheckpointMinSeconds)));
+		} catch (RuntimeException re) {}
+		try {
+			this.maxResumeAttempts = Integer.parseInt(this.configuration.getSetting("maxResumeAttempts", ("" + this.maxResumeAttempts)));
+		} catch (RuntimeException re) {}
+		
 		//	get working folder
 		String workingFolderName = this.configuration.getSetting("workingFolderName", "Processor");
 		while (workingFolderName.startsWith("./"))
@@ -160,6 +227,26 @@ TODO Do NOT keep IMP batch runs in array ...
 		this.workingFolder = (((workingFolderName.indexOf(":\\") == -1) && (workingFolderName.indexOf(":/") == -1) && !workingFolderName.startsWith("/")) ? new File(this.dataPath, workingFolderName) : new File(workingFolderName));
 		this.workingFolder.mkdirs();
 		
+		//	get folder for job checkpoints
+		this.jobCheckpoints = new ImpJobCheckpoints(new File(this.workingFolder, "Jobs"));
+		
+		//	get folder for cached markup tool lists
+		this.markupToolCache = new ImpMarkupToolCache(new File(this.workingFolder, "MarkupTools"));
+		
+		//	get folder for GGI configuration versions, use last completed one, and clean up any others (no slaves running after restart, higher versions left over by interrupted updates)
+		this.ggiConfigVersionsFolder = new File(this.workingFolder, "GgiConfigVersions");
+		this.ggiConfigVersionsFolder.mkdirs();
+		this.ggiConfigVersion = this.readCompletedGgiConfigVersion();
+		if (!this.getGgiConfigVersionFolder(this.ggiConfigVersion).exists())
+			this.ggiConfigVersion = 0;
+		File[] ggiConfigVersionFolders = this.ggiConfigVersionsFolder.listFiles();
+		for (int v = 0; v < ggiConfigVersionFolders.length; v++) {
+			if (ggiConfigVersionFolders[v].getName().equals("CompletedVersion.txt"))
+				continue; // marker of last completed version
+			if (!ggiConfigVersionFolders[v].getName().equals("" + this.ggiConfigVersion))
+				cleanupFile(ggiConfigVersionFolders[v]);
+		}
+		
 		//	get log folder
 		String logFolderName = this.configuration.getSetting("logFolderName", "Logs");
 		while (logFolderName.startsWith("./"))
@@ -167,6 +254,15 @@ TODO Do NOT keep IMP batch runs in array ...
 		this.logFolder = (((logFolderName.indexOf(":\\") == -1) && (logFolderName.indexOf(":/") == -1) && !logFolderName.startsWith("/")) ? new File(this.workingFolder, logFolderName) : new File(logFolderName));
 		this.logFolder.mkdirs();
 		
+		//	load statistics on resource usage of individual Image Markup Tools
+		try {
+			this.maxToolStatisticsSamples = Integer.parseInt(this.configuration.getSetting("maxToolStatisticsSamples", ("" + this.maxToolStatisticsSamples)));
+		} catch (RuntimeException re) {}
+		File toolStatisticsFolder = new File(this.workingFolder, "ToolStatistics");
+		toolStatisticsFolder.mkdirs();
+		this.toolStatistics = new ImpToolStatistics(toolStatisticsFolder, this.maxToolStatisticsSamples);
+		this.toolStatistics.load();
+		
 		//	get URL import cache folder (RAM disc !!!)
 		String cacheFolderName = this.configuration.getSetting("cacheFolderName", "Cache");
 		while (cacheFolderName.startsWith("./"))
@@ -200,12 +296,23 @@ TODO Do NOT keep IMP batch runs in array ...
 			this.maxParallelBatchRuns = Integer.parseInt(maxParallelBatches);
 		} catch (NumberFormatException nfe) {}
 		
+		//	read number of batch runs to keep free for interactive jobs, and after how long waiting jobs get preference
+		try {
+			this.reservedInteractiveRuns = Integer.parseInt(this.configuration.getSetting("reservedInteractiveRuns", ("" + this.reservedInteractiveRuns)));
+		} catch (NumberFormatException nfe) {}
+		if (this.reservedInteractiveRuns < 0)
+			this.reservedInteractiveRuns = ((this.maxParallelBatchRuns > 1) ? 1 : 0);
+		try {
+			this.queueAgingMinutes = Integer.parseInt(this.configuration.getSetting("queueAgingMinutes", ("" + this.queueAgingMinutes)));
+		} catch (NumberFormatException nfe) {}
+		
 		//	create asynchronous worker
 		TableColumnDefinition[] argCols = {
 			new TableColumnDefinition("BatchOrImtName", TableDefinition.VARCHAR_DATATYPE, 64),
 			new TableColumnDefinition("DocStyleMode", TableDefinition.CHAR_DATATYPE, 1),
 			new TableColumnDefinition("LogVerbose", TableDefinition.CHAR_DATATYPE, 1),
 			new TableColumnDefinition("UserName", TableDefinition.VARCHAR_DATATYPE, 32),
+			new TableColumnDefinition("Lane", TableDefinition.CHAR_DATATYPE, 1),
 		};
 		this.documentProcessor = new AsynchronousDataActionHandler("Imp", this.maxParallelBatchRuns, argCols, this, this.host.getIoProvider()) {
 			protected void performDataAction(String dataId, String[] arguments) throws Exception {
@@ -221,13 +328,62 @@ TODO Do NOT keep IMP batch runs in array ...
 					docStyleMode = 'R';
 				else if ((docStyleMode != 'U') && (docStyleMode != 'I') && (docStyleMode != 'B'))
 					docStyleMode = 'R';
-				processDocument(dataId, batchOrImtName, docStyleMode, verbose, userName);
+				try {
+					processDocument(dataId, batchOrImtName, docStyleMode, verbose, userName, arguments);
+				}
+				finally {
+					if ((arguments.length > 4) && "B".equals(arguments[4]))
+						jobScheduler.jobFinished(ImpJobScheduler.getJobKey(dataId, arguments));
+				}
+			}
+		};
+		
+		//	create fair share dispatcher for bulk jobs, keeping free the reserved batch runs for interactive jobs
+		File jobQueueFolder = new File(this.workingFolder, "JobQueues");
+		jobQueueFolder.mkdirs();
+		this.jobScheduler = new ImpJobScheduler(jobQueueFolder, Math.max(1, (this.maxParallelBatchRuns - this.reservedInteractiveRuns)), (1000L * 60 * Math.max(1, this.queueAgingMinutes))) {
+			void releaseJob(String docId, String[] args, int priority) {
+				if (documentPrefetcher != null)
+					documentPrefetcher.enqueue(docId); // enqueue preparation first, so it is known when processing gets to the document
+				documentProcessor.enqueueDataAction(docId, args, priority);
 			}
 		};
 		
+		//	create preparation stage for released bulk jobs
+		if (this.pipelineDocuments)
+			this.documentPrefetcher = new Prefetcher("ImpDocumentPrefetcher", 1, this.maxParallelBatchRuns, (1000L * 60 * 30)) {
+				protected Object prefetch(String docId) throws Exception {
+					
+					//	leave alone documents in processing (e.g. by an earlier job), as preparing would clean up their cache folder
+					if (isDocumentInProcessing(docId))
+						throw new IOException("Document " + docId + " in processing");
+					return prepareDocument(docId);
+				}
+				protected void discard(String docId, Object preparedDoc) {
+					discardDocument((PreparedDocument) preparedDoc);
+				}
+			};
+		Settings submitterWeights = this.configuration.getSubset("submitterWeight");
+		String[] submitters = submitterWeights.getKeys();
+		for (int s = 0; s < submitters.length; s++) try {
+			this.jobScheduler.setSubmitterWeight(submitters[s], Integer.parseInt(submitterWeights.getSetting(submitters[s])));
+		} catch (NumberFormatException nfe) {}
+		
+		//	restore bulk jobs held back before shutdown (or crash)
+		this.jobScheduler.load();
+		
 		//	TODO get list of documents from IMS
 		
 		//	TODO schedule processing for all documents we still hold the lock for (must have been interrupted by shutdown before we could save them back and release them)
+		//	==> resume from last checkpoint in interactive lane, as documents are locked
+		JobCheckpoint[] checkpoints = this.jobCheckpoints.getCheckpoints();
+		for (int c = 0; c < checkpoints.length; c++) {
+			logInfo("Resuming job " + checkpoints[c].jobId + " on document " + checkpoints[c].docId + " after " + checkpoints[c].toolsDone + " of " + checkpoints[c].getToolCount() + " Image Markup Tools");
+			this.documentProcessor.enqueueDataAction(checkpoints[c].docId, checkpoints[c].getJobArguments(), INTERACTIVE_PRIORITY);
+		}
+		
+		//	start releasing bulk jobs
+		this.jobScheduler.start();
 		
 		//	set up collecting of errors from our slave processes
 		String slaveErrorPath = this.host.getServerProperty("SlaveProcessErrorPath");
@@ -392,7 +548,7 @@ TODO Do NOT keep IMP batch runs in array ...
 					return;
 				BatchTriggerData btd = ((BatchTriggerData) this.imsUpdatedDocIDs.remove(dse.dataId));
 				if (btd != null)
-					scheduleProcessing(dse.dataId, btd.batchName, 'B', false, btd.userName, 0);
+					scheduleProcessing(dse.dataId, btd.batchName, 'B', false, btd.userName, 0, false);
 			}
 			class BatchTriggerData {
 				final String batchName;
@@ -413,8 +569,27 @@ TODO Do NOT keep IMP batch runs in array ...
 	 */
 	protected void exitComponent() {
 		
+		//	no more resuming interrupted jobs, checkpoints are picked up on startup
+		this.shuttingDown = true;
+		
+		//	release any prepared documents
+		if (this.documentPrefetcher != null)
+			this.documentPrefetcher.shutdown();
+		
+		//	persist bulk jobs still held back, keeping their place in line for restart
+		this.jobScheduler.close();
+		
 		//	shut down processing handler thread
 		this.documentProcessor.shutdown();
+		
+		//	wait for finalization of processed documents
+		this.waitForFinalizations();
+		
+		//	shut down pooled slave processes
+		this.shutdownIdleSlaves();
+		
+		//	persist tool statistics
+		this.toolStatistics.close();
 	}
 	
 	/**
@@ -537,7 +712,7 @@ TODO Do NOT keep IMP batch runs in array ...
 			throw new IllegalArgumentException("Batch '" + batchName + "' does not exist.");
 		else if ((docStyleMode != 'R') && (docStyleMode != 'U') && (docStyleMode != 'I'))
 			docStyleMode = 'B';
-		this.scheduleProcessing(docId, batchName, docStyleMode, false, userName, priority);
+		this.scheduleProcessing(docId, batchName, docStyleMode, false, userName, priority, false);
 	}
 	
 	synchronized boolean ensureStyleProvider() {
@@ -555,14 +730,21 @@ TODO Do NOT keep IMP batch runs in array ...
 		return true;
 	}
 	
-	private void scheduleProcessing(String docId, String batchOrImtName, char docStyleMode, boolean verbose, String userName, int priority) {
+	private void scheduleProcessing(String docId, String batchOrImtName, char docStyleMode, boolean verbose, String userName, int priority, boolean interactive) {
 		String[] args = {
 			((batchOrImtName == null) ? "" : batchOrImtName),
 			("" + docStyleMode),
 			(verbose ? "V" : "F"),
-			((userName == null) ? "" : userName)
+			((userName == null) ? "" : userName),
+			(interactive ? "I" : "B")
 		};
-		this.documentProcessor.enqueueDataAction(docId, args, priority);
+		
+		//	interactive jobs go right into processing queue, ahead of any bulk jobs
+		if (interactive)
+			this.documentProcessor.enqueueDataAction(docId, args, Math.max(priority, INTERACTIVE_PRIORITY));
+		
+		//	bulk jobs go through fair share dispatcher
+		else this.jobScheduler.enqueueJob(docId, args, ((userName == null) ? this.batchUserName : userName), Math.min(priority, (INTERACTIVE_PRIORITY - 1)));
 	}
 	
 	private static final String PROCESS_DOCUMENT_COMMAND = "process";
@@ -581,6 +763,7 @@ TODO Do NOT keep IMP batch runs in array ...
 	private static final String CHECK_BATCH_COMMAND = "checkBatch";
 	private static final String CHECK_BATCHES_COMMAND = "checkBatches";
 	private static final String QUEUE_SIZE_COMMAND = "queueSize";
+	private static final String TOOL_STATISTICS_COMMAND = "toolStats";
 	
 	/* TODO create console action factory for slave owners:
 	 * - provide slave interface via closure interface ...
@@ -657,7 +840,7 @@ TODO Do NOT keep IMP batch runs in array ...
 					else if (docStyleMode == ' ')
 						docStyleMode = ((getBatchForName(batchOrImtName) == null) ? 'R' : 'B');
 					if ((docStyleMode != 'R') || ensureStyleProvider())
-						scheduleProcessing(arguments[0], batchOrImtName, docStyleMode, verbose, userName, 0);
+						scheduleProcessing(arguments[0], batchOrImtName, docStyleMode, verbose, userName, 0, false);
 					else {
 						this.reportError(" Cannot process documents without style templates, and provider not given.");
 						this.reportError(" Use '-dsX' parameters to alter handling of document style templates.");
@@ -1142,18 +1325,93 @@ TODO Do NOT keep IMP batch runs in array ...
 			public String[] getExplanation() {
 				String[] explanation = {
 						QUEUE_SIZE_COMMAND,
-						"Show current size of processing queue, i.e., number of documents waiting to be processed."
+						"Show current size of processing queue, i.e., number of documents waiting to be processed, with bulk jobs broken down by submitter."
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
-				if (arguments.length == 0)
-					this.reportResult(documentProcessor.getDataActionsPending() + " documents waiting to be processed.");
+				if (arguments.length == 0) {
+					this.reportResult(documentProcessor.getDataActionsPending() + " documents waiting to be processed, " + jobScheduler.getJobsWaiting() + " more held back for fair share:");
+					String[] submitterStatus = jobScheduler.getSubmitterStatus();
+					for (int s = 0; s < submitterStatus.length; s++)
+						this.reportResult(" - " + submitterStatus[s]);
+				}
 				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 			}
 		};
 		cal.add(ca);
 		
+		//	show tool statistics
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return TOOL_STATISTICS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						TOOL_STATISTICS_COMMAND + " <batchName>",
+						"Show wall clock time, CPU time, and peak heap usage percentiles of the Image Markup Tools in a batch:",
+						"- <batchName>: the name of the batch to show the tool statistics for (optional, omitting it lists the batches with statistics, use '-' for individual tool runs)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0) {
+					String[] batchNames = toolStatistics.getBatchNames();
+					this.reportResult("There are tool statistics for " + batchNames.length + " batches:");
+					for (int b = 0; b < batchNames.length; b++)
+						this.reportResult(" - " + ((batchNames[b].length() == 0) ? "- (individual tool runs)" : batchNames[b]));
+				}
+				else if (arguments.length == 1) {
+					String batchName = ("-".equals(arguments[0]) ? "" : arguments[0]);
+					ImpToolStatistics.ToolStatistics[] tss = toolStatistics.getToolStatistics(batchName);
+					if (tss.length == 0) {
+						this.reportError(" There are no tool statistics for batch '" + arguments[0] + "'.");
+						return;
+					}
+					this.reportResult("Tool statistics for batch '" + arguments[0] + "' (50th/90th/99th percentile):");
+					for (int t = 0; t < tss.length; t++) {
+						this.reportResult(" - " + tss[t].toolName + " (" + tss[t].getSampleCount() + " runs):");
+						this.reportResult("   - wall clock time: " + tss[t].getPercentile(ImpToolStatistics.WALL_TIME, 50) + "/" + tss[t].getPercentile(ImpToolStatistics.WALL_TIME, 90) + "/" + tss[t].getPercentile(ImpToolStatistics.WALL_TIME, 99) + " ms");
+						this.reportResult("   - CPU time: " + tss[t].getPercentile(ImpToolStatistics.CPU_TIME, 50) + "/" + tss[t].getPercentile(ImpToolStatistics.CPU_TIME, 90) + "/" + tss[t].getPercentile(ImpToolStatistics.CPU_TIME, 99) + " ms");
+						this.reportResult("   - peak heap: " + (tss[t].getPercentile(ImpToolStatistics.PEAK_HEAP, 50) / (1024 * 1024)) + "/" + (tss[t].getPercentile(ImpToolStatistics.PEAK_HEAP, 90) / (1024 * 1024)) + "/" + (tss[t].getPercentile(ImpToolStatistics.PEAK_HEAP, 99) / (1024 * 1024)) + " MB");
+					}
+				}
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify the batch name as the only argument.");
+			}
+		};
+		cal.add(ca);
+		
+		//	send tool statistics
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_TOOL_STATISTICS;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				//	check authentication
+				String sessionId = input.readLine();
+				if (!uaa.isValidSession(sessionId)) {
+					output.write("Not logged in");
+					output.newLine();
+					return;
+				}
+				
+				//	get batch name (empty for individual tool runs)
+				String batchName = input.readLine();
+				if (batchName == null)
+					batchName = "";
+				
+				//	indicate results coming
+				output.write(GET_TOOL_STATISTICS);
+				output.newLine();
+				
+				//	write tool statistics
+				toolStatistics.writeJson(batchName.trim(), output);
+				output.newLine();
+			}
+		};
+		cal.add(ca);
+		
 		//	send batch descriptors
 		ca = new ComponentActionNetwork() {
 			public String getActionCommand() {
@@ -1181,6 +1439,8 @@ TODO Do NOT keep IMP batch runs in array ...
 					ImpBatch batch = getBatchForName((String) batchNames.get(b));
 					if (batch == null) // TODO filter by user name and assigned permissions as well
 						continue;
+					if (isBatchKnownInvalid(batch))
+						continue;
 					ImpBatchDescriptor ibd = batch.getDescriptor();
 					if (ibd == null)
 						continue;
@@ -1261,14 +1521,20 @@ TODO Do NOT keep IMP batch runs in array ...
 					return;
 				}
 				String batchName = input.readLine();
-				if (getBatchForName(batchName) == null) /* TODO also check access to particular batch */ {
+				ImpBatch batch = getBatchForName(batchName);
+				if (batch == null) /* TODO also check access to particular batch */ {
 					output.write("Invalid batch name '" + batchName + "'");
 					output.newLine();
 					return;
 				}
+				if (isBatchKnownInvalid(batch)) {
+					output.write("Batch '" + batchName + "' uses unavailable Image Markup Tools");
+					output.newLine();
+					return;
+				}
 				
-				//	schedule processing
-				batchProcessDocument(docId, batchName, uaa.getUserNameForSession(sessionId));
+				//	schedule processing (in fast lane, as someone is waiting for the result)
+				scheduleProcessing(docId, batchName, 'B', false, uaa.getUserNameForSession(sessionId), 0, true);
 				
 				//	indicate success
 				output.write(SCHEDULE_BATCH_PROCESSING);
@@ -1281,12 +1547,12 @@ TODO Do NOT keep IMP batch runs in array ...
 		return ((ComponentAction[]) cal.toArray(new ComponentAction[cal.size()]));
 	}
 	
-	private String[][] imToolList = null;
 	private void listMarkupTools(boolean forceReload, boolean providersOnly, String providerPrefix, ComponentActionConsole cac) {
 		
-		//	load markup tools list on demand
-		if ((this.imToolList == null) || forceReload) try {
-			this.imToolList = this.loadMarkupToolList(cac, this.ggiConfigName);
+		//	get markup tools list (loading it on demand)
+		String[][] imToolList;
+		try {
+			imToolList = this.getMarkupToolList(this.ggiConfigName, forceReload, cac);
 		}
 		catch (IOException ioe) {
 			cac.reportError("Could not load markup tool list: " + ioe.getMessage());
@@ -1295,58 +1561,123 @@ TODO Do NOT keep IMP batch runs in array ...
 		}
 		
 		//	print out (filtered) document processor list
-		for (int m = 0; m < this.imToolList.length; m++) {
-			if ((providerPrefix != null) && !this.imToolList[m][0].startsWith(providerPrefix))
+		for (int m = 0; m < imToolList.length; m++) {
+			if ((providerPrefix != null) && !imToolList[m][0].startsWith(providerPrefix))
 				continue;
-			cac.reportResult(this.imToolList[m][0]);
+			cac.reportResult(imToolList[m][0]);
 			if (providersOnly)
 				continue;
-			for (int p = 1; p < this.imToolList[m].length; p++)
-				cac.reportResult(" - " + this.imToolList[m][p]);
+			for (int p = 1; p < imToolList[m].length; p++)
+				cac.reportResult(" - " + imToolList[m][p]);
 		}
 	}
 	
-	private Map imToolListsByConfigName = Collections.synchronizedMap(new TreeMap(String.CASE_INSENSITIVE_ORDER));
 	private TreeSet getMarkupTools(String ggiConfigName, boolean forceReload, ComponentActionConsole cac) {
-		
-		//	check cache
-		TreeSet imTools = (forceReload ? null : ((TreeSet) this.imToolListsByConfigName.get(ggiConfigName)));
-		
-		//	load markup tool list on demand
-		if (imTools == null) try {
-			String[][] imToolList = this.loadMarkupToolList(cac, ggiConfigName);
-			
-			//	flatten out list from by-provider arrangement
-			imTools = new TreeSet(String.CASE_INSENSITIVE_ORDER);
-			for (int m = 0; m < imToolList.length; m++) {
-				for (int p = 1; p < imToolList[m].length; p++)
-					imTools.add(imToolList[m][p]);
-			}
-			
-			//	cache list
-			this.imToolListsByConfigName.put(ggiConfigName, imTools);
+		try {
+			this.getMarkupToolList(ggiConfigName, forceReload, cac); // makes sure tool list is cached
+			int ggiConfigVersion = this.ggiConfigVersion;
+			return this.markupToolCache.getMarkupTools(ggiConfigName, ggiConfigVersion, this.getGgiConfigFolder(ggiConfigName, ggiConfigVersion));
 		}
 		catch (IOException ioe) {
 			cac.reportError("Could not load markup tool list: " + ioe.getMessage());
 			cac.reportError(ioe);
 			return null;
 		}
+	}
+	
+	private String[][] getMarkupToolList(String ggiConfigName, boolean forceReload, ComponentActionConsole cac) throws IOException {
 		
-		//	finally ...
-		return imTools;
+		//	check cache
+		int ggiConfigVersion = this.ggiConfigVersion;
+		File ggiConfigFolder = this.getGgiConfigFolder(ggiConfigName, ggiConfigVersion);
+		String[][] imToolList = (forceReload ? null : this.markupToolCache.getMarkupToolList(ggiConfigName, ggiConfigVersion, ggiConfigFolder));
+		
+		//	load markup tool list on demand, and cache it for current configuration version
+		if (imToolList == null) {
+			imToolList = this.loadMarkupToolList(cac, ggiConfigName, ggiConfigVersion);
+			this.markupToolCache.storeMarkupToolList(ggiConfigName, ggiConfigVersion, ggiConfigFolder, imToolList);
+		}
 		
+		//	finally ...
+		return imToolList;
+	}
+	
+	/* Check a batch against the cached markup tool list of its configuration,
+	 * never starting a slave process. If there is no cached list, loading it
+	 * is triggered in the background, and the batch is assumed valid for now. */
+	private boolean isBatchKnownInvalid(ImpBatch batch) {
+		String batchGgiConfigName = ((batch.ggiConfigName == null) ? this.ggiConfigName : batch.ggiConfigName);
+		int ggiConfigVersion = this.ggiConfigVersion;
+		TreeSet imTools = this.markupToolCache.getMarkupTools(batchGgiConfigName, ggiConfigVersion, this.getGgiConfigFolder(batchGgiConfigName, ggiConfigVersion));
+		if (imTools == null) {
+			this.loadMarkupToolListAsync(batchGgiConfigName);
+			return false;
+		}
+		return (batch.getInvalidImTools(imTools).length != 0);
 	}
 	
-	private String[][] loadMarkupToolList(final ComponentActionConsole cac, String ggiConfigName) throws IOException {
+	private Set markupToolListsLoading = Collections.synchronizedSet(new HashSet());
+	private void loadMarkupToolListAsync(final String ggiConfigName) {
+		if (!this.markupToolListsLoading.add(ggiConfigName.toLowerCase()))
+			return; // loading already under way
+		Thread markupToolListLoader = new Thread("ImpMarkupToolListLoader") {
+			public void run() {
+				try {
+					getMarkupToolList(ggiConfigName, false, new ComponentActionConsole() {
+						public String getActionCommand() {
+							return null;
+						}
+						public String[] getExplanation() {
+							return null;
+						}
+						public void performActionConsole(String[] arguments) {}
+						public void reportResult(String result) {
+							logInfo(result);
+						}
+						public void reportError(String error) {
+							logError(error);
+						}
+						public void reportError(Throwable error) {
+							logError(error);
+						}
+					});
+				}
+				catch (IOException ioe) {
+					logError("Could not load markup tool list for configuration '" + ggiConfigName + "': " + ioe.getMessage());
+					logError(ioe);
+				}
+				finally {
+					markupToolListsLoading.remove(ggiConfigName.toLowerCase());
+				}
+			}
+		};
+		markupToolListLoader.setDaemon(true);
+		markupToolListLoader.start();
+	}
+	
+	private File getGgiConfigFolder(String ggiConfigName, int ggiConfigVersion) {
+		return new File(new File(this.getGgiConfigVersionFolder(ggiConfigVersion), "Configurations"), ggiConfigName);
+	}
+	
+	private String[][] loadMarkupToolList(final ComponentActionConsole cac, String ggiConfigName, int ggiConfigVersion) throws IOException {
 		cac.reportResult("Loading markup tool list for configuration '" + ggiConfigName + "' ...");
 		
 		//	assemble slave job
 		ImpSlaveJob isj = new ImpSlaveJob(Gamta.getAnnotationID(), ggiConfigName, "LISTTOOLS", false); // TODO use persistent UUID
 		isj.setMaxMemory(1024);
 		isj.setMaxCores(1);
+		isj.setGgiConfigVersion(ggiConfigVersion);
+		this.acquireGgiConfigVersion(ggiConfigVersion);
 		
 		//	start batch processor slave process
-		Process imtLister = Runtime.getRuntime().exec(isj.getCommand(null), new String[0], this.workingFolder);
+		Process imtLister;
+		try {
+			imtLister = Runtime.getRuntime().exec(isj.getCommand(null), new String[0], this.workingFolder);
+		}
+		catch (IOException ioe) {
+			this.releaseGgiConfigVersion(ggiConfigVersion);
+			throw ioe;
+		}
 		
 		//	collect Image Markup tool listing
 		final ArrayList imToolProviderList = new ArrayList();
@@ -1386,6 +1717,7 @@ TODO Do NOT keep IMP batch runs in array ...
 			imtLister.waitFor();
 			break;
 		} catch (InterruptedException ie) {}
+		this.releaseGgiConfigVersion(ggiConfigVersion);
 		
 		//	finally ...
 		return ((String[][]) imToolProviderList.toArray(new String[imToolProviderList.size()][]));
@@ -1405,9 +1737,10 @@ TODO Do NOT keep IMP batch runs in array ...
 			return;
 		}
 		cac.reportResult(" - IM tools for " + ((batch.ggiConfigName == null) ? "default configuration" : ("configuration '" + batch.ggiConfigName + "'")) + " loaded");
+		HashSet invalidImTools = new HashSet(Arrays.asList(batch.getInvalidImTools(imTools)));
 		int invalidImToolCount = 0;
 		for (int t = 0; t < batch.imTools.length; t++) {
-			if (imTools.contains(batch.imTools[t]))
+			if (!invalidImTools.contains(batch.imTools[t]))
 				cac.reportResult(" - IM tool '" + batch.imTools[t]+ "' ==> valid");
 			else {
 				invalidImToolCount++;
@@ -1424,33 +1757,192 @@ TODO Do NOT keep IMP batch runs in array ...
 	
 	private boolean updateGgiConfig = false;
 	private Thread ggiConfigUpdater = null;
-	private HashSet ggiConfigUpdateWaiters = new HashSet();
 	private Object ggiConfigUpdateLock = new Object();
+	private File ggiConfigVersionsFolder;
+	private int ggiConfigVersion = 0;
+	private int ggiConfigUpdateVersion = -1;
+	private HashMap ggiConfigVersionUsers = new HashMap();
 	void scheduleGgiConfigUpdate() {
 		this.updateGgiConfig = true;
 	}
 	
+	/* Get the base folder of a GGI configuration version, i.e., the folder
+	 * holding the 'Configurations' folder. Version 0 is the working folder
+	 * proper, where slaves find their configurations by default. */
+	File getGgiConfigVersionFolder(int version) {
+		return ((version == 0) ? this.workingFolder : new File(this.ggiConfigVersionsFolder, ("" + version)));
+	}
+	
+	/* Start using a GGI configuration version, preventing its cleanup. If a
+	 * configuration update is pending and not yet under way, the calling
+	 * thread is tasked with the update, setting up the next version. The
+	 * returned array holds the version to use, and 1 or 0 to indicate if the
+	 * calling thread is to do the update. */
+	private int[] acquireGgiConfigVersion() {
+		synchronized (this.ggiConfigUpdateLock) {
+			int version = this.ggiConfigVersion;
+			boolean doUpdateGgiConfig = false;
+			if (this.updateGgiConfig && (this.ggiConfigUpdater == null)) {
+				this.ggiConfigUpdater = Thread.currentThread();
+				this.ggiConfigUpdateVersion = (this.ggiConfigVersion + 1);
+				while (this.getGgiConfigVersionFolder(this.ggiConfigUpdateVersion).exists())
+					this.ggiConfigUpdateVersion++; // left over by failed update, still in use
+				version = this.ggiConfigUpdateVersion;
+				doUpdateGgiConfig = true;
+			}
+			this.acquireGgiConfigVersion(version);
+			int[] acquired = {version, (doUpdateGgiConfig ? 1 : 0)};
+			return acquired;
+		}
+	}
+	
+	void acquireGgiConfigVersion(int version) {
+		synchronized (this.ggiConfigUpdateLock) {
+			int[] users = ((int[]) this.ggiConfigVersionUsers.get(new Integer(version)));
+			if (users == null) {
+				users = new int[1];
+				this.ggiConfigVersionUsers.put(new Integer(version), users);
+			}
+			users[0]++;
+		}
+	}
+	
+	void releaseGgiConfigVersion(int version) {
+		File obsoleteVersionFolder;
+		synchronized (this.ggiConfigUpdateLock) {
+			int[] users = ((int[]) this.ggiConfigVersionUsers.get(new Integer(version)));
+			if ((users != null) && (--users[0] < 1))
+				this.ggiConfigVersionUsers.remove(new Integer(version));
+			obsoleteVersionFolder = this.retireGgiConfigVersion(version);
+		}
+		this.cleanupGgiConfigVersion(version, obsoleteVersionFolder);
+	}
+	
+	/* Move the folder of a GGI configuration version out of the way if the
+	 * version is no longer in use, so it can be removed without holding the
+	 * update lock. Returns null if the version is still in use. To be called
+	 * while holding the update lock. */
+	private File retireGgiConfigVersion(int version) {
+		if (version == 0)
+			return null; // never clean up working folder proper
+		if ((version == this.ggiConfigVersion) || (version == this.ggiConfigUpdateVersion))
+			return null; // still in use for new slaves
+		if (this.ggiConfigVersionUsers.containsKey(new Integer(version)))
+			return null; // still in use by running slaves
+		File versionFolder = this.getGgiConfigVersionFolder(version);
+		if (!versionFolder.exists())
+			return null; // removed before
+		File obsoleteVersionFolder = new File(this.ggiConfigVersionsFolder, (version + ".obsolete." + System.currentTimeMillis()));
+		return (versionFolder.renameTo(obsoleteVersionFolder) ? obsoleteVersionFolder : versionFolder);
+	}
+	
+	private void cleanupGgiConfigVersion(int version, File obsoleteVersionFolder) {
+		if (obsoleteVersionFolder == null)
+			return;
+		cleanupFile(obsoleteVersionFolder);
+		logInfo("Removed GGI configuration version " + version);
+	}
+	
+	/* Read the last GGI configuration version whose update completed, so we
+	 * never start from a version left half done by an interrupted update. */
+	private int readCompletedGgiConfigVersion() {
+		File versionFile = new File(this.ggiConfigVersionsFolder, "CompletedVersion.txt");
+		if (!versionFile.exists())
+			return 0;
+		try {
+			BufferedReader versionBr = new BufferedReader(new InputStreamReader(new FileInputStream(versionFile), "UTF-8"));
+			String version = versionBr.readLine();
+			versionBr.close();
+			return ((version == null) ? 0 : Integer.parseInt(version.trim()));
+		}
+		catch (NumberFormatException nfe) {
+			logError("Invalid completed GGI configuration version, falling back to 0");
+			return 0;
+		}
+		catch (IOException ioe) {
+			logError("Error reading completed GGI configuration version: " + ioe.getMessage());
+			logError(ioe);
+			return 0;
+		}
+	}
+	
+	/* Record the GGI configuration version whose update completed, writing to
+	 * a temporary file first so a crash cannot leave a garbled marker. */
+	private void writeCompletedGgiConfigVersion(int version) {
+		File versionFile = new File(this.ggiConfigVersionsFolder, "CompletedVersion.txt");
+		File writingVersionFile = new File(this.ggiConfigVersionsFolder, "CompletedVersion.txt.writing");
+		try {
+			OutputStream versionOut = new FileOutputStream(writingVersionFile);
+			versionOut.write(("" + version).getBytes("UTF-8"));
+			versionOut.flush();
+			versionOut.close();
+			if (versionFile.exists())
+				versionFile.delete();
+			writingVersionFile.renameTo(versionFile);
+		}
+		catch (IOException ioe) {
+			logError("Error recording completed GGI configuration version " + version + ": " + ioe.getMessage());
+			logError(ioe);
+		}
+	}
+	
+	/* Set up the folder of a new GGI configuration version, copying the
+	 * configurations of the current version, so the slave doing the update
+	 * only has to fetch what actually changed. */
+	private void prepareGgiConfigVersion(int version) throws IOException {
+		File versionFolder = this.getGgiConfigVersionFolder(version);
+		File currentConfigFolder = new File(this.getGgiConfigVersionFolder(this.ggiConfigVersion), "Configurations");
+		if (currentConfigFolder.exists())
+			copyFolder(currentConfigFolder, new File(versionFolder, "Configurations"));
+		else versionFolder.mkdirs();
+	}
+	
 	void ggiConfigUpdateFinished() {
 		
-		//	mark update as done
+		//	switch to new configuration version (old version is removed once last slave using it exits)
+		int oldVersion;
+		int newVersion;
+		File obsoleteVersionFolder;
 		synchronized (this.ggiConfigUpdateLock) {
+			if (this.ggiConfigUpdater == null)
+				return; // update aborted in the meantime
+			oldVersion = this.ggiConfigVersion;
+			this.ggiConfigVersion = this.ggiConfigUpdateVersion;
+			newVersion = this.ggiConfigVersion;
+			this.ggiConfigUpdateVersion = -1;
 			this.updateGgiConfig = false;
 			this.ggiConfigUpdater = null;
+			obsoleteVersionFolder = this.retireGgiConfigVersion(oldVersion);
+			this.writeCompletedGgiConfigVersion(newVersion);
 		}
+		this.cleanupGgiConfigVersion(oldVersion, obsoleteVersionFolder);
+		logInfo("Switched to GGI configuration version " + newVersion);
 		
-		//	release other batches (need to release monitor between rounds so others can acquire it and actually go out of waiting loop)
-		while (this.ggiConfigUpdateWaiters.size() != 0) {
-			synchronized (this.ggiConfigUpdateLock) {
-				this.ggiConfigUpdateLock.notify();
-			}
-			Thread.yield();
+		//	retire idle pooled slaves still running on previous configuration (busy ones retire when returned to pool)
+		this.shutdownIdleSlaves();
+	}
+	
+	void ggiConfigUpdateAborted() {
+		
+		//	leave update pending for next batch run to retry, and discard partial version
+		int version;
+		File obsoleteVersionFolder;
+		synchronized (this.ggiConfigUpdateLock) {
+			if (this.ggiConfigUpdater != Thread.currentThread())
+				return; // update finished, or picked up by other batch run
+			version = this.ggiConfigUpdateVersion;
+			this.ggiConfigUpdateVersion = -1;
+			this.ggiConfigUpdater = null;
+			obsoleteVersionFolder = this.retireGgiConfigVersion(version);
 		}
+		this.cleanupGgiConfigVersion(version, obsoleteVersionFolder);
+		logError("GGI configuration update failed, will retry with next batch run");
 	}
 	
 	private ArrayList batchRuns = new ArrayList();
 	private ThreadLocal batchRunsByHandler = new ThreadLocal();
 	private Map runningBatchesByNumber = Collections.synchronizedMap(new TreeMap());
-	void processDocument(String docId, String imtName, char docStyleMode, boolean verbose, String userName) throws IOException {
+	void processDocument(String docId, String imtName, char docStyleMode, boolean verbose, String userName, String[] jobArgs) throws IOException {
 		
 		//	create batch run on first available number
 		BatchRun batch = ((BatchRun) this.batchRunsByHandler.get());
@@ -1472,47 +1964,130 @@ TODO Do NOT keep IMP batch runs in array ...
 				}
 			}
 		
-		//	handle config updates, need to run in solo mode
-		boolean doUpdateGgiConfig = this.updateGgiConfig;
-		if (doUpdateGgiConfig) {
-			synchronized (this.ggiConfigUpdateLock) {
-				
-				//	wait for all jobs to finish (cannot update configuration with other job using it)
-				//	be careful about late arrivers, though (worker might come in from sleeping, etc.)
-				//	==> only wait until updating worker selected, right away proceeding to waiting below otherwise
-				while (this.updateGgiConfig && (this.ggiConfigUpdater == null) && (this.runningBatchesByNumber.size() != 0)) try {
-					this.ggiConfigUpdateLock.wait(1000);
-				} catch (InterruptedException ie) {}
-				
-				//	first thread to emerge from waiting loop gets to do update (if it's still pending might have gone to false while we were waiting on lock)
-				if (this.updateGgiConfig) {
-					Thread ct = Thread.currentThread();
-					if (this.ggiConfigUpdater == null)
-						this.ggiConfigUpdater = ct;
-					
-					//	while other wait until update is done
-					else try {
-						doUpdateGgiConfig = false; // need to remember not to do update below
-						this.ggiConfigUpdateWaiters.add(ct);
-						while (this.ggiConfigUpdater != null) try {
-							this.ggiConfigUpdateLock.wait();
-						} catch (InterruptedException ie) {}
-					}
-					finally {
-						this.ggiConfigUpdateWaiters.remove(ct);
-					}
-				}
-				else doUpdateGgiConfig = false; // need to remember not to do update below (even though the flag was set when we checked initially)
-			}
-		}
+		//	get configuration version to use, doing pending config update in new version (other batches keep running on current one meanwhile)
+		int[] ggiConfigVersion = this.acquireGgiConfigVersion();
+		boolean doUpdateGgiConfig = (ggiConfigVersion[1] == 1);
 		
-		//	release current batch tasked with config update
+		//	run current batch, with config update if tasked with it
 		try {
 			this.runningBatchesByNumber.put(batch.number, batch);
-			batch.processDocument(docId, imtName, doUpdateGgiConfig, docStyleMode, verbose, userName);
+			if (doUpdateGgiConfig)
+				this.prepareGgiConfigVersion(ggiConfigVersion[0]);
+			batch.processDocument(docId, imtName, doUpdateGgiConfig, ggiConfigVersion[0], docStyleMode, verbose, userName, jobArgs);
 		}
 		finally {
 			this.runningBatchesByNumber.remove(batch.number);
+			if (doUpdateGgiConfig)
+				this.ggiConfigUpdateAborted(); // no-op if update went through
+			this.releaseGgiConfigVersion(ggiConfigVersion[0]);
+		}
+	}
+	
+	private Set docIdsInProcessing = new HashSet();
+	
+	/* claim a document for a batch run, waiting for any other batch run working on the same document (e.g. for another job) to finish first */
+	private void startDocumentProcessing(String docId) {
+		synchronized (this.docIdsInProcessing) {
+			while (this.docIdsInProcessing.contains(docId)) try {
+				this.docIdsInProcessing.wait();
+			} catch (InterruptedException ie) {}
+			this.docIdsInProcessing.add(docId);
+		}
+	}
+	
+	private void documentProcessingFinished(String docId) {
+		synchronized (this.docIdsInProcessing) {
+			this.docIdsInProcessing.remove(docId);
+			this.docIdsInProcessing.notifyAll();
+		}
+	}
+	
+	private boolean isDocumentInProcessing(String docId) {
+		synchronized (this.docIdsInProcessing) {
+			return this.docIdsInProcessing.contains(docId);
+		}
+	}
+	
+	private Map finalizersByDocId = Collections.synchronizedMap(new HashMap());
+	
+	private void waitForFinalization(String docId) {
+		Thread finalizer = ((Thread) this.finalizersByDocId.get(docId));
+		if (finalizer != null) try {
+			finalizer.join();
+		} catch (InterruptedException ie) {}
+	}
+	
+	private void waitForFinalizations() {
+		ArrayList finalizers;
+		synchronized (this.finalizersByDocId) {
+			finalizers = new ArrayList(this.finalizersByDocId.values());
+		}
+		for (int f = 0; f < finalizers.size(); f++) try {
+			((Thread) finalizers.get(f)).join();
+		} catch (InterruptedException ie) {}
+	}
+	
+	/* check out a document and set up its cache folder, waiting for any
+	 * finalization of a previous run on the same document to finish first */
+	PreparedDocument prepareDocument(String docId) throws IOException {
+		this.waitForFinalization(docId);
+		ImsDocumentData docData = this.ims.checkoutDocumentAsData(this.batchUserName, docId);
+		try {
+			
+			//	create document cache folder
+			File cacheFolder = new File(this.cacheFolder, ("cache-" + docId));
+			cacheFolder.mkdirs();
+			
+			//	create document output folder, checking for checkpoint left by interrupted job
+			File docFolder = new File(cacheFolder, ("doc-" + docId));
+			JobCheckpoint checkpoint = this.jobCheckpoints.getCheckpoint(docId);
+			boolean fromCheckpoint = ((checkpoint != null) && (checkpoint.toolsDone != 0) && new File(docFolder, "entries.txt").exists());
+			if (!fromCheckpoint && docFolder.exists())
+				cleanupFile(docFolder);
+			docFolder.mkdirs();
+			
+			//	copy document to cache folder (only non-binary entries), or continue with checkpoint
+			CacheImDocumentData cacheDocData = new CacheImDocumentData(docFolder, docData, this.directEntryTransfer, fromCheckpoint);
+			if (fromCheckpoint)
+				logInfo("Prepared document " + docId + " from checkpoint of job " + checkpoint.jobId);
+			return new PreparedDocument(docId, docData, cacheFolder, docFolder, cacheDocData, fromCheckpoint);
+		}
+		catch (IOException ioe) {
+			docData.dispose();
+			this.ims.releaseDocument(this.batchUserName, docId);
+			throw ioe;
+		}
+	}
+	
+	void discardDocument(PreparedDocument preparedDoc) {
+		preparedDoc.docData.dispose();
+		this.ims.releaseDocument(this.batchUserName, preparedDoc.docId);
+		cleanupFile(preparedDoc.cacheFolder);
+		logInfo("Discarded prepared document " + preparedDoc.docId);
+	}
+	
+	/* start over with a document prepared from a checkpoint that turned out unusable */
+	PreparedDocument resetPreparedDocument(PreparedDocument preparedDoc) throws IOException {
+		cleanupFile(preparedDoc.docFolder);
+		preparedDoc.docFolder.mkdirs();
+		CacheImDocumentData cacheDocData = new CacheImDocumentData(preparedDoc.docFolder, preparedDoc.docData, this.directEntryTransfer, false);
+		return new PreparedDocument(preparedDoc.docId, preparedDoc.docData, preparedDoc.cacheFolder, preparedDoc.docFolder, cacheDocData, false);
+	}
+	
+	private static class PreparedDocument {
+		final String docId;
+		final ImsDocumentData docData;
+		final File cacheFolder;
+		final File docFolder;
+		final CacheImDocumentData cacheDocData;
+		final boolean fromCheckpoint;
+		PreparedDocument(String docId, ImsDocumentData docData, File cacheFolder, File docFolder, CacheImDocumentData cacheDocData, boolean fromCheckpoint) {
+			this.docId = docId;
+			this.docData = docData;
+			this.cacheFolder = cacheFolder;
+			this.docFolder = docFolder;
+			this.cacheDocData = cacheDocData;
+			this.fromCheckpoint = fromCheckpoint;
 		}
 	}
 	
@@ -1537,23 +2112,47 @@ TODO Do NOT keep IMP batch runs in array ...
 		String processingInfo = null;
 		long processingInfoStart = -1;
 		int processingProgress = -1;
-		void processDocument(String docId, String imtName, boolean updateGgiConfig, char docStyleMode, boolean verbose, String userName) throws IOException {
+		JobCheckpoint checkpoint = null;
+		int checkpointBase = 0;
+		boolean processingFailed = false;
+		String[] jobArguments = null;
+		boolean resumeFromCheckpoint = false;
+		void processDocument(String docId, String imtName, boolean updateGgiConfig, int ggiConfigVersion, char docStyleMode, boolean verbose, String userName, String[] jobArgs) throws IOException {
 			
-			//	check out document as data, process it, and clean up
-			ImsDocumentData docData = null;
+			//	get prepared document, or check out document as data and prepare it, process it, and clean up
+			PreparedDocument preparedDoc = null;
+			boolean docHandedOff = false;
+			startDocumentProcessing(docId);
 			try {
 				this.processingDocId = docId;
 				this.processingStart = System.currentTimeMillis();
-				docData = ims.checkoutDocumentAsData(batchUserName, docId);
-				this.processDocument(docId, docData, imtName, updateGgiConfig, docStyleMode, verbose, userName);
+				this.jobArguments = jobArgs;
+				if (documentPrefetcher != null)
+					preparedDoc = ((PreparedDocument) documentPrefetcher.claim(docId));
+				if (preparedDoc == null)
+					preparedDoc = prepareDocument(docId);
+				else logInfo(this.name + ": using prepared document " + docId);
+				docHandedOff = this.processDocument(preparedDoc, imtName, updateGgiConfig, ggiConfigVersion, docStyleMode, verbose, userName);
+				
+				//	resume interrupted job from checkpoint right here (re-enqueueing with the original arguments would be ignored as a duplicate of the action still in progress)
+				while (this.resumeFromCheckpoint && !shuttingDown) {
+					this.resumeFromCheckpoint = false;
+					preparedDoc = null;
+					docHandedOff = false;
+					preparedDoc = prepareDocument(docId);
+					docHandedOff = this.processDocument(preparedDoc, imtName, false, ggiConfigVersion, docStyleMode, verbose, userName);
+				}
 			}
 			catch (IOException ioe) {
-				ims.releaseDocument(batchUserName, docId); // need to release here in case respective code not reached in processing
+				if (!docHandedOff) {
+					ims.releaseDocument(batchUserName, docId); // need to release here in case respective code not reached in processing
+					jobCheckpoints.discardCheckpoint(docId);
+				}
 				throw ioe;
 			}
 			finally {
-				if (docData != null)
-					docData.dispose();
+				if ((preparedDoc != null) && !docHandedOff)
+					preparedDoc.docData.dispose();
 				this.batchInterface = null;
 				this.processingDocId = null;
 				this.processingBatchName = null;
@@ -1565,10 +2164,35 @@ TODO Do NOT keep IMP batch runs in array ...
 				this.processingInfo = null;
 				this.processingInfoStart = -1;
 				this.processingProgress = -1;
+				this.checkpoint = null;
+				this.jobArguments = null;
+				this.resumeFromCheckpoint = false;
+				documentProcessingFinished(docId);
+			}
+		}
+		
+		void notifyCheckpoint(int slaveToolsDone) {
+			JobCheckpoint checkpoint = this.checkpoint;
+			if (checkpoint == null)
+				return;
+			checkpoint.toolsDone = (this.checkpointBase + slaveToolsDone);
+			try {
+				jobCheckpoints.storeCheckpoint(checkpoint);
+				logInfo(this.name + ": checkpoint of job " + checkpoint.jobId + " after " + checkpoint.toolsDone + " of " + checkpoint.getToolCount() + " Image Markup Tools");
+			}
+			catch (IOException ioe) {
+				logError(this.name + ": could not store checkpoint of job " + checkpoint.jobId + ": " + ioe.getMessage());
+				logError(ioe);
 			}
 		}
 		
-		private void processDocument(String docId, ImsDocumentData docData, String batchOrImtName, final boolean updateGgiConfig, char docStyleMode, boolean verbose, String userName) throws IOException {
+		private boolean processDocument(PreparedDocument preparedDoc, String batchOrImtName, final boolean updateGgiConfig, int ggiConfigVersion, char docStyleMode, boolean verbose, String userName) throws IOException {
+			String docId = preparedDoc.docId;
+			ImsDocumentData docData = preparedDoc.docData;
+			
+			//	remember job arguments for checkpoint
+			char jobDocStyleMode = docStyleMode;
+			String jobUserName = userName;
 			
 			//	check document style mode
 			if (batchOrImtName == null)
@@ -1587,53 +2211,51 @@ TODO Do NOT keep IMP batch runs in array ...
 			if (!ensureStyleProvider() && (docStyleMode == 'R'))
 				throw new IOException("Cannot work without document style templates.");
 			
-			//	create document cache folder
-			File cacheFolder = new File(GoldenGateIMP.this.cacheFolder, ("cache-" + docId));
-			cacheFolder.mkdirs();
-			
-			//	create document output folder
-			File docFolder = new File(cacheFolder, ("doc-" + docId));
-			docFolder.mkdirs();
-			
-			//	copy document to cache folder (only non-binary entries)
-			final CacheImDocumentData cacheDocData = new CacheImDocumentData(docFolder, docData);
+			//	size slave process to document and current host load
+			int[] slaveResources = getSlaveResources(docData);
+			int slaveMemory = slaveResources[0];
+			int maxSlaveCores = slaveResources[1];
+			logInfo(name + ": using " + slaveMemory + "MB and " + maxSlaveCores + " cores for document " + docId);
 			
-			//	get maximum number of cores to use by batch run
-			int maxSlaveCores = GoldenGateIMP.this.maxSlaveCores;
-			if (maxSlaveCores < 1)
-				maxSlaveCores = 65536;
-			if ((maxSlaveCores * 4) > Runtime.getRuntime().availableProcessors())
-				maxSlaveCores = (Runtime.getRuntime().availableProcessors() / 4);
-			
-			//	assemble slave job
-			String isjId = Gamta.getAnnotationID(); // TODO use persistent UUID
-			ImpSlaveJob isj = ((batch == null) ? new ImpSlaveJob(isjId, batchOrImtName, updateGgiConfig) : new ImpSlaveJob(isjId, batch, updateGgiConfig));
-			isj.setDataPath(docFolder.getAbsolutePath());
-			isj.setMaxCores(maxSlaveCores);
-			if (verbose && (batchOrImtName != null))
-				isj.setProperty(ImpSlaveJob.VERBOSE_PARAMETER);
+			//	get document style mode and tools to run
+			String dsMode;
 			if (batchOrImtName == null)
-				isj.setProperty("DSMODE", "R");
+				dsMode = "R";
 			else if (docStyleMode == 'I')
-				isj.setProperty("DSMODE", "I");
+				dsMode = "I";
 			else if (docStyleMode == 'U')
-				isj.setProperty("DSMODE", "U");
-			else isj.setProperty("DSMODE", "R");
-			
-			//	start batch processor slave process
-			Process processor = Runtime.getRuntime().exec(isj.getCommand(cacheFolder.getAbsolutePath()), new String[0], workingFolder);
-			this.processingBatchName = ((batch == null) ? null : batch.name);
+				dsMode = "U";
+			else dsMode = "R";
+			String slaveGgiConfigName = (((batch == null) || (batch.ggiConfigName == null)) ? ggiConfigName : batch.ggiConfigName);
+			String slaveImtNames = ((batch == null) ? ((batchOrImtName == null) ? defaultBatch.getImtNames(true) : batchOrImtName) : batch.getImtNames(true));
 			
-			//	get output channel
-			this.batchInterface = new ImpSlaveProcessInterface(processor, ("ImpBatch" + docId), cacheDocData, docId);
+			//	get checkpoint of interrupted job, and start over if tools changed meanwhile
+			JobCheckpoint checkpoint = jobCheckpoints.getCheckpoint(docId);
+			if ((checkpoint != null) && !slaveImtNames.equals(checkpoint.imtNames)) {
+				logInfo(name + ": Image Markup Tools changed since checkpoint of job " + checkpoint.jobId + ", starting over");
+				checkpoint = null;
+				if (preparedDoc.fromCheckpoint)
+					preparedDoc = resetPreparedDocument(preparedDoc);
+			}
+			if (checkpoint == null)
+				checkpoint = new JobCheckpoint(Gamta.getAnnotationID(), docId, this.jobArguments, batchOrImtName, jobDocStyleMode, verbose, jobUserName, slaveImtNames);
+			else if (!preparedDoc.fromCheckpoint)
+				checkpoint.toolsDone = 0; // checkpoint data lost
+			else logInfo(name + ": resuming job " + checkpoint.jobId + " after " + checkpoint.toolsDone + " of " + checkpoint.getToolCount() + " Image Markup Tools");
+			checkpoint.attempts++;
+			jobCheckpoints.storeCheckpoint(checkpoint);
+			String runImtNames = checkpoint.getRemainingImtNames();
+			this.checkpoint = checkpoint;
+			this.checkpointBase = checkpoint.toolsDone;
+			this.processingFailed = false;
 			
-			//	TODOne catch request for further document entries on input stream ...
-			//	TODOne ... and move them to cache on demand ...
-			//	TODOne ... sending 'ready' message back through process output stream
-			//	TODO test command: process 6229FF8AD22B0336DF54FFD7FFD3FF8E
+			//	get document cache folder, output folder, and cached document
+			File cacheFolder = preparedDoc.cacheFolder;
+			File docFolder = preparedDoc.docFolder;
+			final CacheImDocumentData cacheDocData = preparedDoc.cacheDocData;
 			
 			//	TODOne keep slave process responsive to commands like getting stack trace
-			this.batchInterface.setProgressMonitor(new ProgressMonitor() {
+			ProgressMonitor pm = new ProgressMonitor() {
 				private boolean updatingGgiConfig = updateGgiConfig;
 				public void setStep(String step) {
 					logInfo(name + ": " + step);
@@ -1670,15 +2292,134 @@ TODO Do NOT keep IMP batch runs in array ...
 					ggiConfigUpdateFinished();
 					this.updatingGgiConfig = false;
 				}
-			});
-			this.batchInterface.start();
+			};
+			this.processingBatchName = ((batch == null) ? null : batch.name);
+			
+			//	hand document to pooled slave process if possible (config updates and verbose runs require dedicated slave)
+			PooledImpSlave pooledSlave = ((checkpoint.isComplete() || updateGgiConfig || verbose) ? null : checkoutPooledSlave(slaveGgiConfigName, ggiConfigVersion, slaveImtNames, slaveMemory, maxSlaveCores));
 			
-			//	wait for batch process to finish
-			while (true) try {
-				processor.waitFor();
-				break;
+			//	nothing left to do if job was interrupted after all tools completed
+			if (checkpoint.isComplete())
+				logInfo(name + ": all Image Markup Tools completed before interruption of job " + checkpoint.jobId);
+			
+			//	use pooled slave if we got one
+			else if (pooledSlave != null) {
+				logInfo(name + ": using pooled slave with " + pooledSlave.maxMemory + "MB and " + pooledSlave.maxCores + " cores for document " + docId);
+				this.batchInterface = pooledSlave.slaveInterface;
+				this.batchInterface.setDocument(this, cacheDocData, docId, pm);
+				boolean docDone = pooledSlave.processDocument(docFolder, dsMode, runImtNames);
+				this.batchInterface.setDocument(null, null, null, null);
+				
+				//	return slave to pool, unless it died, failed on the document (leaving its state unknown), or ignoring document style templates messed with its state
+				checkinPooledSlave(pooledSlave, (!docDone || this.processingFailed || "I".equals(dsMode)));
+			}
+			
+			//	start dedicated batch processor slave process otherwise
+			else {
+				
+				//	assemble slave job
+				String isjId = checkpoint.jobId; // TODOne use persistent UUID
+				ImpSlaveJob isj = ((batch == null) ? new ImpSlaveJob(isjId, batchOrImtName, updateGgiConfig) : new ImpSlaveJob(isjId, batch, updateGgiConfig));
+				isj.setProperty("TOOLS", runImtNames);
+				isj.setDataPath(docFolder.getAbsolutePath());
+				isj.setGgiConfigVersion(ggiConfigVersion);
+				isj.setMaxMemory(slaveMemory);
+				isj.setMaxCores(maxSlaveCores);
+				if (verbose && (batchOrImtName != null))
+					isj.setProperty(ImpSlaveJob.VERBOSE_PARAMETER);
+				isj.setProperty("DSMODE", dsMode);
+				
+				//	start batch processor slave process
+				Process processor = Runtime.getRuntime().exec(isj.getCommand(cacheFolder.getAbsolutePath()), new String[0], workingFolder);
+				
+				//	get output channel
+				this.batchInterface = new ImpSlaveProcessInterface(processor, ("ImpBatch" + docId));
+				this.batchInterface.setDocument(this, cacheDocData, docId, pm);
+				
+				//	TODOne catch request for further document entries on input stream ...
+				//	TODOne ... and move them to cache on demand ...
+				//	TODOne ... sending 'ready' message back through process output stream
+				//	TODO test command: process 6229FF8AD22B0336DF54FFD7FFD3FF8E
+				this.batchInterface.start();
+				
+				//	wait for batch process to finish, and for its last messages to come through
+				while (true) try {
+					processor.waitFor();
+					break;
+				} catch (InterruptedException ie) {}
+				this.batchInterface.waitForDocument();
+			}
+			this.checkpoint = null;
+			
+			//	discard partial results if processing failed in slave (no use trying again)
+			if (!checkpoint.isComplete() && this.processingFailed) {
+				logError(name + ": processing document " + docId + " failed after " + checkpoint.toolsDone + " of " + checkpoint.getToolCount() + " Image Markup Tools");
+				jobCheckpoints.discardCheckpoint(docId);
+				ims.releaseDocument(batchUserName, docId);
+				cleanupFile(cacheFolder);
+				return false;
+			}
+			
+			//	hold on to checkpoint and document if slave died or was shut down, and schedule resuming
+			if (!checkpoint.isComplete()) {
+				if (checkpoint.attempts < maxResumeAttempts) {
+					logError(name + ": job " + checkpoint.jobId + " on document " + docId + " interrupted after " + checkpoint.toolsDone + " of " + checkpoint.getToolCount() + " Image Markup Tools, will resume from checkpoint");
+					this.resumeFromCheckpoint = true;
+					preparedDoc.docData.dispose();
+					return true; // document stays checked out for resuming (on startup if we're shutting down)
+				}
+				logError(name + ": job " + checkpoint.jobId + " on document " + docId + " interrupted " + checkpoint.attempts + " times, giving up");
+				jobCheckpoints.discardCheckpoint(docId);
+				ims.releaseDocument(batchUserName, docId);
+				cleanupFile(cacheFolder);
+				return false;
+			}
+			
+			//	finalize document in background if pipelining, so next document can go to slave right away
+			if (pipelineDocuments) {
+				this.finalizeDocumentAsync(preparedDoc, userName);
+				return true;
+			}
+			this.finalizeDocument(preparedDoc, userName);
+			return false;
+		}
+		
+		private Thread finalizer = null;
+		private void finalizeDocumentAsync(final PreparedDocument preparedDoc, final String userName) {
+			
+			//	wait for finalization of previous document (we only want to keep one finalization per batch run in flight)
+			if (this.finalizer != null) try {
+				this.finalizer.join();
 			} catch (InterruptedException ie) {}
 			
+			//	start finalization
+			this.finalizer = new Thread(this.name + "Finalizer") {
+				public void run() {
+					try {
+						finalizeDocument(preparedDoc, userName);
+					}
+					catch (Exception e) {
+						logError(BatchRun.this.name + ": error finalizing document " + preparedDoc.docId + ": " + e.getMessage());
+						logError(e);
+						ims.releaseDocument(batchUserName, preparedDoc.docId);
+						jobCheckpoints.discardCheckpoint(preparedDoc.docId);
+					}
+					finally {
+						preparedDoc.docData.dispose();
+						finalizersByDocId.remove(preparedDoc.docId);
+					}
+				}
+			};
+			finalizersByDocId.put(preparedDoc.docId, this.finalizer);
+			this.finalizer.start();
+		}
+		
+		private void finalizeDocument(PreparedDocument preparedDoc, String userName) throws IOException {
+			String docId = preparedDoc.docId;
+			ImsDocumentData docData = preparedDoc.docData;
+			File cacheFolder = preparedDoc.cacheFolder;
+			File docFolder = preparedDoc.docFolder;
+			
 			//	copy back modified entries
 			FolderImDocumentData inDocData = new FolderImDocumentData(docFolder, null);
 			ImDocumentEntry[] inDocEntries = inDocData.getEntries();
@@ -1690,14 +2431,23 @@ TODO Do NOT keep IMP batch runs in array ...
 					logInfo(name + ": - " + inDocEntries[e].name + " ==> unmodified");
 					continue; // this entry exists and didn't change
 				}
-				InputStream inDocEntryIn = new BufferedInputStream(inDocData.getInputStream(inDocEntries[e]));
-				OutputStream docEntryOut = new BufferedOutputStream(docData.getOutputStream(inDocEntries[e]));
-				byte[] buffer = new byte[1024];
-				for (int r; (r = inDocEntryIn.read(buffer, 0, buffer.length)) != -1;)
-					docEntryOut.write(buffer, 0, r);
-				docEntryOut.flush();
-				docEntryOut.close();
-				inDocEntryIn.close();
+				
+				//	move entry file over to IMS if possible ...
+				File inDocEntryFile = new File(docFolder, inDocEntries[e].getFileName());
+				if (directEntryTransfer && inDocEntryFile.exists())
+					docData.adoptEntryFile(inDocEntries[e], inDocEntryFile);
+				
+				//	... and copy entry data otherwise
+				else {
+					InputStream inDocEntryIn = new BufferedInputStream(inDocData.getInputStream(inDocEntries[e]));
+					OutputStream docEntryOut = new BufferedOutputStream(docData.getOutputStream(inDocEntries[e]));
+					byte[] buffer = new byte[1024];
+					for (int r; (r = inDocEntryIn.read(buffer, 0, buffer.length)) != -1;)
+						docEntryOut.write(buffer, 0, r);
+					docEntryOut.flush();
+					docEntryOut.close();
+					inDocEntryIn.close();
+				}
 				docModified = true;
 				logInfo(name + ": - " + inDocEntries[e].name + " ==> modified");
 			}
@@ -1710,104 +2460,401 @@ TODO Do NOT keep IMP batch runs in array ...
 					}
 				});
 			ims.releaseDocument(batchUserName, docId);
+			jobCheckpoints.discardCheckpoint(docId);
 			
 			//	clean up cache and document data
 			cleanupFile(cacheFolder);
 			cleanupFile(docFolder);
 		}
-		
-		private class ImpSlaveProcessInterface extends SlaveProcessInterface {
-			private ComponentActionConsole reportTo = null;
-			private CacheImDocumentData cacheDocData;
-			private String docId;
-			ImpSlaveProcessInterface(Process slave, String slaveName, CacheImDocumentData cacheDocData, String docId) {
-				super(slave, slaveName);
-				this.cacheDocData = cacheDocData;
-				this.docId = docId;
-			}
-			void setReportTo(ComponentActionConsole reportTo) {
-				this.reportTo = reportTo;
-			}
-			protected void handleInput(String input) {
-				if (input.startsWith("PR:")) {
-					input = input.substring("PR:".length());
-					logInfo(name + ": running Image Markup Tool '" + input + "'");
-					processorName = input;
-					processorStart = System.currentTimeMillis();
-				}
-				else if (input.startsWith("DER:")) {
-					String docEntryName = input.substring("DER:".length());
-					ImDocumentEntry docEntry = this.cacheDocData.getEntry(docEntryName);
-					if (docEntry == null)
-						this.sendOutput("DEN:" + docEntryName);
-					else try {
+	}
+	
+	private class ImpSlaveProcessInterface extends SlaveProcessInterface {
+		private String slaveName;
+		private ComponentActionConsole reportTo = null;
+		private BatchRun batchRun;
+		private CacheImDocumentData cacheDocData;
+		private String docId;
+		private ProgressMonitor docPm;
+		private boolean docDone = false;
+		private boolean slaveExited = false;
+		long slaveMemoryUsed = -1;
+		long slaveMemoryMax = -1;
+		ImpSlaveProcessInterface(Process slave, String slaveName) {
+			super(slave, slaveName);
+			this.slaveName = slaveName;
+			this.setProgressMonitor(new ProgressMonitor() {
+				public void setStep(String step) {
+					ProgressMonitor pm = docPm;
+					if (pm != null)
+						pm.setStep(step);
+				}
+				public void setInfo(String info) {
+					ProgressMonitor pm = docPm;
+					if (pm != null)
+						pm.setInfo(info);
+				}
+				public void setBaseProgress(int baseProgress) {
+					ProgressMonitor pm = docPm;
+					if (pm != null)
+						pm.setBaseProgress(baseProgress);
+				}
+				public void setMaxProgress(int maxProgress) {
+					ProgressMonitor pm = docPm;
+					if (pm != null)
+						pm.setMaxProgress(maxProgress);
+				}
+				public void setProgress(int progress) {
+					ProgressMonitor pm = docPm;
+					if (pm != null)
+						pm.setProgress(progress);
+				}
+			});
+		}
+		void setReportTo(ComponentActionConsole reportTo) {
+			this.reportTo = reportTo;
+		}
+		void setDocument(BatchRun batchRun, CacheImDocumentData cacheDocData, String docId, ProgressMonitor docPm) {
+			this.batchRun = batchRun;
+			this.cacheDocData = cacheDocData;
+			this.docId = docId;
+			this.docPm = docPm;
+		}
+		private String getLogName() {
+			BatchRun br = this.batchRun;
+			return ((br == null) ? this.slaveName : br.name);
+		}
+		synchronized boolean waitForDocument() {
+			while (!this.docDone && !this.slaveExited) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			boolean docDone = this.docDone;
+			this.docDone = false;
+			return docDone;
+		}
+		synchronized boolean isSlaveExited() {
+			return this.slaveExited;
+		}
+		private synchronized void notifyDocumentDone(String memoryLoad) {
+			try {
+				this.slaveMemoryUsed = Long.parseLong(memoryLoad.substring(0, memoryLoad.indexOf('\t')));
+				this.slaveMemoryMax = Long.parseLong(memoryLoad.substring(memoryLoad.indexOf('\t') + "\t".length()));
+			} catch (RuntimeException re) {}
+			this.docDone = true;
+			this.notifyAll();
+		}
+		private synchronized void notifySlaveExited() {
+			this.slaveExited = true;
+			this.notifyAll();
+		}
+		protected void handleInput(String input) {
+			if (input.startsWith("PR:")) {
+				input = input.substring("PR:".length());
+				logInfo(this.getLogName() + ": running Image Markup Tool '" + input + "'");
+				BatchRun br = this.batchRun;
+				if (br != null) {
+					br.processorName = input;
+					br.processorStart = System.currentTimeMillis();
+				}
+			}
+			else if (input.startsWith("PT:")) {
+				String[] toolStats = input.substring("PT:".length()).split("\\t", 4);
+				BatchRun br = this.batchRun;
+				if ((br != null) && (toolStats.length == 4)) try {
+					long wallTime = Long.parseLong(toolStats[0]);
+					long cpuTime = Long.parseLong(toolStats[1]);
+					long peakHeap = Long.parseLong(toolStats[2]);
+					logInfo(this.getLogName() + ": Image Markup Tool '" + toolStats[3] + "' done on " + this.docId + " in " + wallTime + "ms (" + cpuTime + "ms CPU, " + (peakHeap / (1024 * 1024)) + "MB peak heap)");
+					toolStatistics.addSample(((br.processingBatchName == null) ? "" : br.processingBatchName), toolStats[3], wallTime, cpuTime, peakHeap);
+				} catch (NumberFormatException nfe) {}
+			}
+			else if (input.startsWith("DER:")) {
+				String docEntryName = input.substring("DER:".length());
+				ImDocumentEntry docEntry = ((this.cacheDocData == null) ? null : this.cacheDocData.getEntry(docEntryName));
+				if (docEntry == null)
+					this.sendOutput("DEN:" + docEntryName);
+				else try {
+					
+					//	point slave to source file if possible ...
+					File docEntryFile = this.cacheDocData.getSourceEntryFile(docEntry);
+					if (docEntryFile != null)
+						this.sendOutput("DEF:" + docEntryName + "\t" + docEntryFile.getAbsolutePath());
+					
+					//	... and copy entry to cache otherwise
+					else {
 						this.cacheDocData.cacheDocEntry(docEntry);
 						this.sendOutput("DEC:" + docEntryName);
 					}
-					catch (IOException ioe) {
-						this.sendOutput("DEE:" + ioe.getMessage());
-					}
 				}
-				else logInfo(name + ": " + input);
+				catch (IOException ioe) {
+					this.sendOutput("DEE:" + ioe.getMessage());
+				}
 			}
-			protected void handleResult(String result) {
-				ComponentActionConsole cac = this.reportTo;
-				if (cac == null)
-					logInfo(name + ": " + result);
-				else cac.reportResult(result);
+			else if (input.startsWith("CP:")) {
+				BatchRun br = this.batchRun;
+				if (br != null) try {
+					br.notifyCheckpoint(Integer.parseInt(input.substring("CP:".length()).trim()));
+				} catch (NumberFormatException nfe) {}
 			}
-			private ArrayList outStackTrace = new ArrayList();
-			protected void handleStackTrace(String stackTraceLine) {
-				if (stackTraceLine.trim().length() == 0)
-					this.reportError(this.outStackTrace);
-				else {
-					this.outStackTrace.add(stackTraceLine);
-					super.handleStackTrace(stackTraceLine);
-				}
+			else if (input.startsWith("PF:")) {
+				BatchRun br = this.batchRun;
+				if (br != null)
+					br.processingFailed = true;
 			}
-			protected void finalizeSystemOut() {
+			else if (input.startsWith("DD:"))
+				this.notifyDocumentDone(input.substring("DD:".length()));
+			else logInfo(this.getLogName() + ": " + input);
+		}
+		protected void handleResult(String result) {
+			ComponentActionConsole cac = this.reportTo;
+			if (cac == null)
+				logInfo(this.getLogName() + ": " + result);
+			else cac.reportResult(result);
+		}
+		private ArrayList outStackTrace = new ArrayList();
+		protected void handleStackTrace(String stackTraceLine) {
+			if (stackTraceLine.trim().length() == 0)
 				this.reportError(this.outStackTrace);
+			else {
+				this.outStackTrace.add(stackTraceLine);
+				super.handleStackTrace(stackTraceLine);
 			}
-			private ArrayList errStackTrace = new ArrayList();
-			protected void handleError(String error, boolean fromSysErr) {
-				ComponentActionConsole cac = this.reportTo;
-				if (fromSysErr && (cac == null)) {
-					if (error.startsWith("CR\t") || error.startsWith("LA\t") || error.startsWith("Stale "))
-						return; // TODO remove this once server fixed
-					if (error.matches("(Im|Gamta)Document(Root)?Guard\\:.*"))
-						return; // TODO remove this once server fixed
-					if (error.startsWith("Font 'Free") && error.endsWith("' loaded successfully."))
-						return;
-				}
-				if (cac == null) {
-					if (fromSysErr)
-						this.errStackTrace.add(error);
-					logError(name + ": " + error);
-				}
-				else cac.reportError(error);
+		}
+		protected void finalizeSystemOut() {
+			this.reportError(this.outStackTrace);
+			this.notifySlaveExited();
+		}
+		private ArrayList errStackTrace = new ArrayList();
+		protected void handleError(String error, boolean fromSysErr) {
+			ComponentActionConsole cac = this.reportTo;
+			if (fromSysErr && (cac == null)) {
+				if (error.startsWith("CR\t") || error.startsWith("LA\t") || error.startsWith("Stale "))
+					return; // TODO remove this once server fixed
+				if (error.matches("(Im|Gamta)Document(Root)?Guard\\:.*"))
+					return; // TODO remove this once server fixed
+				if (error.startsWith("Font 'Free") && error.endsWith("' loaded successfully."))
+					return;
 			}
-			protected void finalizeSystemErr() {
-				this.reportError(this.errStackTrace);
+			if (cac == null) {
+				if (fromSysErr)
+					this.errStackTrace.add(error);
+				logError(this.getLogName() + ": " + error);
 			}
-			private void reportError(ArrayList stackTrace) {
-				if (stackTrace.size() == 0)
-					return;
-				String classAndMessge = ((String) stackTrace.get(0));
-				String errorClassName;
-				String errorMessage;
-				if (classAndMessge.indexOf(":") == -1) {
-					errorClassName = classAndMessge;
-					errorMessage = "";
-				}
-				else {
-					errorClassName = classAndMessge.substring(0, classAndMessge.indexOf(":")).trim();
-					errorMessage = classAndMessge.substring(classAndMessge.indexOf(":") + ":".length()).trim();
-				}
-				String[] errorStackTrace = ((String[]) stackTrace.toArray(new String[this.outStackTrace.size()]));
-				stackTrace.clear();
-				SlaveErrorRecorder.recordError(getLetterCode(), this.docId, errorClassName, errorMessage, errorStackTrace);
+			else cac.reportError(error);
+		}
+		protected void finalizeSystemErr() {
+			this.reportError(this.errStackTrace);
+		}
+		private void reportError(ArrayList stackTrace) {
+			if (stackTrace.size() == 0)
+				return;
+			String classAndMessge = ((String) stackTrace.get(0));
+			String errorClassName;
+			String errorMessage;
+			if (classAndMessge.indexOf(":") == -1) {
+				errorClassName = classAndMessge;
+				errorMessage = "";
+			}
+			else {
+				errorClassName = classAndMessge.substring(0, classAndMessge.indexOf(":")).trim();
+				errorMessage = classAndMessge.substring(classAndMessge.indexOf(":") + ":".length()).trim();
+			}
+			String[] errorStackTrace = ((String[]) stackTrace.toArray(new String[this.outStackTrace.size()]));
+			stackTrace.clear();
+			SlaveErrorRecorder.recordError(getLetterCode(), this.docId, errorClassName, errorMessage, errorStackTrace);
+		}
+	}
+	
+	private int slaveMaxDocuments = 32;
+	private int slaveMaxMemoryLoad = 75;
+	private LinkedList idleSlaves = new LinkedList();
+	
+	private PooledImpSlave checkoutPooledSlave(String ggiConfigName, int ggiConfigVersion, String imtNames, int maxMemory, int maxCores) throws IOException {
+		if (this.slaveMaxDocuments < 2)
+			return null; // pooling switched off
+		synchronized (this.idleSlaves) {
+			
+			//	use smallest idle slave large enough for document, and with as many cores as possible without exceeding what host can spare (cores are fixed at slave startup)
+			PooledImpSlave pooledSlave = null;
+			for (Iterator sit = this.idleSlaves.iterator(); sit.hasNext();) {
+				PooledImpSlave slave = ((PooledImpSlave) sit.next());
+				if (!slave.poolKey.equals("" + ggiConfigName))
+					continue;
+				if (slave.ggiConfigVersion != ggiConfigVersion)
+					continue;
+				if (slave.maxMemory < maxMemory)
+					continue;
+				if (slave.maxCores > maxCores)
+					continue;
+				if (pooledSlave == null)
+					pooledSlave = slave;
+				else if (slave.maxMemory < pooledSlave.maxMemory)
+					pooledSlave = slave;
+				else if ((slave.maxMemory == pooledSlave.maxMemory) && (slave.maxCores > pooledSlave.maxCores))
+					pooledSlave = slave;
+			}
+			if (pooledSlave != null) {
+				this.idleSlaves.remove(pooledSlave);
+				return pooledSlave;
 			}
 		}
+		return new PooledImpSlave(ggiConfigName, ggiConfigVersion, imtNames, maxMemory, maxCores);
+	}
+	
+	/* compute memory (in MB) and number of cores for a slave process to
+	 * handle a document, based upon page count and data size of the latter,
+	 * as well as current host load: small documents get small heaps, so more
+	 * of them fit on the host, while large documents get more cores */
+	private int[] getSlaveResources(ImsDocumentData docData) {
+		
+		//	count pages and measure data size
+		int pageCount = 0;
+		long dataSize = 0;
+		ImDocumentEntry[] entries = docData.getEntries();
+		for (int e = 0; e < entries.length; e++) {
+			long entrySize = docData.getEntrySize(entries[e]);
+			if (entrySize > 0)
+				dataSize += entrySize;
+		}
+		if (docData.hasEntry("pages.csv")) try {
+			BufferedReader pagesIn = new BufferedReader(new InputStreamReader(docData.getInputStream("pages.csv"), "UTF-8"));
+			pagesIn.readLine(); // skip header
+			while (pagesIn.readLine() != null)
+				pageCount++;
+			pagesIn.close();
+		}
+		catch (IOException ioe) {
+			this.logError("Could not count pages of document " + docData.getDocumentId() + ": " + ioe.getMessage());
+		}
+		
+		//	compute memory, rounded up to size class (doubling from minimum, so pooled slaves fit many documents), and capped by configured maximum
+		long slaveMemory = (this.minSlaveMemory + (((long) pageCount) * this.slaveMemoryPerPage) + ((dataSize / (1024 * 1024)) * this.slaveMemoryPerDataMb));
+		long slaveMemoryClass = Math.max(1, this.minSlaveMemory);
+		while (slaveMemoryClass < slaveMemory)
+			slaveMemoryClass *= 2;
+		slaveMemory = Math.min(slaveMemoryClass, this.maxSlaveMemory);
+		
+		//	compute cores, rounded up to size class (powers of two), and capped by configured maximum and cores currently idle on host
+		int slaveCores = ((this.slavePagesPerCore < 1) ? 1 : Math.max(1, ((pageCount + this.slavePagesPerCore - 1) / this.slavePagesPerCore)));
+		int slaveCoresClass = 1;
+		while (slaveCoresClass < slaveCores)
+			slaveCoresClass *= 2;
+		slaveCores = slaveCoresClass;
+		if ((this.maxSlaveCores > 0) && (slaveCores > this.maxSlaveCores))
+			slaveCores = this.maxSlaveCores;
+		int hostCores = Runtime.getRuntime().availableProcessors();
+		double hostLoad = getSystemLoadAverage();
+		int idleCores = ((hostLoad < 0) ? (hostCores / Math.max(1, this.maxParallelBatchRuns)) : (hostCores - ((int) Math.ceil(hostLoad))));
+		if (slaveCores > idleCores)
+			slaveCores = Math.max(1, idleCores);
+		
+		int[] slaveResources = {((int) slaveMemory), slaveCores};
+		return slaveResources;
+	}
+	
+	/* system load average of last minute, via reflection, as the method only exists as of Java 6 (-1 if unavailable) */
+	private static double getSystemLoadAverage() {
+		try {
+			OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+			Method getSystemLoadAverage = OperatingSystemMXBean.class.getMethod("getSystemLoadAverage", new Class[0]);
+			return ((Double) getSystemLoadAverage.invoke(osBean, new Object[0])).doubleValue();
+		}
+		catch (Exception e) {
+			return -1;
+		}
+	}
+	
+	private void checkinPooledSlave(PooledImpSlave slave, boolean retire) {
+		if (retire || slave.isWornOut()) {
+			slave.shutdown();
+			return;
+		}
+		PooledImpSlave oldestSlave = null;
+		synchronized (this.idleSlaves) {
+			this.idleSlaves.addLast(slave);
+			if (this.idleSlaves.size() > this.maxParallelBatchRuns)
+				oldestSlave = ((PooledImpSlave) this.idleSlaves.removeFirst());
+		}
+		if (oldestSlave != null)
+			oldestSlave.shutdown();
+	}
+	
+	private void shutdownIdleSlaves() {
+		ArrayList slaves;
+		synchronized (this.idleSlaves) {
+			slaves = new ArrayList(this.idleSlaves);
+			this.idleSlaves.clear();
+		}
+		for (int s = 0; s < slaves.size(); s++)
+			((PooledImpSlave) slaves.get(s)).shutdown();
+	}
+	
+	/* slave process kept running across documents, recycled after a number
+	 * of documents, on memory pressure, or on GGI configuration updates */
+	private class PooledImpSlave {
+		final String poolKey;
+		final int ggiConfigVersion;
+		final int maxMemory;
+		final int maxCores;
+		final File slaveCacheFolder;
+		final Process slave;
+		final ImpSlaveProcessInterface slaveInterface;
+		private int docCount = 0;
+		PooledImpSlave(String ggiConfigName, int ggiConfigVersion, String imtNames, int maxMemory, int maxCores) throws IOException {
+			this.poolKey = ("" + ggiConfigName);
+			this.ggiConfigVersion = ggiConfigVersion;
+			this.maxMemory = maxMemory;
+			this.maxCores = maxCores;
+			
+			//	create cache folder for slave lifetime
+			String isjId = Gamta.getAnnotationID();
+			this.slaveCacheFolder = new File(cacheFolder, ("slave-" + isjId));
+			this.slaveCacheFolder.mkdirs();
+			
+			//	assemble slave job
+			ImpSlaveJob isj = new ImpSlaveJob(isjId, ggiConfigName, imtNames, false);
+			isj.setDataPath(this.slaveCacheFolder.getAbsolutePath());
+			isj.setGgiConfigVersion(ggiConfigVersion);
+			isj.setMaxMemory(maxMemory);
+			isj.setMaxCores(maxCores);
+			isj.setProperty("POOLED", "true");
+			
+			//	start slave process and get output channel (holding on to configuration version for slave lifetime)
+			this.slave = Runtime.getRuntime().exec(isj.getCommand(this.slaveCacheFolder.getAbsolutePath()), new String[0], workingFolder);
+			acquireGgiConfigVersion(ggiConfigVersion);
+			this.slaveInterface = new ImpSlaveProcessInterface(this.slave, ("ImpSlave" + isjId));
+			this.slaveInterface.start();
+			logInfo("Started pooled slave " + isjId + " for configuration " + ggiConfigName + " with " + maxMemory + "MB and " + maxCores + " cores");
+		}
+		boolean processDocument(File docFolder, String dsMode, String imtNames) {
+			this.docCount++;
+			this.slaveInterface.sendOutput("DOC:" + docFolder.getAbsolutePath() + "\t" + dsMode + "\t" + imtNames);
+			return this.slaveInterface.waitForDocument();
+		}
+		boolean isWornOut() {
+			if (this.ggiConfigVersion != GoldenGateIMP.this.ggiConfigVersion)
+				return true; // GGI configuration updated since startup
+			if (this.docCount >= slaveMaxDocuments)
+				return true;
+			if (this.slaveInterface.slaveMemoryMax < 1)
+				return false;
+			return ((this.slaveInterface.slaveMemoryUsed * 100) > (this.slaveInterface.slaveMemoryMax * slaveMaxMemoryLoad));
+		}
+		void shutdown() {
+			if (!this.slaveInterface.isSlaveExited())
+				this.slaveInterface.sendOutput("EXIT");
+			Thread slaveCleaner = new Thread("ImpSlaveCleaner") {
+				public void run() {
+					while (true) try {
+						slave.waitFor();
+						break;
+					} catch (InterruptedException ie) {}
+					cleanupFile(slaveCacheFolder);
+					releaseGgiConfigVersion(ggiConfigVersion);
+				}
+			};
+			slaveCleaner.setDaemon(true);
+			slaveCleaner.start();
+		}
 	}
 	
 //	private void processDocument(String docId, String imtName, char docStyleMode, boolean verbose, String userName) throws IOException {
@@ -1989,6 +3036,25 @@ TODO Do NOT keep IMP batch runs in array ...
 		file.delete();
 	}
 	
+	private static void copyFolder(File source, File target) throws IOException {
+		if (source.isDirectory()) {
+			target.mkdirs();
+			File[] files = source.listFiles();
+			for (int f = 0; f < files.length; f++)
+				copyFolder(files[f], new File(target, files[f].getName()));
+			return;
+		}
+		InputStream in = new BufferedInputStream(new FileInputStream(source));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+		byte[] buffer = new byte[65536];
+		for (int r; (r = in.read(buffer, 0, buffer.length)) != -1;)
+			out.write(buffer, 0, r);
+		out.flush();
+		out.close();
+		in.close();
+		target.setLastModified(source.lastModified());
+	}
+	
 	private class ImpBatch {
 		final String name;
 		final String ggiConfigName;
@@ -2020,6 +3086,23 @@ TODO Do NOT keep IMP batch runs in array ...
 			return imtNames.toString();
 		}
 		
+		private TreeSet validatedAgainstImTools = null;
+		private String[] invalidImTools = null;
+		synchronized String[] getInvalidImTools(TreeSet imTools) {
+			
+			//	re-validate only if tool list changed (cache hands out same set for as long as it is valid)
+			if (imTools != this.validatedAgainstImTools) {
+				ArrayList invalidImTools = new ArrayList();
+				for (int t = 0; t < this.imTools.length; t++) {
+					if (!imTools.contains(this.imTools[t]))
+						invalidImTools.add(this.imTools[t]);
+				}
+				this.invalidImTools = ((String[]) invalidImTools.toArray(new String[invalidImTools.size()]));
+				this.validatedAgainstImTools = imTools;
+			}
+			return this.invalidImTools;
+		}
+		
 		String label;
 		String description;
 		ImpBatchDescriptor getDescriptor() {
@@ -2069,6 +3152,8 @@ TODO Do NOT keep IMP batch runs in array ...
 			this.setLogPath(logFolder.getAbsolutePath());
 			if ((updateGgiConfig || (maxParallelBatchRuns == 1)) && (ggiConfigHost != null))
 				this.setProperty("CONFHOST", ggiConfigHost);
+			if (toolCheckpoints)
+				this.setProperty("CHECKPOINTS", ("" + (1000L * Math.max(0, toolCheckpointMinSeconds))));
 		}
 		ImpSlaveJob(String slaveJobId, String imtName, boolean updateGgiConfig) {
 			this(slaveJobId, ggiConfigName, imtName, updateGgiConfig);
@@ -2083,13 +3168,21 @@ TODO Do NOT keep IMP batch runs in array ...
 			this.setProperty("CONFNAME", ((batch.ggiConfigName == null) ? ggiConfigName : batch.ggiConfigName));
 			this.setProperty("TOOLS", batch.getImtNames(true));
 		}
+		void setGgiConfigVersion(int ggiConfigVersion) {
+			if (ggiConfigVersion != 0)
+				this.setProperty("CONFPATH", getGgiConfigVersionFolder(ggiConfigVersion).getAbsolutePath());
+		}
 	}
 	
 	private static class CacheImDocumentData extends FolderImDocumentData {
 		ImDocumentData sourceDocData;
-		CacheImDocumentData(File cacheFolder, ImDocumentData sourceDocData) throws IOException {
-			super(cacheFolder);
+		boolean directEntryTransfer;
+		CacheImDocumentData(File cacheFolder, ImDocumentData sourceDocData, boolean directEntryTransfer, boolean fromCheckpoint) throws IOException {
+			super(cacheFolder, (fromCheckpoint ? null : new ImDocumentEntry[0])); // null makes super class read entry list stored with checkpoint
 			this.sourceDocData = sourceDocData;
+			this.directEntryTransfer = directEntryTransfer;
+			if (fromCheckpoint)
+				return; // entries not in checkpoint folder are unmodified, and thus available from source
 			ImDocumentEntry[] outDocEntries = this.sourceDocData.getEntries();
 			for (int e = 0; e < outDocEntries.length; e++) {
 				//	TODOnot put graphics supplements in cache, too (for table detection !!!)
@@ -2112,6 +3205,13 @@ TODO Do NOT keep IMP batch runs in array ...
 			cacheDocEntryOut.close();
 			docEntryIn.close();
 		}
+		File getSourceEntryFile(ImDocumentEntry docEntry) {
+			if (!this.directEntryTransfer)
+				return null;
+			if (this.sourceDocData instanceof ImsDocumentData)
+				return ((ImsDocumentData) this.sourceDocData).getEntryDataFile(docEntry);
+			return null;
+		}
 	}
 //	
 //	private class ImpSlaveProcessInterface extends SlaveProcessInterface {
@@ -53,6 +53,9 @@ public interface GoldenGateImpConstants extends GoldenGateServerConstants {
 	/** the command for scheduling processing of a document through a specific batch */
 	public static final String SCHEDULE_BATCH_PROCESSING = "IMP_SCHEDULE_BATCH_PROCESSING";
 	
+	/** the command for retrieving resource usage statistics on the Image Markup Tools in a batch */
+	public static final String GET_TOOL_STATISTICS = "IMP_GET_TOOL_STATISTICS";
+	
 	/**
 	 * Descriptor of a batch available in the backing IMP.
 	 * 
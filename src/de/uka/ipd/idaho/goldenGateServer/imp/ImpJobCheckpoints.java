@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * Persistent records of the batch processing jobs running in a GoldenGATE
+ * IMP, one per document, holding the persistent ID of the job, the arguments
+ * it was scheduled with, and the number of Image Markup Tools that have
+ * completed on the document. Records are written whenever a slave process
+ * reports a checkpoint, and removed only after the processed document is
+ * back in IMS, so any record found on startup denotes a document whose
+ * processing was interrupted, and which is still checked out to IMP.
+ * 
+ * @author sautter
+ */
+class ImpJobCheckpoints {
+	private static final String CHECKPOINT_FILE_SUFFIX = ".job";
+	private static final String ENCODING = "UTF-8";
+	
+	private File checkpointFolder;
+	
+	/** Constructor
+	 * @param checkpointFolder the folder to store the checkpoint records in
+	 */
+	ImpJobCheckpoints(File checkpointFolder) {
+		this.checkpointFolder = checkpointFolder;
+		this.checkpointFolder.mkdirs();
+	}
+	
+	/**
+	 * Retrieve the checkpoint of the processing job for a given document.
+	 * @param docId the ID of the document
+	 * @return the checkpoint, or null if there is none
+	 */
+	synchronized JobCheckpoint getCheckpoint(String docId) {
+		return this.readCheckpoint(new File(this.checkpointFolder, (docId + CHECKPOINT_FILE_SUFFIX)));
+	}
+	
+	/**
+	 * Retrieve the checkpoints of all recorded processing jobs, e.g. to
+	 * resume them on startup.
+	 * @return an array holding the checkpoints
+	 */
+	synchronized JobCheckpoint[] getCheckpoints() {
+		File[] checkpointFiles = this.checkpointFolder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return (file.isFile() && file.getName().endsWith(CHECKPOINT_FILE_SUFFIX));
+			}
+		});
+		ArrayList checkpoints = new ArrayList();
+		for (int c = 0; c < checkpointFiles.length; c++) {
+			JobCheckpoint checkpoint = this.readCheckpoint(checkpointFiles[c]);
+			if (checkpoint != null)
+				checkpoints.add(checkpoint);
+		}
+		return ((JobCheckpoint[]) checkpoints.toArray(new JobCheckpoint[checkpoints.size()]));
+	}
+	
+	private JobCheckpoint readCheckpoint(File checkpointFile) {
+		if (!checkpointFile.exists())
+			return null;
+		try {
+			Properties data = new Properties();
+			BufferedReader checkpointIn = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), ENCODING));
+			for (String line; (line = checkpointIn.readLine()) != null;) {
+				int split = line.indexOf('\t');
+				if (split != -1)
+					data.setProperty(line.substring(0, split), URLDecoder.decode(line.substring(split + "\t".length()), ENCODING));
+			}
+			checkpointIn.close();
+			String[] jobArgs = null;
+			if (data.containsKey("jobArgs")) {
+				jobArgs = new String[Integer.parseInt(data.getProperty("jobArgs"))];
+				for (int a = 0; a < jobArgs.length; a++)
+					jobArgs[a] = data.getProperty(("jobArg" + a), "");
+			}
+			JobCheckpoint checkpoint = new JobCheckpoint(data.getProperty("jobId"), data.getProperty("docId"), jobArgs, data.getProperty("batchOrImtName", ""), data.getProperty("docStyleMode", "R").charAt(0), "true".equals(data.getProperty("verbose")), data.getProperty("userName", ""), data.getProperty("imtNames"));
+			checkpoint.toolsDone = Integer.parseInt(data.getProperty("toolsDone", "0"));
+			checkpoint.attempts = Integer.parseInt(data.getProperty("attempts", "0"));
+			return (((checkpoint.jobId == null) || (checkpoint.docId == null) || (checkpoint.imtNames == null)) ? null : checkpoint);
+		}
+		catch (Exception e /* IO as well as number format and index out of bounds exceptions */) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Store the checkpoint of a processing job, replacing any previous one
+	 * for the same document.
+	 * @param checkpoint the checkpoint to store
+	 * @throws IOException
+	 */
+	synchronized void storeCheckpoint(JobCheckpoint checkpoint) throws IOException {
+		File checkpointFile = new File(this.checkpointFolder, (checkpoint.docId + CHECKPOINT_FILE_SUFFIX));
+		File checkpointFileWriting = new File(this.checkpointFolder, (checkpoint.docId + CHECKPOINT_FILE_SUFFIX + ".writing"));
+		BufferedWriter checkpointOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(checkpointFileWriting), ENCODING));
+		writeField(checkpointOut, "jobId", checkpoint.jobId);
+		writeField(checkpointOut, "docId", checkpoint.docId);
+		writeField(checkpointOut, "jobArgs", ("" + checkpoint.jobArgs.length));
+		for (int a = 0; a < checkpoint.jobArgs.length; a++)
+			writeField(checkpointOut, ("jobArg" + a), checkpoint.jobArgs[a]);
+		writeField(checkpointOut, "batchOrImtName", checkpoint.batchOrImtName);
+		writeField(checkpointOut, "docStyleMode", ("" + checkpoint.docStyleMode));
+		writeField(checkpointOut, "verbose", ("" + checkpoint.verbose));
+		writeField(checkpointOut, "userName", checkpoint.userName);
+		writeField(checkpointOut, "imtNames", checkpoint.imtNames);
+		writeField(checkpointOut, "toolsDone", ("" + checkpoint.toolsDone));
+		writeField(checkpointOut, "attempts", ("" + checkpoint.attempts));
+		checkpointOut.flush();
+		checkpointOut.close();
+		if (checkpointFile.exists())
+			checkpointFile.delete();
+		checkpointFileWriting.renameTo(checkpointFile);
+	}
+	
+	private static void writeField(BufferedWriter out, String name, String value) throws IOException {
+		out.write(name + "\t" + URLEncoder.encode(value, ENCODING));
+		out.newLine();
+	}
+	
+	/**
+	 * Discard the checkpoint of the processing job for a given document,
+	 * e.g. after the processed document went back to IMS, or when processing
+	 * failed for good.
+	 * @param docId the ID of the document
+	 */
+	synchronized void discardCheckpoint(String docId) {
+		File checkpointFile = new File(this.checkpointFolder, (docId + CHECKPOINT_FILE_SUFFIX));
+		if (checkpointFile.exists())
+			checkpointFile.delete();
+	}
+	
+	/**
+	 * Checkpoint of a processing job, i.e., the arguments of the job and the
+	 * number of Image Markup Tools already completed on the document.
+	 * 
+	 * @author sautter
+	 */
+	static class JobCheckpoint {
+		
+		/** the persistent ID of the job */
+		final String jobId;
+		
+		/** the ID of the document being processed */
+		final String docId;
+		
+		/** the arguments the job was scheduled with, exactly as handed to the processing queue */
+		final String[] jobArgs;
+		
+		/** the name of the batch or Image Markup Tool the job was scheduled with (empty for the default batch) */
+		final String batchOrImtName;
+		
+		/** the document style mode the job was scheduled with */
+		final char docStyleMode;
+		
+		/** run with verbose logging? */
+		final boolean verbose;
+		
+		/** the name of the user the job was scheduled by (empty if not given) */
+		final String userName;
+		
+		/** the '+' separated names of the Image Markup Tools to run */
+		final String imtNames;
+		
+		/** the number of Image Markup Tools completed */
+		int toolsDone = 0;
+		
+		/** the number of times the job was started */
+		int attempts = 0;
+		
+		JobCheckpoint(String jobId, String docId, String[] jobArgs, String batchOrImtName, char docStyleMode, boolean verbose, String userName, String imtNames) {
+			this.jobId = jobId;
+			this.docId = docId;
+			this.batchOrImtName = ((batchOrImtName == null) ? "" : batchOrImtName);
+			this.docStyleMode = docStyleMode;
+			this.verbose = verbose;
+			this.userName = ((userName == null) ? "" : userName);
+			this.imtNames = imtNames;
+			if (jobArgs == null) {
+				String[] args = {this.batchOrImtName, ("" + this.docStyleMode), (this.verbose ? "V" : "F"), this.userName, "I"};
+				jobArgs = args; // checkpoint stored before arguments were recorded
+			}
+			this.jobArgs = jobArgs;
+		}
+		
+		/**
+		 * @return the total number of Image Markup Tools to run
+		 */
+		int getToolCount() {
+			return this.imtNames.split("\\+").length;
+		}
+		
+		/**
+		 * @return true if all Image Markup Tools have completed
+		 */
+		boolean isComplete() {
+			return (this.toolsDone >= this.getToolCount());
+		}
+		
+		/**
+		 * @return the '+' separated names of the Image Markup Tools still to run
+		 */
+		String getRemainingImtNames() {
+			String[] imtNames = this.imtNames.split("\\+");
+			StringBuffer remainingImtNames = new StringBuffer();
+			for (int t = this.toolsDone; t < imtNames.length; t++) {
+				if (remainingImtNames.length() != 0)
+					remainingImtNames.append('+');
+				remainingImtNames.append(imtNames[t]);
+			}
+			return remainingImtNames.toString();
+		}
+		
+		/**
+		 * Retrieve the arguments to re-schedule the job with. These are the
+		 * very arguments the job was originally scheduled with, so the
+		 * processing queue recognizes the job as a duplicate if it still
+		 * holds the original action, e.g. after a crash.
+		 * @return the arguments to re-schedule the job with
+		 */
+		String[] getJobArguments() {
+			String[] args = new String[this.jobArgs.length];
+			System.arraycopy(this.jobArgs, 0, args, 0, args.length);
+			return args;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore;
+
+/**
+ * Fair share dispatcher for bulk batch processing jobs, sitting in front of
+ * the persistent processing queue of a GoldenGATE IMP. Jobs are held back in
+ * one queue per submitter, and only a bounded number of them at a time are
+ * released into the processing queue proper, which keeps the latter short
+ * enough for interactive jobs to get through without waiting behind a whole
+ * bulk reprocessing run. Submitters are served in weighted round robin
+ * fashion, so one user scheduling thousands of documents does not starve
+ * everyone else, and jobs waiting for long are served with increasing
+ * preference to avoid starvation of submitters with low weight.<br>
+ * The jobs held back are persisted in a snapshot plus journal, so they
+ * survive a restart, or even a crash, and keep their place in line.
+ * 
+ * @author sautter
+ */
+abstract class ImpJobScheduler extends JournaledSnapshotStore {
+	private static final int MAX_JOURNAL_SIZE = (16 * 1024);
+	
+	private int maxReleased;
+	private long agingMillis;
+	
+	private HashMap queuesBySubmitter = new HashMap();
+	private HashMap weightsBySubmitter = new HashMap();
+	private HashSet queuedKeys = new HashSet();
+	private HashSet releasedKeys = new HashSet();
+	private double virtualTime = 0;
+	private int jobsWaiting = 0;
+	
+	/** Constructor
+	 * @param dataFolder the folder to persist waiting jobs in
+	 * @param maxReleased the maximum number of jobs to have in processing at any given time
+	 * @param agingMillis the waiting time after which a job counts as much as one whole turn of its submitter
+	 */
+	ImpJobScheduler(File dataFolder, int maxReleased, long agingMillis) {
+		super(dataFolder, "jobQueues", MAX_JOURNAL_SIZE);
+		this.maxReleased = Math.max(1, maxReleased);
+		this.agingMillis = Math.max(1, agingMillis);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#clearData()
+	 */
+	protected void clearData() {
+		this.queuesBySubmitter.clear();
+		this.queuedKeys.clear();
+		this.jobsWaiting = 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#restoreSnapshotEntry(java.lang.String[])
+	 */
+	protected boolean restoreSnapshotEntry(String[] entry) {
+		return ("J".equals(entry[0]) && this.restoreJob(entry));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#captureSnapshotEntries(java.util.ArrayList)
+	 */
+	protected void captureSnapshotEntries(ArrayList entries) {
+		for (Iterator qit = this.queuesBySubmitter.values().iterator(); qit.hasNext();) {
+			SubmitterQueue queue = ((SubmitterQueue) qit.next());
+			for (Iterator jit = queue.jobs.iterator(); jit.hasNext();)
+				entries.add(getJobEntry("J", ((Job) jit.next())));
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#replayModification(java.lang.String[])
+	 */
+	protected boolean replayModification(String[] modification) {
+		if ("+J".equals(modification[0]))
+			return this.restoreJob(modification);
+		if ("-J".equals(modification[0]) && (modification.length == 3)) {
+			SubmitterQueue queue = ((SubmitterQueue) this.queuesBySubmitter.get(modification[1]));
+			if ((queue == null) || !queue.removeJob(modification[2]))
+				return false;
+			if (queue.isEmpty())
+				this.queuesBySubmitter.remove(queue.submitter);
+			this.queuedKeys.remove(modification[2]);
+			this.jobsWaiting--;
+			return true;
+		}
+		return false;
+	}
+	
+	private boolean restoreJob(String[] data) {
+		if (data.length < 5)
+			return false;
+		String[] args = new String[data.length - 5];
+		System.arraycopy(data, 5, args, 0, args.length);
+		Job job = new Job(data[1], data[2], args, Integer.parseInt(data[3]), Long.parseLong(data[4]));
+		if (this.queuedKeys.add(job.key)) {
+			this.getSubmitterQueue(job.submitter).addJob(job);
+			this.jobsWaiting++;
+		}
+		return true;
+	}
+	
+	private static String[] getJobEntry(String type, Job job) {
+		String[] entry = new String[5 + job.args.length];
+		entry[0] = type;
+		entry[1] = job.submitter;
+		entry[2] = job.docId;
+		entry[3] = ("" + job.priority);
+		entry[4] = ("" + job.enqueued);
+		System.arraycopy(job.args, 0, entry, 5, job.args.length);
+		return entry;
+	}
+	
+	private SubmitterQueue getSubmitterQueue(String submitter) {
+		SubmitterQueue queue = ((SubmitterQueue) this.queuesBySubmitter.get(submitter));
+		if (queue == null) {
+			queue = new SubmitterQueue(submitter, this.getSubmitterWeight(submitter), this.virtualTime);
+			this.queuesBySubmitter.put(submitter, queue);
+		}
+		return queue;
+	}
+	
+	/**
+	 * Start releasing jobs into the processing queue proper, in particular
+	 * ones restored on startup. Jobs enqueued before this method is called
+	 * are only held back.
+	 */
+	synchronized void start() {
+		this.started = true;
+		this.dispatch();
+	}
+	private boolean started = false;
+	
+	/**
+	 * Release a job into the processing queue proper. Implementations have
+	 * to make sure to call <code>jobFinished()</code> with the key of the
+	 * job once it is done processing, successful or not.
+	 * @param docId the ID of the document to process
+	 * @param args the processing arguments
+	 * @param priority the priority of the job
+	 */
+	abstract void releaseJob(String docId, String[] args, int priority);
+	
+	/**
+	 * Set the weight of a submitter, i.e., the number of jobs released for the
+	 * submitter in each turn, relative to other submitters. The default weight
+	 * is 1.
+	 * @param submitter the submitter to set the weight for
+	 * @param weight the weight to set
+	 */
+	synchronized void setSubmitterWeight(String submitter, int weight) {
+		this.weightsBySubmitter.put(submitter, new Integer(Math.max(1, weight)));
+	}
+	
+	private int getSubmitterWeight(String submitter) {
+		Integer weight = ((Integer) this.weightsBySubmitter.get(submitter));
+		return ((weight == null) ? 1 : weight.intValue());
+	}
+	
+	/**
+	 * Compute the key of a job, which identifies the job in both the queues
+	 * of this scheduler and the processing queue proper.
+	 * @param docId the ID of the document to process
+	 * @param args the processing arguments
+	 * @return the job key
+	 */
+	static String getJobKey(String docId, String[] args) {
+		StringBuffer key = new StringBuffer(docId);
+		for (int a = 0; a < args.length; a++) {
+			key.append('|');
+			key.append(args[a]);
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Enqueue a job. If a job with the same key is already waiting or in
+	 * processing, this method does nothing. Within the queue of a submitter,
+	 * jobs with higher priority go first, and jobs with equal priority are
+	 * served in the order they came in.
+	 * @param docId the ID of the document to process
+	 * @param args the processing arguments
+	 * @param submitter the user who submitted the job
+	 * @param priority the priority of the job (0 is normal)
+	 */
+	synchronized void enqueueJob(String docId, String[] args, String submitter, int priority) {
+		Job job = new Job(submitter, docId, args, priority, System.currentTimeMillis());
+		if (this.releasedKeys.contains(job.key) || !this.queuedKeys.add(job.key))
+			return;
+		this.getSubmitterQueue(submitter).addJob(job);
+		this.jobsWaiting++;
+		this.logModification(getJobEntry("+J", job));
+		this.dispatch();
+	}
+	
+	/**
+	 * Notify the scheduler that a job is done processing, freeing its slot in
+	 * the processing queue proper for the next job. Keys of jobs that did not
+	 * pass through this scheduler (e.g. ones persisted in the processing queue
+	 * before a restart) are simply ignored.
+	 * @param key the key of the job
+	 */
+	synchronized void jobFinished(String key) {
+		if (this.releasedKeys.remove(key))
+			this.dispatch();
+	}
+	
+	private void dispatch() {
+		if (!this.started)
+			return;
+		while (this.releasedKeys.size() < this.maxReleased) {
+			Job job = this.getNextJob();
+			if (job == null)
+				break;
+			this.releasedKeys.add(job.key);
+			this.releaseJob(job.docId, job.args, job.priority);
+			
+			//	journal release only after job is in processing queue proper, so a crash in between at worst duplicates the job
+			String[] modification = {"-J", job.submitter, job.key};
+			this.logModification(modification);
+		}
+	}
+	
+	private Job getNextJob() {
+		long time = System.currentTimeMillis();
+		SubmitterQueue nextQueue = null;
+		double nextScore = Double.MAX_VALUE;
+		for (Iterator qit = this.queuesBySubmitter.values().iterator(); qit.hasNext();) {
+			SubmitterQueue queue = ((SubmitterQueue) qit.next());
+			double score = (queue.virtualTime - (((double) (time - queue.getFirstJob().enqueued)) / this.agingMillis));
+			if (score < nextScore) {
+				nextQueue = queue;
+				nextScore = score;
+			}
+		}
+		if (nextQueue == null)
+			return null;
+		this.virtualTime = Math.max(this.virtualTime, nextQueue.virtualTime);
+		Job job = nextQueue.removeFirstJob();
+		if (nextQueue.isEmpty())
+			this.queuesBySubmitter.remove(nextQueue.submitter);
+		this.queuedKeys.remove(job.key);
+		this.jobsWaiting--;
+		return job;
+	}
+	
+	/**
+	 * Retrieve the number of jobs waiting to be released into the processing
+	 * queue proper.
+	 * @return the number of waiting jobs
+	 */
+	synchronized int getJobsWaiting() {
+		return this.jobsWaiting;
+	}
+	
+	/**
+	 * Retrieve the number of jobs waiting for each submitter, one string per
+	 * submitter, formatted as '&lt;submitter&gt;: &lt;jobs&gt; (weight &lt;weight&gt;)'.
+	 * @return an array holding the status of the submitter queues
+	 */
+	synchronized String[] getSubmitterStatus() {
+		ArrayList status = new ArrayList();
+		for (Iterator qit = this.queuesBySubmitter.values().iterator(); qit.hasNext();) {
+			SubmitterQueue queue = ((SubmitterQueue) qit.next());
+			status.add(queue.submitter + ": " + queue.jobs.size() + " (weight " + queue.weight + ")");
+		}
+		return ((String[]) status.toArray(new String[status.size()]));
+	}
+	
+	private static class Job {
+		final String submitter;
+		final String docId;
+		final String[] args;
+		final int priority;
+		final String key;
+		final long enqueued;
+		Job(String submitter, String docId, String[] args, int priority, long enqueued) {
+			this.submitter = submitter;
+			this.docId = docId;
+			this.args = args;
+			this.priority = priority;
+			this.key = getJobKey(docId, args);
+			this.enqueued = enqueued;
+		}
+	}
+	
+	private static class SubmitterQueue {
+		final String submitter;
+		final int weight;
+		double virtualTime;
+		final LinkedList jobs = new LinkedList();
+		SubmitterQueue(String submitter, int weight, double virtualTime) {
+			this.submitter = submitter;
+			this.weight = weight;
+			this.virtualTime = virtualTime;
+		}
+		void addJob(Job job) {
+			int index = this.jobs.size();
+			while ((index > 0) && (((Job) this.jobs.get(index - 1)).priority < job.priority))
+				index--;
+			this.jobs.add(index, job);
+		}
+		Job getFirstJob() {
+			return ((Job) this.jobs.getFirst());
+		}
+		Job removeFirstJob() {
+			this.virtualTime += (1.0 / this.weight);
+			return ((Job) this.jobs.removeFirst());
+		}
+		boolean removeJob(String key) {
+			for (Iterator jit = this.jobs.iterator(); jit.hasNext();)
+				if (((Job) jit.next()).key.equals(key)) {
+					jit.remove();
+					return true;
+				}
+			return false;
+		}
+		boolean isEmpty() {
+			return this.jobs.isEmpty();
+		}
+	}
+}
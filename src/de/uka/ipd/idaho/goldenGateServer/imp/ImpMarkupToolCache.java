@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Cache for the lists of Image Markup Tools available in the GoldenGATE
+ * Imagine configurations used by a GoldenGATE IMP, saving the effort of
+ * starting a slave process to list them. Each cached list is bound to the
+ * configuration version it was loaded from, as well as to a stamp of the
+ * configuration folder, i.e., the number of files in it and their latest
+ * modification time, and becomes stale as soon as either one changes. The
+ * lists are persisted to disc, so they survive restarts.
+ * 
+ * @author sautter
+ */
+class ImpMarkupToolCache {
+	private static final String CACHE_FILE_SUFFIX = ".tools.txt";
+	private static final String ENCODING = "UTF-8";
+	
+	/* how often to re-check configuration folders for modifications (we don't want to crawl them on every request) */
+	private static final long STAMP_CHECK_INTERVAL = (1000 * 60);
+	
+	private File cacheFolder;
+	private HashMap cacheEntriesByConfigName = new HashMap();
+	
+	/** Constructor
+	 * @param cacheFolder the folder to persist the tool lists in
+	 */
+	ImpMarkupToolCache(File cacheFolder) {
+		this.cacheFolder = cacheFolder;
+		this.cacheFolder.mkdirs();
+	}
+	
+	/**
+	 * Retrieve the cached list of Image Markup Tools for a GoldenGATE Imagine
+	 * configuration, grouped by provider. Each of the arrays in the returned
+	 * array holds the provider name first, followed by the tool names.
+	 * @param ggiConfigName the name of the configuration
+	 * @param ggiConfigVersion the current configuration version
+	 * @param ggiConfigFolder the folder holding the configuration
+	 * @return the cached tool list, or null if there is none or it is stale
+	 */
+	synchronized String[][] getMarkupToolList(String ggiConfigName, int ggiConfigVersion, File ggiConfigFolder) {
+		CacheEntry ce = this.getCacheEntry(ggiConfigName, ggiConfigVersion, ggiConfigFolder);
+		return ((ce == null) ? null : ce.imToolList);
+	}
+	
+	/**
+	 * Retrieve the cached names of the Image Markup Tools available in a
+	 * GoldenGATE Imagine configuration. The returned set is the same object
+	 * for as long as the cached list is valid, so client code can use its
+	 * identity to check if results computed from it are still up to date.
+	 * @param ggiConfigName the name of the configuration
+	 * @param ggiConfigVersion the current configuration version
+	 * @param ggiConfigFolder the folder holding the configuration
+	 * @return the cached tool names, or null if there are none or they are stale
+	 */
+	synchronized TreeSet getMarkupTools(String ggiConfigName, int ggiConfigVersion, File ggiConfigFolder) {
+		CacheEntry ce = this.getCacheEntry(ggiConfigName, ggiConfigVersion, ggiConfigFolder);
+		return ((ce == null) ? null : ce.imTools);
+	}
+	
+	private CacheEntry getCacheEntry(String ggiConfigName, int ggiConfigVersion, File ggiConfigFolder) {
+		CacheEntry ce = ((CacheEntry) this.cacheEntriesByConfigName.get(ggiConfigName.toLowerCase()));
+		if (ce == null) {
+			ce = this.readCacheEntry(ggiConfigName);
+			if (ce == null)
+				return null;
+			this.cacheEntriesByConfigName.put(ggiConfigName.toLowerCase(), ce);
+		}
+		
+		//	check configuration version
+		if (ce.ggiConfigVersion != ggiConfigVersion) {
+			this.discardCacheEntry(ggiConfigName);
+			return null;
+		}
+		
+		//	check configuration folder (if due)
+		long time = System.currentTimeMillis();
+		if ((ce.stampChecked + STAMP_CHECK_INTERVAL) < time) {
+			if (!ce.ggiConfigStamp.equals(getFolderStamp(ggiConfigFolder))) {
+				this.discardCacheEntry(ggiConfigName);
+				return null;
+			}
+			ce.stampChecked = time;
+		}
+		
+		//	we're good
+		return ce;
+	}
+	
+	/**
+	 * Store the list of Image Markup Tools for a GoldenGATE Imagine
+	 * configuration, grouped by provider, replacing any list cached before.
+	 * @param ggiConfigName the name of the configuration
+	 * @param ggiConfigVersion the configuration version the list was loaded from
+	 * @param ggiConfigFolder the folder holding the configuration
+	 * @param imToolList the tool list to store
+	 */
+	synchronized void storeMarkupToolList(String ggiConfigName, int ggiConfigVersion, File ggiConfigFolder, String[][] imToolList) {
+		CacheEntry ce = new CacheEntry(ggiConfigVersion, getFolderStamp(ggiConfigFolder), imToolList);
+		this.cacheEntriesByConfigName.put(ggiConfigName.toLowerCase(), ce);
+		try {
+			this.writeCacheEntry(ggiConfigName, ce);
+		}
+		catch (IOException ioe) {
+			this.getCacheFile(ggiConfigName).delete(); // we still have the list in memory
+		}
+	}
+	
+	/**
+	 * Discard the cached list of Image Markup Tools for a GoldenGATE Imagine
+	 * configuration, e.g. to force reloading it.
+	 * @param ggiConfigName the name of the configuration
+	 */
+	synchronized void discardCacheEntry(String ggiConfigName) {
+		this.cacheEntriesByConfigName.remove(ggiConfigName.toLowerCase());
+		File cacheFile = this.getCacheFile(ggiConfigName);
+		if (cacheFile.exists())
+			cacheFile.delete();
+	}
+	
+	private File getCacheFile(String ggiConfigName) {
+		try {
+			return new File(this.cacheFolder, (URLEncoder.encode(ggiConfigName.toLowerCase(), ENCODING) + CACHE_FILE_SUFFIX));
+		}
+		catch (IOException ioe) {
+			return null; // never gonna happen with UTF-8, but Java don't know
+		}
+	}
+	
+	private CacheEntry readCacheEntry(String ggiConfigName) {
+		File cacheFile = this.getCacheFile(ggiConfigName);
+		if (!cacheFile.exists())
+			return null;
+		try {
+			BufferedReader cacheIn = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), ENCODING));
+			String[] versionData = cacheIn.readLine().split("\\t");
+			int ggiConfigVersion = Integer.parseInt(versionData[1]);
+			String ggiConfigStamp = versionData[2];
+			ArrayList imToolList = new ArrayList();
+			ArrayList imToolProvider = null;
+			for (String line; (line = cacheIn.readLine()) != null;) {
+				if (line.startsWith("P\t")) {
+					if (imToolProvider != null)
+						imToolList.add(imToolProvider.toArray(new String[imToolProvider.size()]));
+					imToolProvider = new ArrayList();
+					imToolProvider.add(URLDecoder.decode(line.substring("P\t".length()), ENCODING));
+				}
+				else if (line.startsWith("T\t") && (imToolProvider != null))
+					imToolProvider.add(URLDecoder.decode(line.substring("T\t".length()), ENCODING));
+			}
+			if (imToolProvider != null)
+				imToolList.add(imToolProvider.toArray(new String[imToolProvider.size()]));
+			cacheIn.close();
+			CacheEntry ce = new CacheEntry(ggiConfigVersion, ggiConfigStamp, ((String[][]) imToolList.toArray(new String[imToolList.size()][])));
+			ce.stampChecked = 0; // configuration might have changed while we were down
+			return ce;
+		}
+		catch (Exception e /* IO as well as number format, null pointer, and index out of bounds exceptions */) {
+			return null;
+		}
+	}
+	
+	private void writeCacheEntry(String ggiConfigName, CacheEntry ce) throws IOException {
+		File cacheFile = this.getCacheFile(ggiConfigName);
+		File cacheFileWriting = new File(this.cacheFolder, (cacheFile.getName() + ".writing"));
+		BufferedWriter cacheOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFileWriting), ENCODING));
+		cacheOut.write("V\t" + ce.ggiConfigVersion + "\t" + ce.ggiConfigStamp);
+		cacheOut.newLine();
+		for (int p = 0; p < ce.imToolList.length; p++)
+			for (int t = 0; t < ce.imToolList[p].length; t++) {
+				cacheOut.write(((t == 0) ? "P\t" : "T\t") + URLEncoder.encode(ce.imToolList[p][t], ENCODING));
+				cacheOut.newLine();
+			}
+		cacheOut.flush();
+		cacheOut.close();
+		if (cacheFile.exists())
+			cacheFile.delete();
+		cacheFileWriting.renameTo(cacheFile);
+	}
+	
+	/* count files and find latest modification in a folder (a missing folder has stamp '0:0') */
+	private static String getFolderStamp(File folder) {
+		long[] stamp = {0, 0};
+		if ((folder != null) && folder.exists())
+			addToFolderStamp(folder, stamp);
+		return (stamp[0] + ":" + stamp[1]);
+	}
+	
+	private static void addToFolderStamp(File file, long[] stamp) {
+		stamp[0]++;
+		stamp[1] = Math.max(stamp[1], file.lastModified());
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			for (int f = 0; f < files.length; f++)
+				addToFolderStamp(files[f], stamp);
+		}
+	}
+	
+	private static class CacheEntry {
+		final int ggiConfigVersion;
+		final String ggiConfigStamp;
+		final String[][] imToolList;
+		final TreeSet imTools = new TreeSet(String.CASE_INSENSITIVE_ORDER);
+		long stampChecked;
+		CacheEntry(int ggiConfigVersion, String ggiConfigStamp, String[][] imToolList) {
+			this.ggiConfigVersion = ggiConfigVersion;
+			this.ggiConfigStamp = ggiConfigStamp;
+			this.imToolList = imToolList;
+			
+			//	flatten out list from by-provider arrangement
+			for (int p = 0; p < this.imToolList.length; p++) {
+				for (int t = 1; t < this.imToolList[p].length; t++)
+					this.imTools.add(this.imToolList[p][t]);
+			}
+			this.stampChecked = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.imp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import de.uka.ipd.idaho.easyIO.util.JsonParser;
+import de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore;
+
+/**
+ * Persistent statistics on the resources individual Image Markup Tools use
+ * in the batches of a GoldenGATE IMP, i.e., wall clock time, CPU time, and
+ * peak heap usage, as reported by slave processes after running each tool
+ * on a document. The statistics retain a bounded number of most recent
+ * samples for each tool in each batch, from which they compute percentiles.
+ * 
+ * @author sautter
+ */
+class ImpToolStatistics extends JournaledSnapshotStore {
+	private static final int MAX_JOURNAL_SIZE = (16 * 1024);
+	
+	/** the index of wall clock time (in milliseconds) in samples */
+	static final int WALL_TIME = 0;
+	
+	/** the index of CPU time (in milliseconds) in samples */
+	static final int CPU_TIME = 1;
+	
+	/** the index of peak heap usage (in bytes) in samples */
+	static final int PEAK_HEAP = 2;
+	
+	private int maxSamples;
+	private TreeMap toolStatsByBatch = new TreeMap();
+	
+	/** Constructor
+	 * @param dataFolder the folder to store the data in
+	 * @param maxSamples the maximum number of samples to retain per tool and batch
+	 */
+	ImpToolStatistics(File dataFolder, int maxSamples) {
+		super(dataFolder, "toolStatistics", MAX_JOURNAL_SIZE);
+		this.maxSamples = Math.max(1, maxSamples);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#clearData()
+	 */
+	protected void clearData() {
+		this.toolStatsByBatch.clear();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#restoreSnapshotEntry(java.lang.String[])
+	 */
+	protected boolean restoreSnapshotEntry(String[] entry) {
+		return ("S".equals(entry[0]) && this.restoreSample(entry));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#captureSnapshotEntries(java.util.ArrayList)
+	 */
+	protected void captureSnapshotEntries(ArrayList entries) {
+		for (Iterator bit = this.toolStatsByBatch.keySet().iterator(); bit.hasNext();) {
+			String batchName = ((String) bit.next());
+			LinkedHashMap toolStats = ((LinkedHashMap) this.toolStatsByBatch.get(batchName));
+			for (Iterator tit = toolStats.values().iterator(); tit.hasNext();) {
+				ToolStatistics ts = ((ToolStatistics) tit.next());
+				Iterator stit = ts.sampleTimes.iterator();
+				for (Iterator sit = ts.samples.iterator(); sit.hasNext();)
+					entries.add(getSampleEntry("S", batchName, ts.toolName, ((long[]) sit.next()), ((Long) stit.next()).longValue()));
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#replayModification(java.lang.String[])
+	 */
+	protected boolean replayModification(String[] modification) {
+		return ("+S".equals(modification[0]) && this.restoreSample(modification));
+	}
+	
+	private boolean restoreSample(String[] data) {
+		if (data.length != 7)
+			return false;
+		long[] sample = {Long.parseLong(data[4]), Long.parseLong(data[5]), Long.parseLong(data[6])};
+		this.getToolStatistics(data[1], data[2], true).addSample(sample, Long.parseLong(data[3]));
+		return true;
+	}
+	
+	private static String[] getSampleEntry(String type, String batchName, String toolName, long[] sample, long time) {
+		String[] entry = {type, batchName, toolName, ("" + time), ("" + sample[WALL_TIME]), ("" + sample[CPU_TIME]), ("" + sample[PEAK_HEAP])};
+		return entry;
+	}
+	
+	private ToolStatistics getToolStatistics(String batchName, String toolName, boolean create) {
+		LinkedHashMap toolStats = ((LinkedHashMap) this.toolStatsByBatch.get(batchName));
+		if (toolStats == null) {
+			if (!create)
+				return null;
+			toolStats = new LinkedHashMap();
+			this.toolStatsByBatch.put(batchName, toolStats);
+		}
+		ToolStatistics ts = ((ToolStatistics) toolStats.get(toolName));
+		if ((ts == null) && create) {
+			ts = new ToolStatistics(toolName, this.maxSamples);
+			toolStats.put(toolName, ts);
+		}
+		return ts;
+	}
+	
+	/**
+	 * Add a sample for an Image Markup Tool run in a batch.
+	 * @param batchName the name of the batch
+	 * @param toolName the name of the Image Markup Tool
+	 * @param wallTime the wall clock time the tool took (in milliseconds)
+	 * @param cpuTime the CPU time the tool used (in milliseconds)
+	 * @param peakHeap the peak heap usage while the tool ran (in bytes)
+	 */
+	synchronized void addSample(String batchName, String toolName, long wallTime, long cpuTime, long peakHeap) {
+		long[] sample = {wallTime, cpuTime, peakHeap};
+		long time = System.currentTimeMillis();
+		this.getToolStatistics(batchName, toolName, true).addSample(sample, time);
+		this.logModification(getSampleEntry("+S", batchName, toolName, sample, time));
+	}
+	
+	/**
+	 * Retrieve the names of the batches statistics are available for.
+	 * @return an array holding the batch names
+	 */
+	synchronized String[] getBatchNames() {
+		return ((String[]) this.toolStatsByBatch.keySet().toArray(new String[this.toolStatsByBatch.size()]));
+	}
+	
+	/**
+	 * Retrieve the statistics for the tools in a batch, in the order the
+	 * tools were first reported. The returned objects are copies, so client
+	 * code can work with them without synchronization.
+	 * @param batchName the name of the batch
+	 * @return an array holding the tool statistics
+	 */
+	synchronized ToolStatistics[] getToolStatistics(String batchName) {
+		LinkedHashMap toolStats = ((LinkedHashMap) this.toolStatsByBatch.get(batchName));
+		if (toolStats == null)
+			return new ToolStatistics[0];
+		ArrayList tss = new ArrayList();
+		for (Iterator tit = toolStats.values().iterator(); tit.hasNext();)
+			tss.add(((ToolStatistics) tit.next()).copy());
+		return ((ToolStatistics[]) tss.toArray(new ToolStatistics[tss.size()]));
+	}
+	
+	/**
+	 * Write the statistics for the tools in a batch to a given writer as a
+	 * JSON array, with one object per tool, holding the tool name, the
+	 * number of samples, and the 50th, 90th, and 99th percentile of each of
+	 * wall clock time, CPU time, and peak heap usage.
+	 * @param batchName the name of the batch
+	 * @param out the writer to write to
+	 * @throws IOException
+	 */
+	void writeJson(String batchName, Writer out) throws IOException {
+		ToolStatistics[] tss = this.getToolStatistics(batchName);
+		out.write("[");
+		for (int t = 0; t < tss.length; t++) {
+			if (t != 0)
+				out.write(",");
+			out.write("{");
+			out.write("\"tool\": \"" + JsonParser.escape(tss[t].toolName, '"') + "\",");
+			out.write("\"samples\": " + tss[t].samples.size() + ",");
+			writeJsonPercentiles(out, "wallTime", tss[t], WALL_TIME);
+			out.write(",");
+			writeJsonPercentiles(out, "cpuTime", tss[t], CPU_TIME);
+			out.write(",");
+			writeJsonPercentiles(out, "peakHeap", tss[t], PEAK_HEAP);
+			out.write("}");
+		}
+		out.write("]");
+	}
+	
+	private static void writeJsonPercentiles(Writer out, String name, ToolStatistics ts, int metric) throws IOException {
+		out.write("\"" + name + "\": {");
+		out.write("\"p50\": " + ts.getPercentile(metric, 50) + ",");
+		out.write("\"p90\": " + ts.getPercentile(metric, 90) + ",");
+		out.write("\"p99\": " + ts.getPercentile(metric, 99));
+		out.write("}");
+	}
+	
+	/**
+	 * Statistics on an individual Image Markup Tool in a batch.
+	 * 
+	 * @author sautter
+	 */
+	static class ToolStatistics {
+		
+		/** the name of the Image Markup Tool */
+		final String toolName;
+		
+		private int maxSamples;
+		private LinkedList samples = new LinkedList();
+		private LinkedList sampleTimes = new LinkedList();
+		
+		ToolStatistics(String toolName, int maxSamples) {
+			this.toolName = toolName;
+			this.maxSamples = maxSamples;
+		}
+		
+		void addSample(long[] sample, long time) {
+			this.samples.addLast(sample);
+			this.sampleTimes.addLast(new Long(time));
+			while (this.samples.size() > this.maxSamples) {
+				this.samples.removeFirst();
+				this.sampleTimes.removeFirst();
+			}
+		}
+		
+		ToolStatistics copy() {
+			ToolStatistics ts = new ToolStatistics(this.toolName, this.maxSamples);
+			ts.samples.addAll(this.samples);
+			ts.sampleTimes.addAll(this.sampleTimes);
+			return ts;
+		}
+		
+		/**
+		 * @return the number of samples
+		 */
+		int getSampleCount() {
+			return this.samples.size();
+		}
+		
+		/**
+		 * Compute a percentile of one of the metrics, i.e., wall clock time,
+		 * CPU time, or peak heap usage.
+		 * @param metric the index of the metric
+		 * @param percent the percentile to compute
+		 * @return the percentile
+		 */
+		long getPercentile(int metric, int percent) {
+			if (this.samples.isEmpty())
+				return 0;
+			long[] values = new long[this.samples.size()];
+			int v = 0;
+			for (Iterator sit = this.samples.iterator(); sit.hasNext();)
+				values[v++] = ((long[]) sit.next())[metric];
+			Arrays.sort(values);
+			int index = (((values.length * percent) + 99) / 100) - 1;
+			return values[Math.max(0, Math.min(index, (values.length - 1)))];
+		}
+	}
+}
@@ -27,14 +27,23 @@
  */
 package de.uka.ipd.idaho.goldenGateServer.imp.slave;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeSet;
@@ -59,17 +68,22 @@ import de.uka.ipd.idaho.im.util.ImDocumentMarkupPanel.ImageMarkupTool;
 /**
  * Stripped-down copy of GoldenGATE Imagine's batch runner utility, loading
  * documents from a folder rather than directly from PDFs, with options
- * restricted to specific application needs.
+ * restricted to specific application needs. In pooled mode, the slave keeps
+ * running after its first document, processing any further documents the
+ * master hands over, until told to exit.
  * 
  * @author sautter
  */
 public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveConstants {
 	private static final String CONFIG_HOST_PARAMETER = "CONFHOST";
 	private static final String CONFIG_NAME_PARAMETER = "CONFNAME";
+	private static final String CONFIG_PATH_PARAMETER = "CONFPATH";
 	private static final String TOOL_SEQUENCE_PARAMETER = "TOOLS";
 	private static final String LIST_TOOLS_SEQUENCE_NAME = "LISTTOOLS";
 //	private static final String WAIVE_DOCUMENT_SYTLE_PARAMETER = "WAIVEDS";
 	private static final String DOCUMENT_SYTLE_MODE_PARAMETER = "DSMODE";
+	private static final String POOLED_PARAMETER = "POOLED";
+	private static final String CHECKPOINTS_PARAMETER = "CHECKPOINTS";
 	
 	/**	the main method to run GoldenGATE Imagine as a batch application
 	 */
@@ -141,7 +155,9 @@ public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveCons
 		//	get GoldenGATE Imagine configuration
 		String ggiConfigHost = argsMap.getProperty(CONFIG_HOST_PARAMETER);
 		String ggiConfigName = argsMap.getProperty(CONFIG_NAME_PARAMETER);
-		GoldenGateConfiguration ggiConfig = ConfigurationUtils.getConfiguration(ggiConfigName, null, ggiConfigHost, basePath);
+		String ggiConfigPath = argsMap.getProperty(CONFIG_PATH_PARAMETER);
+		File ggiConfigBasePath = ((ggiConfigPath == null) ? basePath : new File(ggiConfigPath));
+		GoldenGateConfiguration ggiConfig = ConfigurationUtils.getConfiguration(ggiConfigName, null, ggiConfigHost, ggiConfigBasePath);
 		
 		//	check if configuration found
 		if (ggiConfig == null) {
@@ -191,37 +207,86 @@ public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveCons
 			return;
 		}
 		
+		//	impose parallel processing limitations
+		SlaveRuntimeUtils.setUpMaxCores(argsMap);
+		
+		//	create progress monitor reporting back to master
+		ProgressMonitor pm = mpi.createProgressMonitor();
+		
+		//	check whether or not to store document after tools, and how long a tool has to run to be worth it
+		long checkpointMinToolMillis = -1;
+		if (argsMap.getProperty(CHECKPOINTS_PARAMETER) != null) try {
+			checkpointMinToolMillis = Long.parseLong(argsMap.getProperty(CHECKPOINTS_PARAMETER));
+		} catch (NumberFormatException nfe) {}
+		
+		//	keep processing documents handed over by master until told to exit
+		if (argsMap.getProperty(POOLED_PARAMETER) != null) {
+			Map imtsByName = new HashMap();
+			while (true) {
+				String docCommand = mpi.getNextDocumentCommand();
+				if (docCommand == null)
+					break;
+				
+				//	parse document command (data path, document style mode, and tool sequence)
+				String[] docParams = docCommand.split("\\t");
+				File docFolder = new File(docParams[0]);
+				String docStyleMode = ((docParams.length < 2) ? "R" : docParams[1]);
+				ImageMarkupTool[] docImts = ((docParams.length < 3) ? getImageMarkupTools(goldenGateImagine, imtNames, imtsByName, mpi) : getImageMarkupTools(goldenGateImagine, docParams[2].split("\\+"), imtsByName, mpi));
+				
+				//	process document
+				if (docImts != null)
+					processDocument(goldenGateImagine, docImts, docFolder, docStyleMode, checkpointMinToolMillis, mpi, pm);
+				
+				//	report back to master, including memory load after cleanup
+				System.gc();
+				Runtime rt = Runtime.getRuntime();
+				mpi.sendOutput("DD:" + (rt.totalMemory() - rt.freeMemory()) + "\t" + rt.maxMemory());
+			}
+			
+			//	shut down whatever threads are left
+			System.exit(0);
+		}
+		
 		//	get individual image markup tools
+		ImageMarkupTool[] imts = getImageMarkupTools(goldenGateImagine, imtNames, null, mpi);
+		if (imts == null)
+			return;
+		
+		//	load and process document from folder
+		String docRootPath = argsMap.getProperty(DATA_PATH_PARAMETER);
+		File docFolder = new File(docRootPath);
+		processDocument(goldenGateImagine, imts, docFolder, argsMap.getProperty(DOCUMENT_SYTLE_MODE_PARAMETER, "R"), checkpointMinToolMillis, mpi, pm);
+//		
+//		//	shut down whatever threads are left
+//		System.exit(0);
+	}
+	
+	private static ImageMarkupTool[] getImageMarkupTools(GoldenGateImagine goldenGateImagine, String[] imtNames, Map imtsByName, ImpMasterProcessInterface mpi) {
 		ImageMarkupTool[] imts = new ImageMarkupTool[imtNames.length];
 		for (int t = 0; t < imtNames.length; t++) {
+			imts[t] = ((imtsByName == null) ? null : ((ImageMarkupTool) imtsByName.get(imtNames[t])));
+			if (imts[t] != null)
+				continue;
 			imts[t] = goldenGateImagine.getImageMarkupToolForName(imtNames[t]);
 			if (imts[t] == null) {
 				mpi.sendError("Image Markup Tool '" + imtNames[t] + "' not found, check parameter " + TOOL_SEQUENCE_PARAMETER);
 //				System.exit(0);
-				return;
+				return null;
 			}
 			else mpi.sendResult("Image Markup Tool '" + imtNames[t] + "' loaded");
+			if (imtsByName != null)
+				imtsByName.put(imtNames[t], imts[t]);
 		}
-		
-		//	impose parallel processing limitations
-		SlaveRuntimeUtils.setUpMaxCores(argsMap);
-		
-		//	load document from folder
-		String docRootPath = argsMap.getProperty(DATA_PATH_PARAMETER);
-		File docFolder = new File(docRootPath);
-		SlaveImDocumentData docData = new SlaveImDocumentData(docFolder, mpi);
-		
-		//	create progress monitor reporting back to master
-		ProgressMonitor pm = mpi.createProgressMonitor();
-		
-		//	process document
+		return imts;
+	}
+	
+	private static void processDocument(GoldenGateImagine goldenGateImagine, ImageMarkupTool[] imts, File docFolder, String docStyleMode, long checkpointMinToolMillis, ImpMasterProcessInterface mpi, ProgressMonitor pm) {
+		ImDocument doc = null;
 		try {
-			ImDocument doc = ImDocumentIO.loadDocument(docData, pm);
+			SlaveImDocumentData docData = new SlaveImDocumentData(docFolder, mpi);
+			doc = ImDocumentIO.loadDocument(docData, pm);
 			goldenGateImagine.notifyDocumentOpened(doc, docFolder, pm);
 			
-			//	test if document style detected
-			String docStyleMode = argsMap.getProperty(DOCUMENT_SYTLE_MODE_PARAMETER, "R");
-			
 			//	remove at least any plug-in based providers if ignoring document style templates
 			if ("I".equals(docStyleMode)) {
 				GoldenGatePlugin[] dsps = goldenGateImagine.getImplementingPlugins(DocumentStyle.Provider.class);
@@ -238,44 +303,144 @@ public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveCons
 					mpi.sendOutput(" - could not assigned document style");
 				else {
 					mpi.sendError("Unable to assign document style");
+					mpi.sendOutput("PF:");
 					return;
 				}
 			}
 			
-			//	process document
+			//	process document, reporting resource usage of each tool
 			for (int t = 0; t < imts.length; t++) {
 				mpi.sendOutput("PR:" + imts[t].getLabel());
+				resetPeakHeap();
+				long toolStart = System.currentTimeMillis();
+				HashMap toolCpuStart = getThreadCpuTimes();
 				imts[t].process(doc, null, null, pm);
+				long toolCpuTime = getCpuTimeSince(toolCpuStart);
+				long toolTime = (System.currentTimeMillis() - toolStart);
+				mpi.sendOutput("PT:" + toolTime + "\t" + (toolCpuTime / 1000000) + "\t" + getPeakHeap() + "\t" + imts[t].getLabel());
+				
+				//	store intermediate state so master can resume after tool if we crash or get shut down (only worth it after long running tools, though)
+				if ((checkpointMinToolMillis >= 0) && (toolTime >= checkpointMinToolMillis) && ((t+1) < imts.length)) {
+					ImDocumentIO.storeDocument(doc, docData, pm);
+					mpi.sendOutput("CP:" + (t+1));
+				}
 			}
 			
 			//	store updates
 			goldenGateImagine.notifyDocumentSaving(doc, docFolder, pm);
 			ImDocumentIO.storeDocument(doc, docData, pm);
 			goldenGateImagine.notifyDocumentSaved(doc, docFolder, pm);
-			goldenGateImagine.notifyDocumentClosed(doc.docId);
-			doc.dispose();
+			mpi.sendOutput("CP:" + imts.length);
 		}
 		
 		//	catch and log whatever might go wrong
 		catch (Throwable t) {
 			mpi.sendError("Error processing document: " + t.getMessage());
 			mpi.sendError(t);
+			mpi.sendOutput("PF:");
 		}
-//		
-//		//	shut down whatever threads are left
-//		System.exit(0);
+		
+		//	close document in any case, as pooled slave lives on to process further documents
+		finally {
+			if (doc != null) {
+				goldenGateImagine.notifyDocumentClosed(doc.docId);
+				doc.dispose();
+			}
+		}
+	}
+	
+	/* CPU time consumed by each live thread, by thread ID, as Image Markup Tools might fork their own workers (empty if the JVM cannot measure thread CPU time) */
+	private static HashMap getThreadCpuTimes() {
+		HashMap threadCpuTimes = new HashMap();
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!threadBean.isThreadCpuTimeSupported())
+			return threadCpuTimes;
+		long[] threadIds = threadBean.getAllThreadIds();
+		for (int t = 0; t < threadIds.length; t++) {
+			long threadCpuTime = threadBean.getThreadCpuTime(threadIds[t]);
+			if (threadCpuTime > 0)
+				threadCpuTimes.put(new Long(threadIds[t]), new Long(threadCpuTime));
+		}
+		return threadCpuTimes;
+	}
+	
+	/* CPU time consumed since a snapshot, summing up the increase of each thread still alive (threads started since count in full, and threads ended since are lost, as the JVM forgets about their CPU time) */
+	private static long getCpuTimeSince(HashMap startThreadCpuTimes) {
+		HashMap threadCpuTimes = getThreadCpuTimes();
+		long cpuTime = 0;
+		for (Iterator tit = threadCpuTimes.keySet().iterator(); tit.hasNext();) {
+			Long threadId = ((Long) tit.next());
+			long threadCpuTime = ((Long) threadCpuTimes.get(threadId)).longValue();
+			Long startThreadCpuTime = ((Long) startThreadCpuTimes.get(threadId));
+			cpuTime += Math.max(0, (threadCpuTime - ((startThreadCpuTime == null) ? 0 : startThreadCpuTime.longValue())));
+		}
+		return cpuTime;
+	}
+	
+	private static List getHeapPools() {
+		List heapPools = new ArrayList();
+		List memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+		for (int p = 0; p < memoryPools.size(); p++) {
+			MemoryPoolMXBean memoryPool = ((MemoryPoolMXBean) memoryPools.get(p));
+			if (memoryPool.isValid() && (memoryPool.getType() == MemoryType.HEAP))
+				heapPools.add(memoryPool);
+		}
+		return heapPools;
+	}
+	
+	private static void resetPeakHeap() {
+		List heapPools = getHeapPools();
+		for (int p = 0; p < heapPools.size(); p++)
+			((MemoryPoolMXBean) heapPools.get(p)).resetPeakUsage();
+	}
+	
+	/* sum of per-pool peaks, which is an upper bound, as the individual pools might not peak at the same time */
+	private static long getPeakHeap() {
+		List heapPools = getHeapPools();
+		long peakHeap = 0;
+		for (int p = 0; p < heapPools.size(); p++)
+			peakHeap += ((MemoryPoolMXBean) heapPools.get(p)).getPeakUsage().getUsed();
+		return peakHeap;
 	}
 	
 	private static class ImpMasterProcessInterface extends MasterProcessInterface {
 		private SlaveImDocumentData docData;
+		private LinkedList docCommands = new LinkedList();
 		void setDocData(SlaveImDocumentData docData) {
 			this.docData = docData;
 		}
+		synchronized String getNextDocumentCommand() {
+			while (this.docCommands.isEmpty()) try {
+				this.wait();
+			} catch (InterruptedException ie) {}
+			String docCommand = ((String) this.docCommands.removeFirst());
+			return ("EXIT".equals(docCommand) ? null : docCommand);
+		}
+		private synchronized void enqueueDocumentCommand(String docCommand) {
+			this.docCommands.addLast(docCommand);
+			this.notify();
+		}
+		@Override
+		protected void finalizeSystemIn() {
+			this.enqueueDocumentCommand("EXIT"); // end of input, master is gone, so don't wait for further documents
+		}
 		protected void handleInput(String input) {
-			if (input.startsWith("DEC:")) {
+			if (input == null)
+				this.enqueueDocumentCommand("EXIT"); // end of input, master is gone
+			else if (input.startsWith("DOC:"))
+				this.enqueueDocumentCommand(input.substring("DOC:".length()));
+			else if (input.equals("EXIT"))
+				this.enqueueDocumentCommand(input);
+			else if (input.startsWith("DEC:")) {
 				String docEntryName = input.substring("DEC:".length());
 				docData.notifyEntryRequestComplete(docEntryName);
 			}
+			else if (input.startsWith("DEF:")) {
+				input = input.substring("DEF:".length());
+				String docEntryName = input.substring(0, input.indexOf('\t'));
+				String docEntryFile = input.substring(input.indexOf('\t') + "\t".length());
+				docData.notifyEntryRequestFile(docEntryName, new File(docEntryFile));
+			}
 			else if (input.startsWith("DEN:")) {
 				String docEntryName = input.substring("DEN:".length());
 				docData.notifyEntryRequestError(docEntryName, docEntryName);
@@ -310,8 +475,12 @@ public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveCons
 				throw new FileNotFoundException(entryName);
 			if (this.hasEntryData(entry))
 				return super.getInputStream(entryName);
+			File sourceFile = ((File) this.sourceFilesByName.get(entryName));
+			if (sourceFile != null)
+				return new BufferedInputStream(new FileInputStream(sourceFile));
 			return this.sendEntryRequest(entryName).getInputStreamWhenComplete();
 		}
+		private Map sourceFilesByName = Collections.synchronizedMap(new HashMap());
 		private Map entryRequestsByName = Collections.synchronizedMap(new HashMap());
 		synchronized ImDocumentEntryRequest sendEntryRequest(String entryName) {
 			ImDocumentEntryRequest der = ((ImDocumentEntryRequest) this.entryRequestsByName.get(entryName));
@@ -326,6 +495,10 @@ public class GoldenGateImpSlave implements GoldenGateImagineConstants, SlaveCons
 			if (der != null)
 				der.notifyComplete();
 		}
+		void notifyEntryRequestFile(String entryName, File sourceFile) {
+			this.sourceFilesByName.put(entryName, sourceFile); // master gave us read access to its own file, no need to copy
+			this.notifyEntryRequestComplete(entryName);
+		}
 		void notifyEntryRequestError(String entryName, String error) {
 			ImDocumentEntryRequest der = ((ImDocumentEntryRequest) this.entryRequestsByName.remove(entryName));
 			if (der != null)
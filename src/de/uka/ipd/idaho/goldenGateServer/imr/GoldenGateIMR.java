@@ -31,7 +31,6 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,7 +39,6 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.gamta.Attributed;
@@ -602,20 +600,7 @@ public class GoldenGateIMR extends GoldenGateAEP implements GoldenGateImsConstan
 				
 				//	send requested entries
 				try {
-					ZipOutputStream zout = new ZipOutputStream(output);
-					byte[] buffer = new byte[1024];
-					for (int e = 0; e < docEntries.size(); e++) {
-						ImDocumentEntry entry = ((ImDocumentEntry) docEntries.get(e));
-						ZipEntry ze = new ZipEntry(entry.getFileName());
-						ze.setTime(entry.updateTime);
-						zout.putNextEntry(ze);
-						InputStream entryIn = docData.getInputStream(entry);
-						for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
-							zout.write(buffer, 0, r);
-						entryIn.close();
-						zout.closeEntry();
-					}
-					zout.flush();
+					docData.writeEntries(((ImDocumentEntry[]) docEntries.toArray(new ImDocumentEntry[docEntries.size()])), output);
 				}
 				finally {
 					docData.dispose();
@@ -27,6 +27,7 @@
  */
 package de.uka.ipd.idaho.goldenGateServer.ims;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -34,13 +35,18 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.lang.ref.SoftReference;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -59,6 +65,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -72,6 +80,7 @@ import de.uka.ipd.idaho.gamta.Attributed;
 import de.uka.ipd.idaho.gamta.Gamta;
 import de.uka.ipd.idaho.gamta.defaultImplementation.AbstractAttributed;
 import de.uka.ipd.idaho.gamta.util.ProgressMonitor;
+import de.uka.ipd.idaho.gamta.util.transfer.DocumentListBuffer;
 import de.uka.ipd.idaho.gamta.util.transfer.DocumentListElement;
 import de.uka.ipd.idaho.goldenGateServer.AbstractGoldenGateServerComponent;
 import de.uka.ipd.idaho.goldenGateServer.GoldenGateServerConstants.GoldenGateServerEvent.EventLogger;
@@ -161,6 +170,19 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			return (this.colName + " = '" + EasyIO.sqlEscape(value) + "'");
 		}
 		
+		String getStoredValue(Attributed doc, boolean insert) {
+			String value = this.getValueFor(doc);
+			if (value != null) {
+				if (this.isInteger)
+					value = value.replaceAll("[^0-9]", "").replaceAll("^0+(?=[0-9])", "");
+				else if (value.length() > this.colLength)
+					value = value.substring(0, this.colLength);
+			}
+			if ((value == null) || (value.length() == 0))
+				return (insert ? (this.isInteger ? "0" : "") : null);
+			return value;
+		}
+		
 		static DocumentAttribute parseDocumentAttribute(String daData) {
 			String[] dad = daData.split("\\t", 3);
 			try {
@@ -174,46 +196,83 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	
 	private int documentListSizeThreshold = 0;
 	
+	private String documentAttributeInsertColumns;
+	
 	private Set docIdSet = Collections.synchronizedSet(new HashSet());
+	private boolean docIdSetComplete = false;
 	private Map docAttributeValueCache = Collections.synchronizedMap(new HashMap());
+	private ImsListFieldStatistics listFieldStatistics;
+	private void addDocumentId(String docId) {
+		synchronized (this.listFieldStatistics) {
+			if (this.docIdSet.add(docId))
+				this.listFieldStatistics.logDocumentAdded(docId);
+		}
+	}
+	private void removeDocumentId(String docId) {
+		synchronized (this.listFieldStatistics) {
+			if (this.docIdSet.remove(docId))
+				this.listFieldStatistics.logDocumentRemoved(docId);
+		}
+	}
 	private void cacheDocumentAttributeValue(String fieldName, String fieldValue) {
 		if ((fieldValue == null) || ImsDocumentList.summarylessAttributes.contains(fieldValue))
 			return;
-		this.getListFieldSummary(fieldName, true).add(fieldValue);
+		ImsDocumentList.AttributeSummary as = this.getListFieldSummary(fieldName, true);
+		synchronized (this.listFieldStatistics) {
+			synchronized (as) {
+				as.add(fieldValue);
+			}
+			this.listFieldStatistics.logValueAdded(fieldName, fieldValue);
+		}
 	}
-	private void cacheDocumentAttributeValues(Attributed values) {
-		if (values == null)
+	private void cacheMetaDataValues(DocumentListElement dle) {
+		if (dle == null)
 			return;
-		for (int f = 0; f < documentDataFields.length; f++)
-			this.cacheDocumentAttributeValue(documentDataFields[f], ((String) values.getAttribute(documentDataFields[f])));
-		for (int f = 0; f < documentDataFieldsAdmin.length; f++)
-			this.cacheDocumentAttributeValue(documentDataFieldsAdmin[f], ((String) values.getAttribute(documentDataFields[f])));
+		String[] fieldNames = dle.getAttributeNames();
+		for (int f = 0; f < fieldNames.length; f++) {
+			if (ImsDocumentList.summarylessAttributes.contains(fieldNames[f]))
+				continue;
+			this.cacheDocumentAttributeValue(fieldNames[f], ((String) dle.getAttribute(fieldNames[f])));
+		}
 	}
 	private void uncacheDocumentAttributeValue(String fieldName, String fieldValue) {
 		if ((fieldValue == null) || ImsDocumentList.summarylessAttributes.contains(fieldValue))
 			return;
 		ImsDocumentList.AttributeSummary as = this.getListFieldSummary(fieldName, false);
-		if (as != null)
-			as.remove(fieldValue);
+		if (as == null)
+			return;
+		synchronized (this.listFieldStatistics) {
+			boolean removed;
+			synchronized (as) {
+				removed = as.remove(fieldValue);
+			}
+			if (removed)
+				this.listFieldStatistics.logValueRemoved(fieldName, fieldValue);
+		}
 	}
-	private void uncacheDocumentAttributeValues(Attributed values) {
-		if (values == null)
+	private void uncacheMetaDataValues(DocumentListElement dle) {
+		if (dle == null)
 			return;
-		for (int f = 0; f < documentDataFields.length; f++)
-			this.uncacheDocumentAttributeValue(documentDataFields[f], ((String) values.getAttribute(documentDataFields[f])));
-		for (int f = 0; f < documentDataFieldsAdmin.length; f++)
-			this.uncacheDocumentAttributeValue(documentDataFieldsAdmin[f], ((String) values.getAttribute(documentDataFields[f])));
+		String[] fieldNames = dle.getAttributeNames();
+		for (int f = 0; f < fieldNames.length; f++) {
+			if (ImsDocumentList.summarylessAttributes.contains(fieldNames[f]))
+				continue;
+			this.uncacheDocumentAttributeValue(fieldNames[f], ((String) dle.getAttribute(fieldNames[f])));
+		}
 	}
 	private ImsDocumentList.AttributeSummary getListFieldSummary(String fieldName, boolean create) {
-		ImsDocumentList.AttributeSummary as = ((ImsDocumentList.AttributeSummary) this.docAttributeValueCache.get(fieldName));
-		if ((as == null) && create) {
-			as = new ImsDocumentList.AttributeSummary();
-			this.docAttributeValueCache.put(fieldName, as);
+		synchronized (this.docAttributeValueCache) { // updates to different documents may come in concurrently
+			ImsDocumentList.AttributeSummary as = ((ImsDocumentList.AttributeSummary) this.docAttributeValueCache.get(fieldName));
+			if ((as == null) && create) {
+				as = new ImsDocumentList.AttributeSummary();
+				this.docAttributeValueCache.put(fieldName, as);
+			}
+			return as;
 		}
-		return as;
 	}
 	
 	private IdentifierKeyedDataObjectStore iks;
+	private ImsSharedEntryStore sharedEntryStore = null;
 	private boolean showCheckoutUserOnError = false;
 	
 	private IoProvider io;
@@ -238,6 +297,16 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		File documentStorageRoot = (((docFolderName.indexOf(":\\") == -1) && (docFolderName.indexOf(":/") == -1) && !docFolderName.startsWith("/")) ? new File(this.dataPath, docFolderName) : new File(docFolderName));
 		this.iks = new IdentifierKeyedDataObjectStore("ImsDocuments", documentStorageRoot, null, this);
 		
+		//	create storage for document ID set and list field summaries
+		this.listFieldStatistics = new ImsListFieldStatistics(this.dataPath, this.docIdSet, this.docAttributeValueCache);
+		
+		//	get shared entry storage root folder (if any)
+		String sharedEntryFolderName = this.configuration.getSetting("sharedEntryFolderName", "").trim();
+		while (sharedEntryFolderName.startsWith("./"))
+			sharedEntryFolderName = sharedEntryFolderName.substring("./".length());
+		if (sharedEntryFolderName.length() != 0)
+			this.sharedEntryStore = new ImsSharedEntryStore((((sharedEntryFolderName.indexOf(":\\") == -1) && (sharedEntryFolderName.indexOf(":/") == -1) && !sharedEntryFolderName.startsWith("/")) ? new File(this.dataPath, sharedEntryFolderName) : new File(sharedEntryFolderName)));
+		
 		//	are we supposed to indicate _who_ checked out a document in an error message?
 		this.showCheckoutUserOnError = "true".equals(this.configuration.getSetting("showCheckoutUserOnError", ("" + this.showCheckoutUserOnError)));
 		
@@ -302,6 +371,14 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		this.io.indexColumn(DOCUMENT_ATTRIBUTE_TABLE_NAME, DOCUMENT_ID_ATTRIBUTE);
 		this.io.indexColumn(DOCUMENT_ATTRIBUTE_TABLE_NAME, DOCUMENT_ID_HASH_ATTRIBUTE);
 		
+		//	assemble column list for attribute table inserts (attribute layout is fixed from here onward)
+		StringBuffer daInsertColumns = new StringBuffer(DOCUMENT_ID_ATTRIBUTE + ", " + DOCUMENT_ID_HASH_ATTRIBUTE);
+		for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
+			DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
+			daInsertColumns.append(", " + da.colName);
+		}
+		this.documentAttributeInsertColumns = daInsertColumns.toString();
+		
 		//	get maximum document list size for non-admin users
 		try {
 			this.documentListSizeThreshold = Integer.parseInt(this.configuration.getSetting("documentListSizeThreshold", ("" + this.documentListSizeThreshold)));
@@ -325,17 +402,40 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	 */
 	public void linkInit() {
 		
-		//	pre-fill caches
-		ImsDocumentList dl = this.getDocumentList(UserAccessAuthority.SUPERUSER_NAME, false, null, null);
-		while (dl.hasNextDocument()) {
-			DocumentListElement dle = dl.getNextDocument();
-			this.docIdSet.add(dle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
-			for (int f = 0; f < dl.listFieldNames.length; f++) {
-				if (ImsDocumentList.summarylessAttributes.contains(dl.listFieldNames[f]))
-					continue;
-				this.cacheDocumentAttributeValue(dl.listFieldNames[f], ((String) dle.getAttribute(dl.listFieldNames[f])));
+		//	restore caches from persisted statistics, and pre-fill them from document list only if that fails
+		long[] docKeySummary = this.getDocumentKeySummary();
+		if ((docKeySummary != null) && (docKeySummary[0] != docKeySummary[1]))
+			this.logError("GoldenGateIMS: document table contains " + (docKeySummary[0] - docKeySummary[1]) + " duplicate document IDs");
+		if ((docKeySummary != null) && this.listFieldStatistics.load() && this.isDocumentIdSetConsistent(docKeySummary))
+			this.logInfo("GoldenGateIMS: list field statistics restored for " + this.docIdSet.size() + " documents");
+		else {
+			this.logInfo("GoldenGateIMS: list field statistics missing or inconsistent, scanning document list ...");
+			ImsDocumentList dl = this.getDocumentList(UserAccessAuthority.SUPERUSER_NAME, false, null, null);
+			while (dl.hasNextDocument()) {
+				DocumentListElement dle = dl.getNextDocument();
+				this.docIdSet.add(dle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
+				for (int f = 0; f < dl.listFieldNames.length; f++) {
+					if (ImsDocumentList.summarylessAttributes.contains(dl.listFieldNames[f]))
+						continue;
+					String fieldValue = ((String) dle.getAttribute(dl.listFieldNames[f]));
+					if (fieldValue == null)
+						continue;
+					ImsDocumentList.AttributeSummary as = this.getListFieldSummary(dl.listFieldNames[f], true);
+					synchronized (as) {
+						as.add(fieldValue); // no need for journaling, we're storing a snapshot right below
+					}
+				}
 			}
+			try {
+				this.listFieldStatistics.storeSnapshot();
+			}
+			catch (IOException ioe) {
+				this.logError("GoldenGateIMS: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing list field statistics.");
+				this.logError(ioe);
+			}
+			this.logInfo(" ==> list field statistics built for " + this.docIdSet.size() + " documents");
 		}
+		this.docIdSetComplete = true;
 		
 		//	register permissions
 		this.uaa.registerPermission(UPLOAD_DOCUMENT_PERMISSION);
@@ -348,6 +448,9 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	 */
 	protected void exitComponent() {
 		
+		//	persist document ID set and list field summaries
+		this.listFieldStatistics.close();
+		
 		//	shut down database connection
 		this.io.close();
 		
@@ -651,27 +754,7 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				}
 				
 				//	read filter string
-				String filterString = input.readLine();
-				Properties filter;
-				if (filterString.length() == 0)
-					filter = null;
-				else {
-					String[] filters = filterString.split("\\&");
-					filter = new Properties();
-					for (int f = 0; f < filters.length; f++) {
-						String[] pair = filters[f].split("\\=");
-						if (pair.length == 2) {
-							String name = pair[0].trim();
-							String value = URLDecoder.decode(pair[1].trim(), ENCODING).trim();
-							
-							String existingValue = filter.getProperty(name);
-							if (existingValue != null)
-								value = existingValue + "\n" + value;
-							
-							filter.setProperty(name, value);
-						}
-					}
-				}
+				Properties filter = parseDocumentListFilter(input.readLine());
 				
 				//	TODO use fix registered extensions
 				ImsDocumentList docList = getDocumentList(uaa.getUserNameForSession(sessionId), false, filter, null);
@@ -684,6 +767,58 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			}
 		};
 		cal.add(ca);
+		
+		// list documents page by page
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_DOCUMENT_LIST_PAGE;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				
+				// check authentication
+				String sessionId = input.readLine();
+				if (!uaa.isValidSession(sessionId)) {
+					output.write("Invalid session (" + sessionId + ")");
+					output.newLine();
+					logWarning("Request for invalid session - " + sessionId);
+					return;
+				}
+				
+				//	read filter string, sort field, page size, and cursor
+				Properties filter = parseDocumentListFilter(input.readLine());
+				String sortField = input.readLine();
+				String pageSizeString = input.readLine();
+				String pageCursor = input.readLine();
+				int pageSize;
+				try {
+					pageSize = Integer.parseInt(pageSizeString.trim());
+				}
+				catch (RuntimeException re /* number format as well as null pointer exceptions */) {
+					pageSize = -1;
+				}
+				if (pageSize < 1) {
+					output.write("Invalid page size (" + pageSizeString + ")");
+					output.newLine();
+					return;
+				}
+				sortField = ((sortField == null) ? "" : sortField.trim());
+				pageCursor = ((pageCursor == null) ? "" : pageCursor.trim());
+				
+				//	get page of document list, and buffer it to obtain cursor for next page
+				ImsDocumentList docList = getDocumentList(uaa.getUserNameForSession(sessionId), false, filter, null, ((sortField.length() == 0) ? null : sortField), pageSize, ((pageCursor.length() == 0) ? null : pageCursor));
+				DocumentListBuffer docListBuffer = new DocumentListBuffer(docList);
+				String nextPageCursor = docList.getNextPageCursor();
+				
+				output.write(GET_DOCUMENT_LIST_PAGE);
+				output.newLine();
+				output.write((nextPageCursor == null) ? "" : nextPageCursor);
+				output.newLine();
+				
+				docListBuffer.writeData(output);
+				output.newLine();
+			}
+		};
+		cal.add(ca);
 //		
 //		// list documents TODOne remove this unless still occurring in server logs
 //		ca = new ComponentActionNetwork() {
@@ -930,20 +1065,7 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				
 				//	send requested entries
 				try {
-					ZipOutputStream zout = new ZipOutputStream(output);
-					byte[] buffer = new byte[1024];
-					for (int e = 0; e < docImfEntries.size(); e++) {
-						ImDocumentEntry entry = ((ImDocumentEntry) docImfEntries.get(e));
-						ZipEntry ze = new ZipEntry(entry.getFileName());
-						ze.setTime(entry.updateTime);
-						zout.putNextEntry(ze);
-						InputStream entryIn = docData.getInputStream(entry);
-						for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
-							zout.write(buffer, 0, r);
-						entryIn.close();
-						zout.closeEntry();
-					}
-					zout.flush();
+					docData.writeEntries(((ImDocumentEntry[]) docImfEntries.toArray(new ImDocumentEntry[docImfEntries.size()])), output);
 				}
 				finally {
 					docData.dispose();
@@ -1329,17 +1451,23 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		private String docId;
 		private int docVersion = -1;
 		private DataObjectFolder entryDataFolder;
+		private ImsDocumentVersionIndex versionIndex;
+		private ImsSharedEntryStore sharedEntryStore;
 		private boolean isActiveClone = true;
-		ImsDocumentData(String docId, DataObjectFolder entryDataFolder) throws IOException {
+		ImsDocumentData(String docId, DataObjectFolder entryDataFolder, ImsDocumentVersionIndex versionIndex, ImsSharedEntryStore sharedEntryStore) throws IOException {
 			super(entryDataFolder);
 			this.docId = docId;
 			this.entryDataFolder = entryDataFolder;
+			this.versionIndex = versionIndex;
+			this.sharedEntryStore = sharedEntryStore;
 			this.loadEntries(0); // deleted document might have been restored on folder re-creation
 		}
-		ImsDocumentData(String docId, DataObjectFolder entryDataFolder, int version) throws IOException {
+		ImsDocumentData(String docId, DataObjectFolder entryDataFolder, ImsDocumentVersionIndex versionIndex, ImsSharedEntryStore sharedEntryStore, int version) throws IOException {
 			super(entryDataFolder);
 			this.docId = docId;
 			this.entryDataFolder = entryDataFolder;
+			this.versionIndex = versionIndex;
+			this.sharedEntryStore = sharedEntryStore;
 			if (version != -1)
 				this.loadEntries(version);
 		}
@@ -1384,7 +1512,7 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		 */
 		public int getDocumentVersion() {
 			if (this.docVersion == -1)
-				this.docVersion = getCurrentVersion(this.entryDataFolder);
+				this.docVersion = this.versionIndex.getCurrentVersion();
 			return this.docVersion;
 		}
 		
@@ -1425,8 +1553,9 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		
 		int storeEntryList(long time) throws IOException {
 			
-			//	get current version
-			int version = getCurrentVersion(this.entryDataFolder);
+			//	get current version (making sure index is up to date, as we might have been holding on to it for a while)
+			this.versionIndex.ensureUpToDate(this.entryDataFolder);
+			int version = this.versionIndex.getCurrentVersion();
 			
 			//	open entry file
 			File docEntryListFileUpdating = new File(this.entryDataFolder, "entries.updating.txt");
@@ -1439,6 +1568,15 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			//	write entry list
 			ImDocumentEntry[] entries = this.getEntries();
 			Arrays.sort(entries);
+			
+			//	link to any entry data shared by other documents or versions that client code did not write, as we had it
+			if (this.sharedEntryStore != null)
+				for (int e = 0; e < entries.length; e++) {
+					if (new File(this.entryDataFolder, entries[e].getFileName()).exists())
+						continue;
+					if (!this.sharedEntryStore.linkEntryData(this.entryDataFolder, entries[e]))
+						throw new IOException("Missing data for entry '" + entries[e].name + "'");
+				}
 			for (int e = 0; e < entries.length; e++) {
 				entryOut.write(entries[e].toTabString());
 				entryOut.newLine();
@@ -1453,6 +1591,10 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			docEntryListFileUpdating.setLastModified(time);
 			docEntryListFileUpdating.renameTo(new File(this.entryDataFolder, "entries.txt"));
 			
+			//	add new version to index and persist it
+			this.versionIndex.addVersion((version + 1), ((String) this.getAttribute(UPDATE_USER_ATTRIBUTE)), time);
+			this.versionIndex.store(this.entryDataFolder);
+			
 			//	extrapolate to next version
 			return (version + 1);
 		}
@@ -1465,7 +1607,7 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			
 			//	compute version if argument relative to current one
 			if (version < 0)
-				version = (getCurrentVersion(this.entryDataFolder) - version);
+				version = (this.versionIndex.getCurrentVersion() - version);
 			
 			//	little we can do about this one
 			if (version < 0)
@@ -1473,78 +1615,17 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			
 			//	clone for computed version
 			this.isActiveClone = false;
-			return new ImsDocumentData(this.docId, this.entryDataFolder, version);
+			return new ImsDocumentData(this.docId, this.entryDataFolder, this.versionIndex, this.sharedEntryStore, version);
 		}
 		
 		ImsDocumentVersionHistory getVersionHistory() throws IOException {
 			
-			//	create main version history object
-			ImsDocumentVersionHistory dvh = new ImsDocumentVersionHistory(this.docId);
-			
 			//	check if folder even exists
 			if (!this.entryDataFolder.exists())
 				return null;
 			
-			//	get document entry lists
-			File[] docEntryListFiles = this.entryDataFolder.listFiles(new FileFilter() {
-				public boolean accept(File file) {
-					return ((file != null) && file.isFile() && file.getName().startsWith("entries.") && file.getName().endsWith(".txt"));
-				}
-			});
-			
-			//	no entry lists at all, current version is 0
-			if ((docEntryListFiles == null) || (docEntryListFiles.length == 0))
-				return null;
-			
-			//	only updating entry list, current version is still 0
-			if ((docEntryListFiles.length == 1) && "entries.updating.txt".equals(docEntryListFiles[0].getName()))
-				return null;
-			
-			//	add past versions
-			int currentVersion = 1;
-			Attributed versionAttributes = new AbstractAttributed();
-			for (int f = 0; f < docEntryListFiles.length; f++) {
-				
-				//	cut prefix and extension from file name
-				String docFileName = docEntryListFiles[f].getName();
-				docFileName = docFileName.substring("entries.".length());
-				
-				//	make sure there's left more than the 'txt' file extension, which will be the case for the most recent version
-				if (docFileName.length() <= "txt".length())
-					continue;
-				
-				//	this one's not live just yet
-				if (docFileName.startsWith("updating."))
-					continue;
-				
-				//	read provenance attributes from first line
-				BufferedReader attributeLineIn = new BufferedReader(new InputStreamReader(new FileInputStream(docEntryListFiles[f]), ENCODING));
-				String attributeString = attributeLineIn.readLine();
-				ImDocumentIO.setAttributes(versionAttributes, attributeString);
-				attributeLineIn.close();
-				
-				//	store version attributes
-				String updateUser = ((String) versionAttributes.getAttribute(UPDATE_USER_ATTRIBUTE));
-				String updateTime = ((String) versionAttributes.getAttribute(UPDATE_TIME_ATTRIBUTE));
-				versionAttributes.clearAttributes();
-				if ((updateUser == null) || (updateTime == null))
-					continue;
-				
-				//	get version number, update current version number, and store version
-				try {
-					int version = Integer.parseInt(docFileName.substring(0, (docFileName.length() - ".txt".length())));
-					currentVersion = Math.max(currentVersion, (version + 1));
-					dvh.addVersion(version, updateUser, Long.parseLong(updateTime));
-				} catch (NumberFormatException nfe) {}
-			}
-			
-			//	add current version
-			String updateUser = ((String) this.getAttribute(UPDATE_USER_ATTRIBUTE));
-			String updateTime = ((String) this.getAttribute(UPDATE_TIME_ATTRIBUTE));
-			dvh.addVersion(currentVersion, updateUser, Long.parseLong(updateTime));
-			
-			//	finally ...
-			return dvh;
+			//	get version history from index
+			return this.versionIndex.getVersionHistory();
 		}
 		
 		private boolean readOnly = false;
@@ -1562,10 +1643,106 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			return super.putEntry(entry);
 		}
 		
-		public OutputStream getOutputStream(String entryName, boolean writeDirectly) throws IOException {
+		public OutputStream getOutputStream(final String entryName, boolean writeDirectly) throws IOException {
 			if (this.readOnly)
 				throw new IOException("Cannot write '" + entryName + "' in read-only mode !!!");
-			return super.getOutputStream(entryName, writeDirectly);
+			OutputStream out = super.getOutputStream(entryName, writeDirectly);
+			if (this.sharedEntryStore == null)
+				return out;
+			
+			//	hand entry data over to shared store after writing it
+			return new FilterOutputStream(out) {
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+				}
+				public void close() throws IOException {
+					super.close();
+					ImDocumentEntry entry = getEntry(entryName);
+					if (entry != null)
+						sharedEntryStore.adoptEntryData(entryDataFolder, entry);
+				}
+			};
+		}
+		
+		public boolean hasEntryData(ImDocumentEntry entry) {
+			if (super.hasEntryData(entry))
+				return true;
+			if (this.sharedEntryStore == null)
+				return false;
+			return this.sharedEntryStore.hasEntryData(entry); // linking happens when storing entry list
+		}
+		
+		public InputStream getInputStream(String entryName) throws IOException {
+			if (this.sharedEntryStore != null) {
+				ImDocumentEntry entry = this.getEntry(entryName);
+				if ((entry != null) && !new File(this.entryDataFolder, entry.getFileName()).exists() && this.sharedEntryStore.hasEntryData(entry))
+					return this.sharedEntryStore.getInputStream(entry);
+			}
+			return super.getInputStream(entryName);
+		}
+		
+		/**
+		 * Retrieve the size of the data of an entry, in bytes, regardless of
+		 * whether it is stored in the folder of this document data object
+		 * proper or in shared storage. This method only checks file sizes,
+		 * so it is cheap enough to use for sizing processing resources.
+		 * @param entry the entry to get the data size for
+		 * @return the size of the entry data, or -1 if there is no data
+		 */
+		public long getEntrySize(ImDocumentEntry entry) {
+			File entryDataFile = this.getEntryDataFile(entry);
+			return ((entryDataFile == null) ? -1 : entryDataFile.length());
+		}
+		
+		/**
+		 * Retrieve the file holding the data of an entry, regardless of whether
+		 * it is stored in the folder of this document data object proper or in
+		 * shared storage. This is to give processes on the same machine read
+		 * access to entry data without copying it. Client code must not write
+		 * to the returned file, nor move or delete it.
+		 * @param entry the entry to get the data file for
+		 * @return the file holding the entry data, or null if there is no data
+		 */
+		public File getEntryDataFile(ImDocumentEntry entry) {
+			File entryDataFile = new File(this.entryDataFolder, entry.getFileName());
+			if (entryDataFile.exists())
+				return entryDataFile;
+			if ((this.sharedEntryStore != null) && this.sharedEntryStore.hasEntryData(entry))
+				return this.sharedEntryStore.getEntryDataFile(entry);
+			return null;
+		}
+		
+		/**
+		 * Adopt the data of an entry from a file written by other means, e.g.
+		 * by a slave process decoding a document, moving the file into this
+		 * document data object instead of copying its content. The latter is
+		 * only done as a fallback if the file cannot be moved, e.g. if it
+		 * resides on another file system. In either case, the argument file
+		 * no longer exists after this method returns.
+		 * @param entry the entry to adopt the data for
+		 * @param entryFile the file holding the entry data
+		 * @throws IOException
+		 */
+		public void adoptEntryFile(ImDocumentEntry entry, File entryFile) throws IOException {
+			if (this.readOnly)
+				throw new IOException("Cannot write '" + entry.name + "' in read-only mode !!!");
+			File entryDataFile = new File(this.entryDataFolder, entry.getFileName());
+			if (entryDataFile.exists())
+				entryFile.delete(); // we have this data already
+			else if (!entryFile.renameTo(entryDataFile)) {
+				InputStream entryIn = new BufferedInputStream(new FileInputStream(entryFile));
+				OutputStream entryOut = new BufferedOutputStream(new FileOutputStream(entryDataFile));
+				byte[] buffer = new byte[65536];
+				for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+					entryOut.write(buffer, 0, r);
+				entryOut.flush();
+				entryOut.close();
+				entryIn.close();
+				entryFile.delete();
+			}
+			this.putEntry(entry);
+			if (this.sharedEntryStore != null)
+				this.sharedEntryStore.adoptEntryData(this.entryDataFolder, entry);
 		}
 		
 		public DataBackedImDocument getDocument(ProgressMonitor pm) throws IOException {
@@ -1592,15 +1769,92 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		 * names, thus expose the raw physical content of the document. This is
 		 * not meant for modification (all the returned files are non-writable),
 		 * but rather for maintenance applications like backup/restore and delta
-		 * based replication that includes provenance data.
+		 * based replication that includes provenance data. Entries whose data
+		 * resides in the shared entry store (if any) are represented by the
+		 * shared data files, which report the entry file name as their name.
 		 * @return a list of raw entry files in the document
 		 */
 		public File[] getEntryFiles() {
-			return this.entryDataFolder.listFiles();
+			File[] entryFiles = this.entryDataFolder.listFiles();
+			if ((this.sharedEntryStore != null) && (entryFiles != null))
+				entryFiles = this.sharedEntryStore.resolveEntryFiles(entryFiles);
+			return entryFiles;
 			//	TODO encapsulate files in some way to prevent writing
 			//	TODO ==> maybe overwrite canWrite() method to simply return false
 		}
 		
+		/**
+		 * Write the data of a series of entries to an output stream, wrapped
+		 * in a zip stream. Entries whose data is compressed already (like PNG
+		 * or JPEG page images) are not deflated again, but added to the zip
+		 * stream in stored mode, which saves a lot of CPU time without any
+		 * loss in transfer size. The output stream is flushed, but not closed.
+		 * @param entries the entries to write
+		 * @param out the output stream to write to
+		 * @throws IOException
+		 */
+		public void writeEntries(ImDocumentEntry[] entries, OutputStream out) throws IOException {
+			ZipOutputStream zout = new ZipOutputStream(out);
+			byte[] buffer = new byte[ENTRY_TRANSFER_BUFFER_SIZE];
+			for (int e = 0; e < entries.length; e++) {
+				ImDocumentEntry entry = entries[e];
+				File entryDataFile = this.getEntryDataFile(entry);
+				ZipEntry ze = new ZipEntry(entry.getFileName());
+				ze.setTime(entry.updateTime);
+				
+				//	send compressed data as is
+				if ((entryDataFile != null) && (entryDataFile.length() <= MAX_STORED_ENTRY_SIZE) && isCompressedEntry(entry)) {
+					byte[] entryData = readEntryDataFile(entryDataFile);
+					CRC32 crc = new CRC32();
+					crc.update(entryData);
+					ze.setMethod(ZipEntry.STORED);
+					ze.setSize(entryData.length);
+					ze.setCompressedSize(entryData.length);
+					ze.setCrc(crc.getValue());
+					zout.putNextEntry(ze);
+					zout.write(entryData);
+					zout.closeEntry();
+					continue;
+				}
+				
+				//	deflate any other data
+				zout.putNextEntry(ze);
+				InputStream entryIn = ((entryDataFile == null) ? this.getInputStream(entry) : new FileInputStream(entryDataFile));
+				for (int r; (r = entryIn.read(buffer, 0, buffer.length)) != -1;)
+					zout.write(buffer, 0, r);
+				entryIn.close();
+				zout.closeEntry();
+			}
+			zout.flush();
+		}
+		
+		private static boolean isCompressedEntry(ImDocumentEntry entry) {
+			String entryName = entry.name.toLowerCase();
+			for (int s = 0; s < COMPRESSED_ENTRY_SUFFIXES.length; s++) {
+				if (entryName.endsWith(COMPRESSED_ENTRY_SUFFIXES[s]))
+					return true;
+			}
+			return false;
+		}
+		private static final String[] COMPRESSED_ENTRY_SUFFIXES = {".png", ".jpg", ".jpeg", ".gif", ".zip", ".gz"};
+		
+		private static byte[] readEntryDataFile(File entryDataFile) throws IOException {
+			FileInputStream entryIn = new FileInputStream(entryDataFile);
+			FileChannel entryChannel = entryIn.getChannel();
+			ByteBuffer entryData = ByteBuffer.allocate((int) entryChannel.size());
+			while (entryData.hasRemaining()) {
+				if (entryChannel.read(entryData) == -1)
+					break;
+			}
+			entryIn.close();
+			if (entryData.hasRemaining())
+				throw new IOException("Could not read entry data from '" + entryDataFile.getName() + "'");
+			return entryData.array();
+		}
+		
+		private static final int ENTRY_TRANSFER_BUFFER_SIZE = (64 * 1024);
+		private static final int MAX_STORED_ENTRY_SIZE = (16 * 1024 * 1024);
+		
 		public void dispose() {
 			super.dispose();
 //			CANNOT DISPOSE DOCUMENT, AS THAT CAUSES STACK OVERFLOW
@@ -1615,51 +1869,207 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
-	private static int getCurrentVersion(DataObjectFolder docFolder) {
+	/**
+	 * Index of the versions of a document, i.e., the current version number
+	 * plus update user and timestamp of each individual version. The index is
+	 * persisted in a 'versions.txt' file in the document folder, which is
+	 * replaced atomically whenever a new version is stored, so the version
+	 * related lookups do not need to list the document folder and read the
+	 * provenance line from each individual entry list.
+	 * 
+	 * @author sautter
+	 */
+	private static class ImsDocumentVersionIndex {
+		final String docId;
+		private int currentVersion = 0;
+		private TreeMap versions = new TreeMap();
 		
-		//	check if folder even exists
-		if (!docFolder.exists())
-			return 0;
+		ImsDocumentVersionIndex(String docId) {
+			this.docId = docId;
+		}
+		
+		synchronized int getCurrentVersion() {
+			return this.currentVersion;
+		}
+		
+		synchronized void addVersion(int version, String updateUser, long updateTime) {
+			this.currentVersion = Math.max(this.currentVersion, version);
+			if (updateUser != null)
+				this.versions.put(new Integer(version), new ImsDocumentVersion(this.docId, version, updateUser, updateTime));
+		}
 		
-		//	get document entry lists
-		File[] docEntryListFiles = docFolder.listFiles(new FileFilter() {
-			public boolean accept(File file) {
-				return ((file != null) && file.isFile() && file.getName().startsWith("entries.") && file.getName().endsWith(".txt"));
+		synchronized void ensureUpToDate(DataObjectFolder docFolder) throws IOException {
+			if (!new File(docFolder, ("entries." + this.currentVersion + ".txt")).exists())
+				return; // current version not archived, so we're up to date
+			ImsDocumentVersionIndex dvi = load(this.docId, docFolder);
+			this.currentVersion = dvi.currentVersion;
+			this.versions = dvi.versions;
+		}
+		
+		synchronized ImsDocumentVersionHistory getVersionHistory() {
+			if (this.currentVersion == 0)
+				return null;
+			ImsDocumentVersionHistory dvh = new ImsDocumentVersionHistory(this.docId);
+			for (Iterator vit = this.versions.keySet().iterator(); vit.hasNext();) {
+				ImsDocumentVersion dv = ((ImsDocumentVersion) this.versions.get(vit.next()));
+				dvh.addVersion(dv.version, dv.updateUser, dv.updateTime);
 			}
-		});
+			return dvh;
+		}
 		
-		//	no entry lists at all, current version is 0
-		if ((docEntryListFiles == null) || (docEntryListFiles.length == 0))
-			return 0;
+		synchronized void store(DataObjectFolder docFolder) throws IOException {
+			
+			//	write index to temporary file
+			File versionIndexFileUpdating = new File(docFolder, "versions.updating.txt");
+			BufferedWriter indexOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(versionIndexFileUpdating), ENCODING));
+			indexOut.write("" + this.currentVersion);
+			indexOut.newLine();
+			for (Iterator vit = this.versions.keySet().iterator(); vit.hasNext();) {
+				ImsDocumentVersion dv = ((ImsDocumentVersion) this.versions.get(vit.next()));
+				indexOut.write(dv.version + "\t" + dv.updateUser + "\t" + dv.updateTime);
+				indexOut.newLine();
+			}
+			indexOut.flush();
+			indexOut.close();
+			
+			//	switch updated index live
+			File versionIndexFile = new File(docFolder, "versions.txt");
+			if (versionIndexFile.exists())
+				versionIndexFile.delete();
+			if (!versionIndexFileUpdating.renameTo(versionIndexFile))
+				throw new IOException("Could not store version index for document ID '" + this.docId + "'");
+		}
 		
-		//	only updating entry list, current version is still 0
-		if ((docEntryListFiles.length == 1) && "entries.updating.txt".equals(docEntryListFiles[0].getName()))
-			return 0;
+		static ImsDocumentVersionIndex load(String docId, DataObjectFolder docFolder) throws IOException {
+			ImsDocumentVersionIndex dvi = new ImsDocumentVersionIndex(docId);
+			
+			//	check if folder even exists
+			if (!docFolder.exists())
+				return dvi;
+			
+			//	read persisted index if we have one
+			File versionIndexFile = new File(docFolder, "versions.txt");
+			if (versionIndexFile.exists()) {
+				BufferedReader indexIn = new BufferedReader(new InputStreamReader(new FileInputStream(versionIndexFile), ENCODING));
+				try {
+					dvi.currentVersion = Integer.parseInt(indexIn.readLine().trim());
+					for (String versionString; (versionString = indexIn.readLine()) != null;) {
+						String[] versionData = versionString.split("\\t");
+						if (versionData.length == 3)
+							dvi.addVersion(Integer.parseInt(versionData[0]), versionData[1], Long.parseLong(versionData[2]));
+					}
+				}
+				catch (RuntimeException re /* number format as well as missing first line */) {
+					dvi = null;
+				}
+				finally {
+					indexIn.close();
+				}
+				
+				//	make sure index is not behind entry lists (server might have gone down right between storing entry list and updating index)
+				if ((dvi != null) && !new File(docFolder, ("entries." + dvi.currentVersion + ".txt")).exists())
+					return dvi;
+				dvi = new ImsDocumentVersionIndex(docId);
+			}
+			
+			//	(re-)build index from entry lists, and persist it
+			if (dvi.buildFromEntryLists(docFolder))
+				dvi.store(docFolder);
+			return dvi;
+		}
 		
-		//	find most recent version number
-		int version = 0;
-		for (int f = 0; f < docEntryListFiles.length; f++) {
-			String docFileName = docEntryListFiles[f].getName();
+		private boolean buildFromEntryLists(DataObjectFolder docFolder) throws IOException {
 			
-			//	cut file name and dot
-			docFileName = docFileName.substring("entries.".length());
+			//	get document entry lists
+			File[] docEntryListFiles = docFolder.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return ((file != null) && file.isFile() && file.getName().startsWith("entries.") && file.getName().endsWith(".txt"));
+				}
+			});
 			
-			//	make sure there's left more than the 'txt' file extension, which will be the case for the most recent version
-			if (docFileName.length() <= "txt".length())
-				continue;
+			//	no entry lists at all, current version is 0
+			if ((docEntryListFiles == null) || (docEntryListFiles.length == 0))
+				return false;
 			
-			//	this one's not live just yet
-			if (docFileName.startsWith("updating."))
-				continue;
+			//	add versions
+			int currentVersion = 1;
+			File currentDocEntryListFile = null;
+			Attributed versionAttributes = new AbstractAttributed();
+			for (int f = 0; f < docEntryListFiles.length; f++) {
+				
+				//	cut prefix and extension from file name
+				String docFileName = docEntryListFiles[f].getName();
+				docFileName = docFileName.substring("entries.".length());
+				
+				//	this one's not live just yet
+				if (docFileName.startsWith("updating."))
+					continue;
+				
+				//	make sure there's left more than the 'txt' file extension, which will be the case for the most recent version
+				if (docFileName.length() <= "txt".length()) {
+					currentDocEntryListFile = docEntryListFiles[f];
+					continue;
+				}
+				
+				//	get version number
+				int version;
+				try {
+					version = Integer.parseInt(docFileName.substring(0, (docFileName.length() - ".txt".length())));
+				}
+				catch (NumberFormatException nfe) {
+					continue;
+				}
+				currentVersion = Math.max(currentVersion, (version + 1));
+				
+				//	read provenance attributes from first line and store version
+				this.addVersion(version, docEntryListFiles[f], versionAttributes);
+			}
 			
-			//	cut file extension and get version number
+			//	only updating entry list, current version is still 0
+			if ((currentDocEntryListFile == null) && (currentVersion == 1))
+				return false;
+			
+			//	add current version
+			if (currentDocEntryListFile != null)
+				this.addVersion(currentVersion, currentDocEntryListFile, versionAttributes);
+			this.currentVersion = currentVersion;
+			return true;
+		}
+		
+		private void addVersion(int version, File docEntryListFile, Attributed versionAttributes) throws IOException {
+			BufferedReader attributeLineIn = new BufferedReader(new InputStreamReader(new FileInputStream(docEntryListFile), ENCODING));
+			String attributeString = attributeLineIn.readLine();
+			attributeLineIn.close();
+			if (attributeString == null)
+				return;
+			ImDocumentIO.setAttributes(versionAttributes, attributeString);
+			String updateUser = ((String) versionAttributes.getAttribute(UPDATE_USER_ATTRIBUTE));
+			String updateTime = ((String) versionAttributes.getAttribute(UPDATE_TIME_ATTRIBUTE));
+			versionAttributes.clearAttributes();
+			if ((updateUser == null) || (updateTime == null))
+				return;
 			try {
-				version = Math.max(version, Integer.parseInt(docFileName.substring(0, (docFileName.length() - ".txt".length()))));
+				this.addVersion(version, updateUser, Long.parseLong(updateTime));
 			} catch (NumberFormatException nfe) {}
 		}
-		
-		//	extrapolate to most recent version
-		return (version + 1);
+	}
+	
+	private static final int versionIndexCacheSize = 1024;
+	private Map versionIndexCache = Collections.synchronizedMap(new LinkedHashMap(versionIndexCacheSize, .9f, true) {
+		protected boolean removeEldestEntry(Entry eldest) {
+			return this.size() > versionIndexCacheSize;
+		}
+	});
+	
+	private ImsDocumentVersionIndex getVersionIndex(String docId, DataObjectFolder docFolder) throws IOException {
+		synchronized (this.versionIndexCache) {
+			ImsDocumentVersionIndex dvi = ((ImsDocumentVersionIndex) this.versionIndexCache.get(docId));
+			if (dvi == null) {
+				dvi = ImsDocumentVersionIndex.load(docId, docFolder);
+				this.versionIndexCache.put(docId, dvi);
+			}
+			return dvi;
+		}
 	}
 	
 	/**
@@ -1814,10 +2224,11 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	private ImsDocumentData getDocumentData(String docId, boolean create, boolean loadEntries) throws IOException {
 		DataObjectFolder docFolder = this.iks.getDataObjectFolder(docId);
 		if (docFolder.exists())
-			return new ImsDocumentData(docId, docFolder, (loadEntries ? 0 : -1));
+			return new ImsDocumentData(docId, docFolder, this.getVersionIndex(docId, docFolder), this.sharedEntryStore, (loadEntries ? 0 : -1));
 		else if (create) {
+			this.versionIndexCache.remove(docId); // deleted document might be restored on folder re-creation
 			docFolder.mkdirs();
-			return new ImsDocumentData(docId, docFolder);
+			return new ImsDocumentData(docId, docFolder, this.getVersionIndex(docId, docFolder), this.sharedEntryStore);
 		}
 		else return null;
 	}
@@ -1925,26 +2336,41 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
-	private synchronized ImsDocumentData storeDocumentData(ImDocument doc, final EventLogger logger) throws IOException {
-		
-		//	get document data
-		ImsDocumentData docData = this.getDocumentData(doc.docId, true, true);
-		
-		//	store document
-		ImDocumentIO.storeDocument(doc, docData, new ProgressMonitor() {
-			public void setStep(String step) {
-				logger.writeLog(step);
-			}
-			public void setInfo(String info) {
-//				logger.writeLog(info);
-			}
-			public void setBaseProgress(int baseProgress) {}
-			public void setMaxProgress(int maxProgress) {}
-			public void setProgress(int progress) {}
-		});
-		
-		//	return document data
-		return docData;
+	/* Per-document locks, striped by document ID hash, so storage, checkout,
+	 * and deletion of different documents can proceed in parallel, while the
+	 * ones on the same document remain serialized. Documents sharing a stripe
+	 * merely wait for one another. */
+	private static final int documentLockStripeCount = 64;
+	private Object[] documentLocks = new Object[documentLockStripeCount];
+	{
+		for (int l = 0; l < this.documentLocks.length; l++)
+			this.documentLocks[l] = new Object();
+	}
+	private Object getDocumentLock(String docId) {
+		return this.documentLocks[(docId.hashCode() & 0x7FFFFFFF) % this.documentLocks.length];
+	}
+	
+	private ImsDocumentData storeDocumentData(ImDocument doc, final EventLogger logger) throws IOException {
+		synchronized (this.getDocumentLock(doc.docId)) {
+			//	get document data
+			ImsDocumentData docData = this.getDocumentData(doc.docId, true, true);
+			
+			//	store document
+			ImDocumentIO.storeDocument(doc, docData, new ProgressMonitor() {
+				public void setStep(String step) {
+					logger.writeLog(step);
+				}
+				public void setInfo(String info) {
+//					logger.writeLog(info);
+				}
+				public void setBaseProgress(int baseProgress) {}
+				public void setMaxProgress(int maxProgress) {}
+				public void setProgress(int progress) {}
+			});
+			
+			//	return document data
+			return docData;
+		}
 	}
 	
 	private int finalizeDocumentUpdate(DocumentUpdate docUpdate, EventLogger logger) throws IOException {
@@ -2046,200 +2472,230 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		return version;
 	}
 	
-	private synchronized int doFinalizeDocumentUpdate(ImsDocumentData docData, String updateUser, String checkoutUser, EventLogger logger, long time) throws IOException {
-		
-		// get timestamp
-		String timeString = ("" + time);
-		
-		// do not store checkout user info
-		docData.removeAttribute(CHECKOUT_USER_ATTRIBUTE);
-		docData.removeAttribute(CHECKOUT_TIME_ATTRIBUTE);
-		
-		// update meta data
-		docData.setAttribute(UPDATE_USER_ATTRIBUTE, updateUser);
-		if (!docData.hasAttribute(CHECKIN_USER_ATTRIBUTE))
-			docData.setAttribute(CHECKIN_USER_ATTRIBUTE, updateUser);
-		
-		docData.setAttribute(UPDATE_TIME_ATTRIBUTE, timeString);
-		if (!docData.hasAttribute(CHECKIN_TIME_ATTRIBUTE))
-			docData.setAttribute(CHECKIN_TIME_ATTRIBUTE, timeString);
-		
-		//	store updated entry list and get version number
-		int newVersion = docData.storeEntryList(time);
-		
-		//	get document attributes
-		Attributed docAttributes = ImDocumentIO.loadDocumentAttributes(docData);
-		
-		//	clear cache
-		this.documentMetaDataCache.remove(docData.docId);
-		
-		//	prepare database update
-		StringVector assignments = new StringVector();
-		
-		// check and (if necessary) truncate name
-		String docName = ((String) docAttributes.getAttribute(DOCUMENT_NAME_ATTRIBUTE, ""));
-		if (docName.length() > DOCUMENT_NAME_COLUMN_LENGTH)
-			docName = docName.substring(0, DOCUMENT_NAME_COLUMN_LENGTH);
-		assignments.addElement(DOCUMENT_NAME_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docName) + "'");
-		
-		// get update user and authenticated user (might differ if latter is group account)
-		String user = updateUser;
-		if (user.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH)
-			user = user.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
-		assignments.addElement(UPDATE_USER_ATTRIBUTE + " = '" + EasyIO.sqlEscape(user) + "'");
-		String authUser = checkoutUser;
-		if ((authUser != null) && (authUser.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH))
-			authUser = authUser.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
-		
-		// set update time
-		assignments.addElement(UPDATE_TIME_ATTRIBUTE + " = " + time);
-		
-		// update version number
-		assignments.addElement(DOCUMENT_VERSION_ATTRIBUTE + " = " + newVersion);
-		
-		// write new values
-		String updateQuery = ("UPDATE " + DOCUMENT_TABLE_NAME + 
-				" SET " + assignments.concatStrings(", ") + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + docData.docId + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docData.docId.hashCode() + "" +
-				";");
-		
-		try {
+	private int doFinalizeDocumentUpdate(ImsDocumentData docData, String updateUser, String checkoutUser, EventLogger logger, long time) throws IOException {
+		synchronized (this.getDocumentLock(docData.docId)) {
+			// get timestamp
+			String timeString = ("" + time);
 			
-			// update did not affect any rows ==> new document
-			if (this.io.executeUpdateQuery(updateQuery) == 0) {
-				
-				// gather complete data for creating master table record
-				StringBuffer fields = new StringBuffer(DOCUMENT_ID_ATTRIBUTE);
-				StringBuffer fieldValues = new StringBuffer("'" + EasyIO.sqlEscape(docData.docId) + "'");
-				fields.append(", " + DOCUMENT_ID_HASH_ATTRIBUTE);
-				fieldValues.append(", " + docData.docId.hashCode());
-				
-				// set name
-				fields.append(", " + DOCUMENT_NAME_ATTRIBUTE);
-				fieldValues.append(", '" + EasyIO.sqlEscape(docName) + "'");
-				
-				// set checkin user
-				fields.append(", " + CHECKIN_USER_ATTRIBUTE);
-				fieldValues.append(", '" + EasyIO.sqlEscape(user) + "'");
-				
-				// set checkin/update time
-				fields.append(", " + CHECKIN_TIME_ATTRIBUTE);
-				fieldValues.append(", " + time);
+			// do not store checkout user info
+			docData.removeAttribute(CHECKOUT_USER_ATTRIBUTE);
+			docData.removeAttribute(CHECKOUT_TIME_ATTRIBUTE);
+			
+			// update meta data
+			docData.setAttribute(UPDATE_USER_ATTRIBUTE, updateUser);
+			if (!docData.hasAttribute(CHECKIN_USER_ATTRIBUTE))
+				docData.setAttribute(CHECKIN_USER_ATTRIBUTE, updateUser);
+			
+			docData.setAttribute(UPDATE_TIME_ATTRIBUTE, timeString);
+			if (!docData.hasAttribute(CHECKIN_TIME_ATTRIBUTE))
+				docData.setAttribute(CHECKIN_TIME_ATTRIBUTE, timeString);
+			
+			//	store updated entry list and get version number
+			int newVersion = docData.storeEntryList(time);
+			this.versionIndexCache.put(docData.docId, docData.versionIndex);
+			
+			//	get document attributes
+			Attributed docAttributes = ImDocumentIO.loadDocumentAttributes(docData);
+			
+			//	check if document is new (saves the UPDATE round trip, which is bound to come back empty in that case)
+			boolean isNewDocument = (this.docIdSetComplete && !this.docIdSet.contains(docData.docId));
+			
+			//	get current meta data to keep list field statistics up to date, and clear cache
+			DocumentListElement oldMetaData = (isNewDocument ? null : this.getMetaData(docData.docId));
+			this.documentMetaDataCache.remove(docData.docId);
+			
+			//	prepare database update
+			StringVector assignments = new StringVector();
+			
+			// check and (if necessary) truncate name
+			String docName = ((String) docAttributes.getAttribute(DOCUMENT_NAME_ATTRIBUTE, ""));
+			if (docName.length() > DOCUMENT_NAME_COLUMN_LENGTH)
+				docName = docName.substring(0, DOCUMENT_NAME_COLUMN_LENGTH);
+			assignments.addElement(DOCUMENT_NAME_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docName) + "'");
+			
+			// get update user and authenticated user (might differ if latter is group account)
+			String user = updateUser;
+			if (user.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH)
+				user = user.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
+			assignments.addElement(UPDATE_USER_ATTRIBUTE + " = '" + EasyIO.sqlEscape(user) + "'");
+			String authUser = checkoutUser;
+			if ((authUser != null) && (authUser.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH))
+				authUser = authUser.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
+			
+			// set update time
+			assignments.addElement(UPDATE_TIME_ATTRIBUTE + " = " + time);
+			
+			// update version number
+			assignments.addElement(DOCUMENT_VERSION_ATTRIBUTE + " = " + newVersion);
+			
+			// write new values
+			String updateQuery = ("UPDATE " + DOCUMENT_TABLE_NAME + 
+					" SET " + assignments.concatStrings(", ") + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docData.docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docData.docId.hashCode() + "" +
+					";");
+			
+			//	start new meta data from old one, saving the round trip of reading it back after the update
+			DocumentListElement metaData = new DocumentListElement();
+			if (oldMetaData != null) {
+				String[] fieldNames = oldMetaData.getAttributeNames();
+				for (int f = 0; f < fieldNames.length; f++)
+					metaData.setAttribute(fieldNames[f], oldMetaData.getAttribute(fieldNames[f]));
+			}
+			metaData.setAttribute(DOCUMENT_ID_ATTRIBUTE, docData.docId);
+			metaData.setAttribute(DOCUMENT_NAME_ATTRIBUTE, docName);
+			metaData.setAttribute(UPDATE_USER_ATTRIBUTE, user);
+			metaData.setAttribute(UPDATE_TIME_ATTRIBUTE, timeString);
+			metaData.setAttribute(DOCUMENT_VERSION_ATTRIBUTE, ("" + newVersion));
+			
+			try {
 				
-				// set update user
-				fields.append(", " + UPDATE_USER_ATTRIBUTE);
-				fieldValues.append(", '" + EasyIO.sqlEscape(user) + "'");
+				// new document, or update did not affect any rows
+				if (isNewDocument || (this.io.executeUpdateQuery(updateQuery) == 0)) {
+					metaData.setAttribute(CHECKIN_USER_ATTRIBUTE, user);
+					metaData.setAttribute(CHECKIN_TIME_ATTRIBUTE, timeString);
+					
+					// gather complete data for creating master table record
+					StringBuffer fields = new StringBuffer(DOCUMENT_ID_ATTRIBUTE);
+					StringBuffer fieldValues = new StringBuffer("'" + EasyIO.sqlEscape(docData.docId) + "'");
+					fields.append(", " + DOCUMENT_ID_HASH_ATTRIBUTE);
+					fieldValues.append(", " + docData.docId.hashCode());
+					
+					// set name
+					fields.append(", " + DOCUMENT_NAME_ATTRIBUTE);
+					fieldValues.append(", '" + EasyIO.sqlEscape(docName) + "'");
+					
+					// set checkin user
+					fields.append(", " + CHECKIN_USER_ATTRIBUTE);
+					fieldValues.append(", '" + EasyIO.sqlEscape(user) + "'");
+					
+					// set checkin/update time
+					fields.append(", " + CHECKIN_TIME_ATTRIBUTE);
+					fieldValues.append(", " + time);
+					
+					// set update user
+					fields.append(", " + UPDATE_USER_ATTRIBUTE);
+					fieldValues.append(", '" + EasyIO.sqlEscape(user) + "'");
 
-				// set checkin/update time
-				fields.append(", " + UPDATE_TIME_ATTRIBUTE);
-				fieldValues.append(", " + time);
+					// set checkin/update time
+					fields.append(", " + UPDATE_TIME_ATTRIBUTE);
+					fieldValues.append(", " + time);
 
-				// update version number
-				fields.append(", " + DOCUMENT_VERSION_ATTRIBUTE);
-				fieldValues.append(", " + newVersion);
-				
-				// set lock if requested
-				fields.append(", " + CHECKOUT_USER_ATTRIBUTE);
-				fieldValues.append(", '" + ((authUser == null) ? "" : EasyIO.sqlEscape(authUser)) + "'");
-				fields.append(", " + CHECKOUT_TIME_ATTRIBUTE);
-				fieldValues.append(", " + ((authUser == null) ? -1 : time));
-				
-				// store data in collection main table
-				String insertQuery = "INSERT INTO " + DOCUMENT_TABLE_NAME + 
-						" (" + fields.toString() + ")" +
-						" VALUES" +
-						" (" + fieldValues.toString() + ")" +
-						";";
-				try {
-					this.io.executeUpdateQuery(insertQuery);
-					this.docIdSet.add(docData.docId);
-					this.cacheDocumentAttributeValues(docAttributes);
-					if (authUser != null)
-						this.cacheDocumentAttributeValue(CHECKOUT_USER_ATTRIBUTE, authUser);
-				}
-				catch (SQLException sqle) {
-					this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing new document.");
-					this.logError("  query was " + insertQuery);
-					throw new IOException(sqle.getMessage());
+					// update version number
+					fields.append(", " + DOCUMENT_VERSION_ATTRIBUTE);
+					fieldValues.append(", " + newVersion);
+					
+					// set lock if requested
+					fields.append(", " + CHECKOUT_USER_ATTRIBUTE);
+					fieldValues.append(", '" + ((authUser == null) ? "" : EasyIO.sqlEscape(authUser)) + "'");
+					fields.append(", " + CHECKOUT_TIME_ATTRIBUTE);
+					fieldValues.append(", " + ((authUser == null) ? -1 : time));
+					
+					// store data in collection main table
+					String insertQuery = "INSERT INTO " + DOCUMENT_TABLE_NAME + 
+							" (" + fields.toString() + ")" +
+							" VALUES" +
+							" (" + fieldValues.toString() + ")" +
+							";";
+					try {
+						this.io.executeUpdateQuery(insertQuery);
+						this.addDocumentId(docData.docId);
+						this.cacheDocumentAttributeValue(CHECKOUT_USER_ATTRIBUTE, ((authUser == null) ? "" : authUser));
+					}
+					catch (SQLException sqle) {
+						this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing new document.");
+						this.logError("  query was " + insertQuery);
+						throw new IOException(sqle.getMessage());
+					}
 				}
 			}
-		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating existing document.");
-			this.logError("  query was " + updateQuery);
-			throw new IOException(sqle.getMessage());
-		}
-		
-		//	prepare attribute database update
-		assignments.clear();
-		for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
-			DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
-			String assignment = da.getUpdateQueryAssignment(docAttributes);
-			if (assignment != null)
-				assignments.addElement(assignment);
-		}
-		
-		//	catch empty assignment list
-		if (assignments.size() == 0)
-			assignments.addElement(DOCUMENT_ID_ATTRIBUTE + " = '" + docData.docId + "'");
-		
-		//	write new values to attribute table
-		updateQuery = ("UPDATE " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
-				" SET " + assignments.concatStrings(", ") + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + docData.docId + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docData.docId.hashCode() + "" +
-				";");
-		
-		try {
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating existing document.");
+				this.logError("  query was " + updateQuery);
+				throw new IOException(sqle.getMessage());
+			}
 			
-			// update did not affect any rows ==> new document
-			if (this.io.executeUpdateQuery(updateQuery) == 0) {
-				
-				// gather complete data for creating master table record
-				StringBuffer fields = new StringBuffer(DOCUMENT_ID_ATTRIBUTE);
-				StringBuffer fieldValues = new StringBuffer("'" + EasyIO.sqlEscape(docData.docId) + "'");
-				fields.append(", " + DOCUMENT_ID_HASH_ATTRIBUTE);
-				fieldValues.append(", " + docData.docId.hashCode());
-				
-				//	collect document attributes
-				for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
-					DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
-					fields.append(", " + da.colName);
-					if (da.isInteger)
-						fieldValues.append(", " + da.getInsertQueryValue(docAttributes));
-					else fieldValues.append(", '" + da.getInsertQueryValue(docAttributes) + "'");
-				}
+			//	prepare attribute database update
+			boolean attributesInserted = false;
+			assignments.clear();
+			for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
+				DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
+				String assignment = da.getUpdateQueryAssignment(docAttributes);
+				if (assignment != null)
+					assignments.addElement(assignment);
+			}
+			
+			//	catch empty assignment list
+			if (assignments.size() == 0)
+				assignments.addElement(DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docData.docId) + "'");
+			
+			//	write new values to attribute table
+			updateQuery = ("UPDATE " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
+					" SET " + assignments.concatStrings(", ") + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docData.docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docData.docId.hashCode() + "" +
+					";");
+			
+			try {
 				
-				// store data in collection main table
-				String insertQuery = "INSERT INTO " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
-						" (" + fields.toString() + ")" +
-						" VALUES" +
-						" (" + fieldValues.toString() + ")" +
-						";";
-				try {
-					this.io.executeUpdateQuery(insertQuery);
-					this.cacheDocumentAttributeValues(docAttributes);
-				}
-				catch (SQLException sqle) {
-					this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing new document.");
-					this.logError("  query was " + insertQuery);
-					throw new IOException(sqle.getMessage());
+				// new document, or update did not affect any rows
+				if (isNewDocument || (this.io.executeUpdateQuery(updateQuery) == 0)) {
+					attributesInserted = true;
+					
+					// gather complete data for creating attribute table record (column list is fixed)
+					StringBuffer fieldValues = new StringBuffer("'" + EasyIO.sqlEscape(docData.docId) + "'");
+					fieldValues.append(", " + docData.docId.hashCode());
+					
+					//	collect document attributes
+					for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
+						DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
+						if (da.isInteger)
+							fieldValues.append(", " + da.getInsertQueryValue(docAttributes));
+						else fieldValues.append(", '" + da.getInsertQueryValue(docAttributes) + "'");
+					}
+					
+					// store data in collection main table
+					String insertQuery = "INSERT INTO " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
+							" (" + this.documentAttributeInsertColumns + ")" +
+							" VALUES" +
+							" (" + fieldValues.toString() + ")" +
+							";";
+					try {
+						this.io.executeUpdateQuery(insertQuery);
+					}
+					catch (SQLException sqle) {
+						this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing new document.");
+						this.logError("  query was " + insertQuery);
+						throw new IOException(sqle.getMessage());
+					}
 				}
 			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating existing document.");
+				this.logError("  query was " + updateQuery);
+				throw new IOException(sqle.getMessage());
+			}
+			
+			//	complete new meta data with attribute values just written (update leaves old values in place where new ones are empty)
+			for (Iterator dacnit = this.documentAttributesByName.keySet().iterator(); dacnit.hasNext();) {
+				DocumentAttribute da = ((DocumentAttribute) this.documentAttributesByName.get(dacnit.next()));
+				String value = da.getStoredValue(docAttributes, attributesInserted);
+				if (value != null)
+					metaData.setAttribute(da.colName, value);
+			}
+			
+			//	update list field statistics and re-populate meta data cache
+			this.uncacheMetaDataValues(oldMetaData);
+			this.documentMetaDataCache.put(docData.docId, metaData);
+			this.cacheMetaDataValues(metaData);
+			
+			//	initialize update protocol
+			if (logger instanceof DocumentUpdateProtocol)
+				((DocumentUpdateProtocol) logger).setHead(((String) docAttributes.getAttribute(DOCUMENT_NAME_ATTRIBUTE, docData.docId)), newVersion);
+			
+			// report new version
+			return newVersion;
 		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating existing document.");
-			this.logError("  query was " + updateQuery);
-			throw new IOException(sqle.getMessage());
-		}
-		
-		//	initialize update protocol
-		if (logger instanceof DocumentUpdateProtocol)
-			((DocumentUpdateProtocol) logger).setHead(((String) docAttributes.getAttribute(DOCUMENT_NAME_ATTRIBUTE, docData.docId)), newVersion);
-		
-		// report new version
-		return newVersion;
 	}
 	
 	/**
@@ -2261,55 +2717,63 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				}
 			});
 	}
-	private synchronized boolean doDeleteDocument(String userName, String docId, final EventLogger logger) throws IOException {
-		String checkoutUser = this.getCheckoutUser(docId);
-		
-		//	check if document exists
-		if (checkoutUser == null)
-			throw new IOException("Document does not exist.");
-		
-		//	check checkout state
-		if (!checkoutUser.equals("") && !checkoutUser.equals(userName))
-			throw new IOException("Document checked out by other user, delete not possible.");
-		
-		//	clear cache
-		this.documentMetaDataCache.remove(docId);
-		
-		// delete meta data
-		String deleteQuery = "DELETE FROM " + DOCUMENT_TABLE_NAME + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
-				";";
-		try {
-			DocumentListElement dle = this.getMetaData(docId);
-			this.io.executeUpdateQuery(deleteQuery);
-			this.uncacheDocumentAttributeValues(dle);
-			this.checkoutUserCache.remove(docId);
-			this.docIdSet.remove(docId);
-		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting document.");
-			this.logError("  query was " + deleteQuery);
-		}
-		
-		// delete document attributes
-		deleteQuery = "DELETE FROM " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
-				";";
-		try {
-			this.io.executeUpdateQuery(deleteQuery);
-		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting document.");
-			this.logError("  query was " + deleteQuery);
+	private boolean doDeleteDocument(String userName, String docId, final EventLogger logger) throws IOException {
+		synchronized (this.getDocumentLock(docId)) {
+			String checkoutUser = this.getCheckoutUser(docId);
+			
+			//	check if document exists
+			if (checkoutUser == null)
+				throw new IOException("Document does not exist.");
+			
+			//	check checkout state
+			if (!checkoutUser.equals("") && !checkoutUser.equals(userName))
+				throw new IOException("Document checked out by other user, delete not possible.");
+			
+			//	clear cache
+			this.documentMetaDataCache.remove(docId);
+			
+			// delete meta data
+			String deleteQuery = "DELETE FROM " + DOCUMENT_TABLE_NAME + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
+					";";
+			try {
+				DocumentListElement dle = this.getMetaData(docId);
+				this.io.executeUpdateQuery(deleteQuery);
+				this.uncacheMetaDataValues(dle);
+				this.uncacheDocumentAttributeValue(CHECKOUT_USER_ATTRIBUTE, checkoutUser);
+				this.checkoutUserCache.remove(docId);
+				this.removeDocumentId(docId);
+			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting document.");
+				this.logError("  query was " + deleteQuery);
+			}
+			
+			// delete document attributes
+			deleteQuery = "DELETE FROM " + DOCUMENT_ATTRIBUTE_TABLE_NAME + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
+					";";
+			try {
+				this.io.executeUpdateQuery(deleteQuery);
+			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting document.");
+				this.logError("  query was " + deleteQuery);
+			}
+			
+			//	release any shared entry data, moving it back into document folder to keep deletion reversible
+			if (this.sharedEntryStore != null)
+				this.sharedEntryStore.releaseEntryData(this.iks.getDataObjectFolder(docId));
+			
+			//	(reversibly) delete document data
+			this.iks.deleteDataObject(docId);
+			this.versionIndexCache.remove(docId);
+			
+			//	indicate success
+			return true;
 		}
-		
-		//	(reversibly) delete document data
-		this.iks.deleteDataObject(docId);
-		
-		//	indicate success
-		return true;
 	}
 	
 	/**
@@ -2522,25 +2986,26 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		//	load document on top of local cache folder
 		return docData;
 	}
-	private synchronized ImsDocumentData doCheckoutDocumentAsData(String userName, String documentId, int version, long checkoutTime) throws IOException {
-		
-		//	mark document as checked out
-		checkoutTime = System.currentTimeMillis();
-		if (!this.setCheckoutUser(documentId, userName, checkoutTime))
-			throw new IOException("Could not acquire checkout lock on document '" + documentId + "'.");
-		
-		//	get document data
-		ImsDocumentData docData = this.getDocumentData(documentId, false, (version == 0));
-		if (docData == null)
-			throw new IOException("Invalid document ID '" + documentId + "'.");
-		
-		//	get entry list for argument version
-		docData = docData.cloneForVersion(version);
-		if (docData == null)
-			throw new IOException("Invalid version '" + version + "' for document ID '" + documentId + "'");
-		
-		//	finally ...
-		return docData;
+	private ImsDocumentData doCheckoutDocumentAsData(String userName, String documentId, int version, long checkoutTime) throws IOException {
+		synchronized (this.getDocumentLock(documentId)) {
+			//	mark document as checked out
+			checkoutTime = System.currentTimeMillis();
+			if (!this.setCheckoutUser(documentId, userName, checkoutTime))
+				throw new IOException("Could not acquire checkout lock on document '" + documentId + "'.");
+			
+			//	get document data
+			ImsDocumentData docData = this.getDocumentData(documentId, false, (version == 0));
+			if (docData == null)
+				throw new IOException("Invalid document ID '" + documentId + "'.");
+			
+			//	get entry list for argument version
+			docData = docData.cloneForVersion(version);
+			if (docData == null)
+				throw new IOException("Invalid version '" + version + "' for document ID '" + documentId + "'");
+			
+			//	finally ...
+			return docData;
+		}
 	}
 	
 	private static class DocumentCheckedOutException extends IOException {
@@ -2628,42 +3093,43 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	 *         checked out by any user, and null if there is no document with
 	 *         the specified ID
 	 */
-	public synchronized String getCheckoutUser(String docId) {
-		
-		// do cache lookup
-		String checkoutUser = ((String) this.checkoutUserCache.get(docId));
-		
-		// cache hit
-		if (checkoutUser != null)
-			return checkoutUser;
-		
-		// cache miss, prepare loading data
-		String query = "SELECT " + CHECKOUT_USER_ATTRIBUTE + 
-				" FROM " + DOCUMENT_TABLE_NAME + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
-				";";
-		
-		SqlQueryResult sqr = null;
-		try {
-			sqr = this.io.executeSelectQuery(query);
-			if (sqr.next()) {
-				checkoutUser = sqr.getString(0);
-				if (checkoutUser == null)
-					checkoutUser = "";
-				this.checkoutUserCache.put(docId, checkoutUser);
+	public String getCheckoutUser(String docId) {
+		synchronized (this.getDocumentLock(docId)) {
+			// do cache lookup
+			String checkoutUser = ((String) this.checkoutUserCache.get(docId));
+			
+			// cache hit
+			if (checkoutUser != null)
 				return checkoutUser;
+			
+			// cache miss, prepare loading data
+			String query = "SELECT " + CHECKOUT_USER_ATTRIBUTE + 
+					" FROM " + DOCUMENT_TABLE_NAME + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
+					";";
+			
+			SqlQueryResult sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(query);
+				if (sqr.next()) {
+					checkoutUser = sqr.getString(0);
+					if (checkoutUser == null)
+						checkoutUser = "";
+					this.checkoutUserCache.put(docId, checkoutUser);
+					return checkoutUser;
+				}
+				else return null;
+			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading document checkout user.");
+				this.logError("  query was " + query);
+				return null;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
 			}
-			else return null;
-		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading document checkout user.");
-			this.logError("  query was " + query);
-			return null;
-		}
-		finally {
-			if (sqr != null)
-				sqr.close();
 		}
 	}
 	
@@ -2710,10 +3176,10 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	 */
 	public ImsDocumentVersionHistory getDocumentVersionHistory(String documentId) {
 		
-		//	load and return update users
+		//	get version history from index (no need to load entries for that)
 		ImsDocumentData docData = null;
 		try {
-			docData = this.getDocumentData(documentId, false, true);
+			docData = this.getDocumentData(documentId, false, false);
 			if (docData == null)
 				return null;
 			return docData.getVersionHistory();
@@ -2766,8 +3232,10 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			sqr = this.io.executeSelectQuery(query.toString());
 			if (sqr.next()) {
 				dle = new DocumentListElement();
-				for (int f = 0; f < fieldNames.size(); f++)
-					dle.setAttribute(fieldNames.get(f), sqr.getString(f));
+				for (int f = 0; f < fieldNames.size(); f++) {
+					String fn = fieldNames.get(f);
+					dle.setAttribute(fn.substring(fn.indexOf(".") + ".".length()), sqr.getString(f));
+				}
 				this.documentMetaDataCache.put(docId, dle);
 				return dle;
 			}
@@ -2792,33 +3260,40 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		}
 	});
 	
-	private synchronized boolean setCheckoutUser(String docId, String checkoutUser, long checkoutTime) {
-		StringVector assignments = new StringVector();
-		
-		// set checkout user
-		checkoutUser = ((checkoutUser == null) ? "" : checkoutUser);
-		if (checkoutUser.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH)
-			checkoutUser = checkoutUser.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
-		assignments.addElement(CHECKOUT_USER_ATTRIBUTE + " = '" + EasyIO.sqlEscape(checkoutUser) + "'");
-		
-		// set checkout time
-		assignments.addElement(CHECKOUT_TIME_ATTRIBUTE + " = " + checkoutTime);
-		
-		// write new values
-		String updateQuery = ("UPDATE " + DOCUMENT_TABLE_NAME + 
-				" SET " + assignments.concatStrings(", ") + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-				" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
-				";");
-		try {
-			this.io.executeUpdateQuery(updateQuery);
-			this.checkoutUserCache.put(docId, checkoutUser);
-			return true;
-		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while setting checkout user for document " + docId + ".");
-			this.logError("  query was " + updateQuery);
-			return false;
+	private boolean setCheckoutUser(String docId, String checkoutUser, long checkoutTime) {
+		synchronized (this.getDocumentLock(docId)) {
+			StringVector assignments = new StringVector();
+			
+			// get current checkout user to keep list field statistics up to date
+			String oldCheckoutUser = this.getCheckoutUser(docId);
+			
+			// set checkout user
+			checkoutUser = ((checkoutUser == null) ? "" : checkoutUser);
+			if (checkoutUser.length() > UserAccessAuthority.USER_NAME_MAX_LENGTH)
+				checkoutUser = checkoutUser.substring(0, UserAccessAuthority.USER_NAME_MAX_LENGTH);
+			assignments.addElement(CHECKOUT_USER_ATTRIBUTE + " = '" + EasyIO.sqlEscape(checkoutUser) + "'");
+			
+			// set checkout time
+			assignments.addElement(CHECKOUT_TIME_ATTRIBUTE + " = " + checkoutTime);
+			
+			// write new values
+			String updateQuery = ("UPDATE " + DOCUMENT_TABLE_NAME + 
+					" SET " + assignments.concatStrings(", ") + 
+					" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() +
+					";");
+			try {
+				this.io.executeUpdateQuery(updateQuery);
+				this.checkoutUserCache.put(docId, checkoutUser);
+				this.uncacheDocumentAttributeValue(CHECKOUT_USER_ATTRIBUTE, oldCheckoutUser);
+				this.cacheDocumentAttributeValue(CHECKOUT_USER_ATTRIBUTE, checkoutUser);
+				return true;
+			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while setting checkout user for document " + docId + ".");
+				this.logError("  query was " + updateQuery);
+				return false;
+			}
 		}
 	}
 
@@ -2879,7 +3354,7 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				if (fn.indexOf(".") != -1)
 					fieldNames.setElementAt(fn.substring(fn.indexOf(".") + ".".length()), f);
 			}
-			return new SqrDocumentList(fieldNames.toStringArray(), sqr, this.docIdSet.size(), null);
+			return new SqrDocumentList(fieldNames.toStringArray(), sqr, this.docIdSet.size(), null, null, 0);
 		}
 		catch (SQLException sqle) {
 			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while listing documents.");
@@ -3150,6 +3625,37 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 	 * @return a list of meta data for the document available through this IMS
 	 */
 	public ImsDocumentList getDocumentList(String userName, boolean headOnly, Properties filter, DocumentListExtension[] extensions) {
+		return this.getDocumentList(userName, headOnly, filter, extensions, null, 0, null);
+	}
+	
+	/**
+	 * Retrieve a page of the list of meta data for the document available
+	 * through this IMS. Other than the list as a whole, pages are sorted by
+	 * an arbitrary list field, with the document ID as the tie breaker. The
+	 * next page of the list is identified by the cursor provided by the
+	 * getNextPageCursor() method of the returned list, which is available
+	 * after reading the last document in the page. Since the cursor holds
+	 * the sort key of the last document, pages stay consistent even if other
+	 * documents are added or deleted in the meantime. As the page size limits
+	 * the number of documents returned, the size threshold for regular users
+	 * does not apply to lists retrieved page-wise.
+	 * @param userName the user to retrieve the list for (used for filtering
+	 *            based on document's checkout states, has no effect if the
+	 *            specified user has administrative privileges)
+	 * @param headOnly if set to true, this method returns an empty list, only
+	 *            containing the header data (field names and attribute value
+	 *            summaries)
+	 * @param filter a properties object containing filter predicates for the
+	 *            document list
+	 * @param extensions an array of extensions to join into the document list
+	 * @param sortField the list field to sort by (null sorts by document name)
+	 * @param pageSize the maximum number of documents to return (0 returns
+	 *            all documents)
+	 * @param pageCursor the cursor pointing to the page to retrieve, as
+	 *            obtained from the previous page (null returns the first page)
+	 * @return a page of meta data for the document available through this IMS
+	 */
+	public ImsDocumentList getDocumentList(String userName, boolean headOnly, Properties filter, DocumentListExtension[] extensions, String sortField, int pageSize, String pageCursor) {
 		
 		//	check extensions
 		if (extensions == null)
@@ -3250,8 +3756,47 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 			}
 		}
 		
-		//	head only, or list too large for regular user, return empty list
-		if ((headOnly) || (!isAdmin && (0 < this.documentListSizeThreshold) && (this.documentListSizeThreshold < selectivity))) {
+		//	find sort column, defaulting to document name
+		if (sortField == null)
+			sortField = DOCUMENT_NAME_ATTRIBUTE;
+		String sortColumn = null;
+		for (int f = 0; f < fieldNames.size(); f++) {
+			String fn = fieldNames.get(f);
+			if (fn.endsWith("." + sortField)) {
+				sortColumn = fn;
+				break;
+			}
+		}
+		if (sortColumn == null) {
+			sortField = DOCUMENT_NAME_ATTRIBUTE;
+			sortColumn = ("dd." + DOCUMENT_NAME_ATTRIBUTE);
+		}
+		boolean sortNumeric = (this.documentAttributesByName.containsKey(sortField) ? ((DocumentAttribute) this.documentAttributesByName.get(sortField)).isInteger : ImsDocumentList.numericDataAttributes.contains(sortField));
+		
+		//	map NULL values (e.g. from outer joined extensions) to default, so ordering and page cursor comparisons are deterministic
+		String sortExpression = ("COALESCE(" + sortColumn + ", " + (sortNumeric ? "0" : "''") + ")");
+		
+		//	resolve page cursor
+		String pageWhere = "";
+		boolean pageCursorValid = true;
+		if ((0 < pageSize) && (pageCursor != null)) {
+			String[] pageCursorParts = parsePageCursor(pageCursor);
+			if ((pageCursorParts != null) && sortNumeric && (pageCursorParts[1].length() == 0))
+				pageCursorParts[1] = "0"; // NULL value of last document in previous page, coalesced to 0 in query
+			if ((pageCursorParts == null) || !sortField.equals(pageCursorParts[0]))
+				pageCursorValid = false;
+			else if (sortNumeric && !pageCursorParts[1].matches("\\-?[0-9]++"))
+				pageCursorValid = false; // this should prevent SQL injection, as numeric values are not escaped
+			else {
+				String sortValue = (sortNumeric ? pageCursorParts[1] : ("'" + EasyIO.sqlEscape(pageCursorParts[1]) + "'"));
+				pageWhere = (" AND ((" + sortExpression + " > " + sortValue + ") OR ((" + sortExpression + " = " + sortValue + ") AND (dd." + DOCUMENT_ID_ATTRIBUTE + " > '" + EasyIO.sqlEscape(pageCursorParts[2]) + "')))");
+			}
+			if (!pageCursorValid)
+				this.logWarning("GoldenGateIMS: invalid document list page cursor '" + pageCursor + "' for sort field '" + sortField + "'.");
+		}
+		
+		//	head only, invalid page cursor, or list too large for regular user, return empty list
+		if ((headOnly) || !pageCursorValid || (!isAdmin && (pageSize < 1) && (0 < this.documentListSizeThreshold) && (this.documentListSizeThreshold < selectivity))) {
 			for (int f = 0; f < fieldNames.size(); f++) {
 				String fn = fieldNames.get(f);
 				if (fn.indexOf(".") != -1)
@@ -3315,7 +3860,9 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				" AND " + this.getDocumentFilter(filter) +
 				// filter out documents checked out by other user (if not admin)
 				(isAdmin ? "" : (" AND ((" + CHECKOUT_TIME_ATTRIBUTE + " = -1) OR (" + CHECKOUT_USER_ATTRIBUTE + " LIKE '" + EasyIO.prepareForLIKE(userName) + "'))")) +
-				" ORDER BY " + DOCUMENT_NAME_ATTRIBUTE + 
+				// start after last document of previous page
+				pageWhere +
+				" ORDER BY " + sortExpression + ", dd." + DOCUMENT_ID_ATTRIBUTE + 
 				";";
 		
 		SqlQueryResult sqr = null;
@@ -3326,7 +3873,9 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 				if (fn.indexOf(".") != -1)
 					fieldNames.setElementAt(fn.substring(fn.indexOf(".") + ".".length()), f);
 			}
-			return new SqrDocumentList(fieldNames.toStringArray(), sqr, selectivity, extensions);
+			if (0 < pageSize)
+				return new SqrDocumentList(fieldNames.toStringArray(), sqr, Math.min(selectivity, pageSize), extensions, sortField, pageSize);
+			else return new SqrDocumentList(fieldNames.toStringArray(), sqr, selectivity, extensions, null, 0);
 		}
 		catch (SQLException sqle) {
 			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while listing documents.");
@@ -3349,23 +3898,42 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		private int docCount;
 		private DocumentListElement next = null;
 		private DocumentListExtension[] extensions;
-		SqrDocumentList(String[] listFieldNames, SqlQueryResult sqr, int docCount, DocumentListExtension[] extensions) {
+		private String sortField;
+		private int pageSize;
+		private int pageDocCount = 0;
+		private DocumentListElement last = null;
+		private String nextPageCursor = null;
+		SqrDocumentList(String[] listFieldNames, SqlQueryResult sqr, int docCount, DocumentListExtension[] extensions, String sortField, int pageSize) {
 			super(listFieldNames);
 			this.sqr = sqr;
 			this.docCount = docCount;
 			this.extensions = extensions;
+			this.sortField = sortField;
+			this.pageSize = pageSize;
 		}
 		public int getDocumentCount() {
 			return this.docCount;
 		}
+		public String getNextPageCursor() {
+			return this.nextPageCursor;
+		}
 		public boolean hasNextDocument() {
 			if (this.next != null) return true;
 			else if (this.sqr == null) return false;
+			else if ((0 < this.pageSize) && (this.pageSize <= this.pageDocCount)) {
+				if (this.sqr.next()) // point cursor to last document in page only if there are more to come
+					this.nextPageCursor = buildPageCursor(this.sortField, ((String) this.last.getAttribute(this.sortField)), ((String) this.last.getAttribute(DOCUMENT_ID_ATTRIBUTE)));
+				this.sqr.close();
+				this.sqr = null;
+				return false;
+			}
 			else if (this.sqr.next()) {
 				this.next = new DocumentListElement();
 				for (int f = 0; f < this.listFieldNames.length; f++)
 					this.next.setAttribute(this.listFieldNames[f], this.sqr.getString(f));
 				this.addListFieldValues(this.next);
+				this.last = this.next;
+				this.pageDocCount++;
 				return true;
 			}
 			else {
@@ -3415,6 +3983,93 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
+	private static String buildPageCursor(String sortField, String sortValue, String docId) {
+		try {
+			return (URLEncoder.encode(sortField, ENCODING) + ":" + URLEncoder.encode(((sortValue == null) ? "" : sortValue), ENCODING) + ":" + URLEncoder.encode(docId, ENCODING));
+		}
+		catch (IOException ioe) {
+			return null; // never gonna happen with UTF-8, but Java don't know
+		}
+	}
+	
+	private static String[] parsePageCursor(String pageCursor) {
+		String[] pageCursorParts = pageCursor.split("\\:", -1);
+		if (pageCursorParts.length != 3)
+			return null;
+		try {
+			for (int p = 0; p < pageCursorParts.length; p++)
+				pageCursorParts[p] = URLDecoder.decode(pageCursorParts[p], ENCODING);
+			return pageCursorParts;
+		}
+		catch (Exception e /* IO as well as illegal argument exceptions from malformed escapes */) {
+			return null;
+		}
+	}
+	
+	private static Properties parseDocumentListFilter(String filterString) throws IOException {
+		if (filterString.length() == 0)
+			return null;
+		String[] filters = filterString.split("\\&");
+		Properties filter = new Properties();
+		for (int f = 0; f < filters.length; f++) {
+			String[] pair = filters[f].split("\\=");
+			if (pair.length == 2) {
+				String name = pair[0].trim();
+				String value = URLDecoder.decode(pair[1].trim(), ENCODING).trim();
+				
+				String existingValue = filter.getProperty(name);
+				if (existingValue != null)
+					value = existingValue + "\n" + value;
+				
+				filter.setProperty(name, value);
+			}
+		}
+		return filter;
+	}
+	
+	private long[] getDocumentKeySummary() {
+		String query = "SELECT count(*), count(DISTINCT " + DOCUMENT_ID_ATTRIBUTE + "), sum(" + DOCUMENT_ID_HASH_ATTRIBUTE + ")" +
+				" FROM " + DOCUMENT_TABLE_NAME +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			if (!sqr.next())
+				return new long[3];
+			String docIdHashSum = sqr.getString(2); // null on empty table
+			long[] docKeySummary = {
+				Long.parseLong(sqr.getString(0)),
+				Long.parseLong(sqr.getString(1)),
+				((docIdHashSum == null) ? 0 : new BigDecimal(docIdHashSum).longValue())
+			};
+			return docKeySummary;
+		}
+		catch (SQLException sqle) {
+			this.logError("GoldenGateIMS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while summarizing document IDs.");
+			this.logError("  query was " + query);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private boolean isDocumentIdSetConsistent(long[] docKeySummary) {
+		
+		//	check counts (catches duplicate rows as well)
+		if ((this.docIdSet.size() != docKeySummary[0]) || (this.docIdSet.size() != docKeySummary[1]))
+			return false;
+		
+		//	compare document IDs by hash sum (catches documents missing in one place and extra in the other)
+		long docIdHashSum = 0;
+		synchronized (this.docIdSet) {
+			for (Iterator dit = this.docIdSet.iterator(); dit.hasNext();)
+				docIdHashSum += dit.next().hashCode();
+		}
+		return (docIdHashSum == docKeySummary[2]);
+	}
+	
 	private int getSelectivity(Properties filter, DocumentListExtension[] extensions) {
 		int extSelectivity = Integer.MAX_VALUE;
 		for (int e = 0; e < extensions.length; e++) {
@@ -3427,12 +4082,10 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		if ((filter == null) || filter.isEmpty())
 			return this.docIdSet.size();
 		
-		if (filter.size() == 1) {
-			String filterField = ((String) filter.keySet().iterator().next());
-			String filterValue = filter.getProperty(filterField);
-			if (this.docAttributeValueCache.containsKey(filterField))
-				return this.getListFieldSummary(filterField, false).getCount(filterValue);
-		}
+		//	try and estimate from list field statistics first
+		int estimate = this.estimateSelectivity(filter);
+		if (estimate != -1)
+			return estimate;
 		
 		String predicate = this.getDocumentFilter(filter);
 		if ("1=1".equals(predicate))
@@ -3473,6 +4126,115 @@ public class GoldenGateIMS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
+	/*
+	 * Estimate the number of documents matching a filter from the value
+	 * frequencies of the list fields, which we maintain anyway for the field
+	 * summaries. Individual predicates are assumed to be independent. If a
+	 * filter references a field we do not have statistics for, this method
+	 * returns -1, indicating a fallback to the database is required.
+	 */
+	private int estimateSelectivity(Properties filter) {
+		if (!this.docIdSetComplete)
+			return -1; // statistics not fully populated yet
+		int docCount = this.docIdSet.size();
+		if (docCount == 0)
+			return 0;
+		double estimate = docCount;
+		for (Iterator fit = filter.keySet().iterator(); fit.hasNext();) {
+			String filterName = ((String) fit.next());
+			if (!ImsDocumentList.filterableDataFields.contains(filterName) && !this.documentAttributesByName.containsKey(filterName))
+				continue;
+			String filterValue = filter.getProperty(filterName, "").trim();
+			if (filterValue.length() == 0)
+				continue;
+			String[] filterValues = filterValue.split("[\\r\\n]++");
+			if (filterValues.length == 0)
+				continue;
+			ImsDocumentList.AttributeSummary as = this.getListFieldSummary(filterName, false);
+			if (as == null)
+				return -1;
+			
+			//	count matches for numeric comparison (mirrors getDocumentFilter())
+			int matchCount = 0;
+			if (this.documentAttributesByName.containsKey(filterName) ? ((DocumentAttribute) this.documentAttributesByName.get(filterName)).isInteger : ImsDocumentList.numericDataAttributes.contains(filterName)) {
+				if ((filterValues.length != 1) || !filterValues[0].matches("[0-9]++"))
+					continue; // not used in query, either
+				long filterNumber = Long.parseLong(filterValues[0]);
+				String operator = filter.getProperty((filterName + "Operator"), ">");
+				if (!ImsDocumentList.numericOperators.contains(operator))
+					operator = ">";
+				synchronized (as) {
+					for (Iterator vit = as.iterator(); vit.hasNext();) {
+						String value = ((String) vit.next());
+						long number;
+						try {
+							number = Long.parseLong(value.trim());
+						}
+						catch (NumberFormatException nfe) {
+							continue;
+						}
+						if (compareNumbers(number, operator, filterNumber))
+							matchCount += as.getCount(value);
+					}
+				}
+			}
+			
+			//	count matches for LIKE comparison (mirrors getDocumentFilter())
+			else {
+				Pattern[] valuePatterns = new Pattern[filterValues.length];
+				for (int v = 0; v < filterValues.length; v++)
+					valuePatterns[v] = getLikePattern(filterValues[v].trim());
+				synchronized (as) {
+					for (Iterator vit = as.iterator(); vit.hasNext();) {
+						String value = ((String) vit.next());
+						for (int v = 0; v < valuePatterns.length; v++)
+							if (valuePatterns[v].matcher(value).matches()) {
+								matchCount += as.getCount(value);
+								break;
+							}
+					}
+				}
+			}
+			
+			//	factor in predicate selectivity
+			estimate = ((estimate * Math.min(matchCount, docCount)) / docCount);
+		}
+		return ((int) Math.ceil(estimate));
+	}
+	
+	private static boolean compareNumbers(long number, String operator, long filterNumber) {
+		if ("=".equals(operator))
+			return (number == filterNumber);
+		else if ("<".equals(operator))
+			return (number < filterNumber);
+		else if ("<=".equals(operator))
+			return (number <= filterNumber);
+		else if (">=".equals(operator))
+			return (number >= filterNumber);
+		else if ("<>".equals(operator) || "!=".equals(operator))
+			return (number != filterNumber);
+		else return (number > filterNumber);
+	}
+	
+	private static Pattern getLikePattern(String filterValue) {
+		
+		//	emulate EasyIO.prepareForLIKE() (spaces and quotes become wildcards) and SQL LIKE wildcards
+		StringBuffer pattern = new StringBuffer();
+		for (int c = 0; c < filterValue.length(); c++) {
+			char ch = filterValue.charAt(c);
+			if ((ch == '%') || (ch == '\'') || Character.isWhitespace(ch))
+				pattern.append(".*");
+			else if (ch == '_')
+				pattern.append(".");
+			else if (Character.isLetterOrDigit(ch))
+				pattern.append(ch);
+			else pattern.append("\\" + ch);
+		}
+		
+		//	be case insensitive, so we rather over-estimate
+		return Pattern.compile(pattern.toString(), (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL));
+	}
+	
 	private String getDocumentFilter(Properties filter) {
 		if ((filter == null) || filter.isEmpty())
 			return "1=1";
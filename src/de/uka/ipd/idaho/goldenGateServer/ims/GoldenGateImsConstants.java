@@ -71,6 +71,9 @@ public interface GoldenGateImsConstants extends GoldenGateServerConstants, Imagi
 	
 	/** the command for loading a list of all documents in the IMS */
 	public static final String GET_DOCUMENT_LIST = "IMS_GET_DOCUMENT_LIST";
+	
+	/** the command for loading a list of documents in the IMS page by page */
+	public static final String GET_DOCUMENT_LIST_PAGE = "IMS_GET_DOCUMENT_LIST_PAGE";
 //	
 //	/** the command for loading a list of all documents in the IMS */
 //	public static final String GET_DOCUMENT_LIST_SHARED = "IMS_GET_DOCUMENT_LIST_SHARED";
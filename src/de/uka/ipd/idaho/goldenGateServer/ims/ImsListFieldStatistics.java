@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ims;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import de.uka.ipd.idaho.goldenGateServer.ims.data.ImsDocumentList;
+import de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore;
+
+/**
+ * Persistent storage for the document ID set and list field value summaries
+ * of a GoldenGATE IMS, so the latter do not have to be rebuilt from a scan
+ * of the whole document list on every startup.<br>
+ * Client code has to perform all modifications to the document ID set and
+ * the value summaries while holding the monitor of this object, and log
+ * each modification right away, so the snapshot and journal stay in sync.
+ * 
+ * @author sautter
+ */
+class ImsListFieldStatistics extends JournaledSnapshotStore {
+	private static final int MAX_JOURNAL_SIZE = (64 * 1024);
+	
+	private Set docIdSet;
+	private Map listFieldSummaries;
+	
+	private ImsDocumentList.AttributeSummary restoreSummary = null;
+	
+	/** Constructor
+	 * @param dataFolder the folder to store the data in
+	 * @param docIdSet the document ID set to persist
+	 * @param listFieldSummaries the list field summaries to persist
+	 */
+	ImsListFieldStatistics(File dataFolder, Set docIdSet, Map listFieldSummaries) {
+		super(dataFolder, "listFieldStatistics", MAX_JOURNAL_SIZE);
+		this.docIdSet = docIdSet;
+		this.listFieldSummaries = listFieldSummaries;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#clearData()
+	 */
+	protected void clearData() {
+		this.docIdSet.clear();
+		this.listFieldSummaries.clear();
+		this.restoreSummary = null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#restoreSnapshotEntry(java.lang.String[])
+	 */
+	protected boolean restoreSnapshotEntry(String[] entry) {
+		if ("D".equals(entry[0]) && (entry.length == 2))
+			return this.docIdSet.add(entry[1]);
+		else if ("F".equals(entry[0]) && (entry.length == 2)) {
+			this.restoreSummary = new ImsDocumentList.AttributeSummary();
+			this.listFieldSummaries.put(entry[1], this.restoreSummary);
+			return true;
+		}
+		else if ("V".equals(entry[0]) && (entry.length == 3) && (this.restoreSummary != null)) {
+			this.restoreSummary.add(entry[2], Integer.parseInt(entry[1]));
+			return true;
+		}
+		else return false;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#captureSnapshotEntries(java.util.ArrayList)
+	 */
+	protected void captureSnapshotEntries(ArrayList entries) {
+		synchronized (this.docIdSet) {
+			for (Iterator dit = this.docIdSet.iterator(); dit.hasNext();) {
+				String[] entry = {"D", ((String) dit.next())};
+				entries.add(entry);
+			}
+		}
+		ArrayList fieldNames;
+		synchronized (this.listFieldSummaries) {
+			fieldNames = new ArrayList(this.listFieldSummaries.keySet());
+		}
+		for (int f = 0; f < fieldNames.size(); f++) {
+			String fieldName = ((String) fieldNames.get(f));
+			ImsDocumentList.AttributeSummary as = ((ImsDocumentList.AttributeSummary) this.listFieldSummaries.get(fieldName));
+			if (as == null)
+				continue;
+			String[] fieldEntry = {"F", fieldName};
+			entries.add(fieldEntry);
+			synchronized (as) {
+				for (Iterator vit = as.iterator(); vit.hasNext();) {
+					String value = ((String) vit.next());
+					String[] valueEntry = {"V", ("" + as.getCount(value)), value};
+					entries.add(valueEntry);
+				}
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.goldenGateServer.ims.util.JournaledSnapshotStore#replayModification(java.lang.String[])
+	 */
+	protected boolean replayModification(String[] modification) {
+		if ("+D".equals(modification[0]) && (modification.length == 2))
+			return this.docIdSet.add(modification[1]);
+		else if ("-D".equals(modification[0]) && (modification.length == 2))
+			return this.docIdSet.remove(modification[1]);
+		else if ("+V".equals(modification[0]) && (modification.length == 3)) {
+			ImsDocumentList.AttributeSummary as = ((ImsDocumentList.AttributeSummary) this.listFieldSummaries.get(modification[1]));
+			if (as == null) {
+				as = new ImsDocumentList.AttributeSummary();
+				this.listFieldSummaries.put(modification[1], as);
+			}
+			as.add(modification[2]);
+			return true;
+		}
+		else if ("-V".equals(modification[0]) && (modification.length == 3)) {
+			ImsDocumentList.AttributeSummary as = ((ImsDocumentList.AttributeSummary) this.listFieldSummaries.get(modification[1]));
+			return ((as != null) && as.remove(modification[2]));
+		}
+		else return false;
+	}
+	
+	/**
+	 * Log the addition of a document ID to the document ID set.
+	 * @param docId the document ID added
+	 */
+	synchronized void logDocumentAdded(String docId) {
+		String[] modification = {"+D", docId};
+		this.logModification(modification);
+	}
+	
+	/**
+	 * Log the removal of a document ID from the document ID set.
+	 * @param docId the document ID removed
+	 */
+	synchronized void logDocumentRemoved(String docId) {
+		String[] modification = {"-D", docId};
+		this.logModification(modification);
+	}
+	
+	/**
+	 * Log the addition of a value to a list field summary.
+	 * @param fieldName the name of the list field
+	 * @param value the value added
+	 */
+	synchronized void logValueAdded(String fieldName, String value) {
+		String[] modification = {"+V", fieldName, value};
+		this.logModification(modification);
+	}
+	
+	/**
+	 * Log the removal of a value from a list field summary.
+	 * @param fieldName the name of the list field
+	 * @param value the value removed
+	 */
+	synchronized void logValueRemoved(String fieldName, String value) {
+		String[] modification = {"-V", fieldName, value};
+		this.logModification(modification);
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ims;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+import de.uka.ipd.idaho.im.util.ImDocumentData.ImDocumentEntry;
+
+/**
+ * Content addressed store for document entry data shared between documents
+ * and versions in a GoldenGATE IMS. Entry data is stored only once for each
+ * data hash, no matter how many documents and versions refer to it, e.g. for
+ * page images of re-imports or splits of the same source. A document folder
+ * records its use of a shared entry in an empty marker file named after the
+ * entry file, and every such marker increments the reference count of the
+ * shared data, which is persisted alongside the latter. Releasing a document
+ * folder decrements the reference counts again, moving data no longer used
+ * by any other document back into the released folder.
+ * 
+ * @author sautter
+ */
+class ImsSharedEntryStore {
+	private static final String MARKER_FILE_SUFFIX = ".shared";
+	private static final String REFERENCE_COUNT_FILE_SUFFIX = ".refs";
+	
+	private File rootFolder;
+	
+	/* locks for reference count updates, striped by data hash */
+	private Object[] referenceLocks = new Object[16];
+	
+	/** Constructor
+	 * @param rootFolder the root folder to store shared entry data in
+	 */
+	ImsSharedEntryStore(File rootFolder) {
+		this.rootFolder = rootFolder;
+		this.rootFolder.mkdirs();
+		for (int l = 0; l < this.referenceLocks.length; l++)
+			this.referenceLocks[l] = new Object();
+	}
+	
+	private File getDataFile(String dataHash) {
+		File dataFolder = new File(this.rootFolder, ((dataHash.length() < 2) ? "_" : dataHash.substring(0, 2)));
+		return new File(dataFolder, dataHash);
+	}
+	
+	private Object getReferenceLock(String dataHash) {
+		return this.referenceLocks[(dataHash.hashCode() & 0x7FFFFFFF) % this.referenceLocks.length];
+	}
+	
+	/**
+	 * Check whether or not the data of a given document entry is present in
+	 * this shared entry store.
+	 * @param entry the entry to check
+	 * @return true if the entry data is present
+	 */
+	boolean hasEntryData(ImDocumentEntry entry) {
+		return this.getDataFile(entry.dataHash).exists();
+	}
+	
+	/**
+	 * Get an input stream for the shared data of a document entry.
+	 * @param entry the entry to read
+	 * @return an input stream for the entry data
+	 * @throws IOException
+	 */
+	InputStream getInputStream(ImDocumentEntry entry) throws IOException {
+		return new BufferedInputStream(new FileInputStream(this.getDataFile(entry.dataHash)));
+	}
+	
+	/**
+	 * Retrieve the file holding the shared data of a document entry. This
+	 * method is meant for maintenance purposes only, the returned file must
+	 * not be written to.
+	 * @param entry the entry to get the data file for
+	 * @return the file holding the entry data
+	 */
+	File getEntryDataFile(ImDocumentEntry entry) {
+		return this.getDataFile(entry.dataHash);
+	}
+	
+	/**
+	 * Hand the data file of a document entry that was just written to a
+	 * document folder over to this shared store. If the shared store already
+	 * holds the data, the argument file is simply deleted; otherwise, it is
+	 * moved into the shared store. In either case, the document folder is
+	 * linked to the shared data.
+	 * @param docFolder the document folder the entry data was written to
+	 * @param entry the entry written
+	 * @throws IOException
+	 */
+	void adoptEntryData(File docFolder, ImDocumentEntry entry) throws IOException {
+		File entryFile = new File(docFolder, entry.getFileName());
+		if (!entryFile.exists())
+			return;
+		if (this.linkEntryData(docFolder, entry)) {
+			entryFile.delete(); // have this data already
+			return;
+		}
+		File dataFile = this.getDataFile(entry.dataHash);
+		if (!dataFile.exists()) {
+			dataFile.getParentFile().mkdirs();
+			File dataFileStoring = new File(dataFile.getParentFile(), (dataFile.getName() + ".storing." + Thread.currentThread().getId()));
+			if (!entryFile.renameTo(dataFileStoring)) {
+				copyFile(entryFile, dataFileStoring);
+				entryFile.delete();
+			}
+			if (!dataFileStoring.renameTo(dataFile))
+				dataFileStoring.delete(); // some other thread was faster storing the same data
+		}
+		else entryFile.delete();
+		if (!this.linkEntryData(docFolder, entry))
+			throw new IOException("Could not link data for entry '" + entry.name + "'");
+	}
+	
+	/**
+	 * Link a document folder to the shared data of an entry. The link only
+	 * counts towards the reference count of the entry data if the argument
+	 * folder was not linked to the latter before.
+	 * @param docFolder the document folder to link
+	 * @param entry the entry to link to
+	 * @return true if the link was created
+	 * @throws IOException
+	 */
+	boolean linkEntryData(File docFolder, ImDocumentEntry entry) throws IOException {
+		if (!this.hasEntryData(entry))
+			return false;
+		File markerFile = new File(docFolder, (entry.getFileName() + MARKER_FILE_SUFFIX));
+		if (!markerFile.createNewFile())
+			return true; // linked before
+		synchronized (this.getReferenceLock(entry.dataHash)) {
+			if (!this.hasEntryData(entry)) {
+				markerFile.delete(); // moved out by release in the meantime
+				return false;
+			}
+			this.setReferenceCount(entry.dataHash, (this.getReferenceCount(entry.dataHash) + 1));
+		}
+		return true;
+	}
+	
+	/**
+	 * Resolve the marker files in a listing of the files in a document folder
+	 * to the files holding the shared entry data. The returned files report
+	 * the name of the entry file they represent, so client code like backup
+	 * or replication sees the same names as for entry data stored in the
+	 * document folder proper. Marker files whose shared data is missing are
+	 * omitted.
+	 * @param entryFiles the files to resolve
+	 * @return an array holding the resolved files
+	 */
+	File[] resolveEntryFiles(File[] entryFiles) {
+		ArrayList resolvedEntryFiles = new ArrayList(entryFiles.length);
+		for (int f = 0; f < entryFiles.length; f++) {
+			if (!entryFiles[f].getName().endsWith(MARKER_FILE_SUFFIX)) {
+				resolvedEntryFiles.add(entryFiles[f]);
+				continue;
+			}
+			String entryFileName = entryFiles[f].getName().substring(0, (entryFiles[f].getName().length() - MARKER_FILE_SUFFIX.length()));
+			ImDocumentEntry entry = new ImDocumentEntry(new File(entryFiles[f].getParentFile(), entryFileName));
+			File dataFile = this.getDataFile(entry.dataHash);
+			if (dataFile.exists())
+				resolvedEntryFiles.add(new SharedEntryFile(dataFile, entryFileName));
+		}
+		return ((File[]) resolvedEntryFiles.toArray(new File[resolvedEntryFiles.size()]));
+	}
+	
+	/* shared data file reporting the name of the entry file it represents */
+	private static class SharedEntryFile extends File {
+		private String entryFileName;
+		SharedEntryFile(File dataFile, String entryFileName) {
+			super(dataFile.getAbsolutePath());
+			this.entryFileName = entryFileName;
+		}
+		public String getName() {
+			return this.entryFileName;
+		}
+		public boolean canWrite() {
+			return false;
+		}
+	}
+	
+	/**
+	 * Release all the shared entry data a document folder refers to, e.g.
+	 * when deleting the document. This decrements the reference counts of the
+	 * shared data and replaces the marker files with the actual entry data,
+	 * so the document folder is self-contained afterwards. Data no longer used
+	 * by any other document folder is moved rather than copied.
+	 * @param docFolder the document folder to release
+	 * @throws IOException
+	 */
+	void releaseEntryData(File docFolder) throws IOException {
+		File[] markerFiles = docFolder.listFiles();
+		if (markerFiles == null)
+			return;
+		for (int f = 0; f < markerFiles.length; f++) {
+			if (!markerFiles[f].getName().endsWith(MARKER_FILE_SUFFIX))
+				continue;
+			File entryFile = new File(docFolder, markerFiles[f].getName().substring(0, (markerFiles[f].getName().length() - MARKER_FILE_SUFFIX.length())));
+			ImDocumentEntry entry = new ImDocumentEntry(entryFile);
+			File dataFile = this.getDataFile(entry.dataHash);
+			synchronized (this.getReferenceLock(entry.dataHash)) {
+				if (dataFile.exists() && !entryFile.exists()) {
+					int refs = (this.getReferenceCount(entry.dataHash) - 1);
+					if ((refs > 0) || !dataFile.renameTo(entryFile))
+						copyFile(dataFile, entryFile);
+					if (refs > 0)
+						this.setReferenceCount(entry.dataHash, refs);
+					else {
+						dataFile.delete(); // no-op if moved
+						new File(dataFile.getParentFile(), (entry.dataHash + REFERENCE_COUNT_FILE_SUFFIX)).delete();
+					}
+				}
+				markerFiles[f].delete();
+			}
+		}
+	}
+	
+	/**
+	 * Retrieve the number of document folders referring to the shared data
+	 * of a document entry.
+	 * @param dataHash the hash of the entry data
+	 * @return the reference count of the data with the argument hash
+	 */
+	int getReferenceCount(String dataHash) {
+		File refsFile = new File(this.getDataFile(dataHash).getParentFile(), (dataHash + REFERENCE_COUNT_FILE_SUFFIX));
+		if (!refsFile.exists())
+			return 0;
+		try {
+			BufferedReader refsIn = new BufferedReader(new InputStreamReader(new FileInputStream(refsFile), "UTF-8"));
+			String refs = refsIn.readLine();
+			refsIn.close();
+			return Integer.parseInt(refs.trim());
+		}
+		catch (Exception e /* IO as well as number format and null pointer exceptions */) {
+			return 0;
+		}
+	}
+	
+	private void setReferenceCount(String dataHash, int refs) throws IOException {
+		File refsFile = new File(this.getDataFile(dataHash).getParentFile(), (dataHash + REFERENCE_COUNT_FILE_SUFFIX));
+		File refsFileUpdating = new File(refsFile.getParentFile(), (refsFile.getName() + ".updating"));
+		BufferedWriter refsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(refsFileUpdating), "UTF-8"));
+		refsOut.write("" + refs);
+		refsOut.newLine();
+		refsOut.flush();
+		refsOut.close();
+		if (refsFile.exists())
+			refsFile.delete();
+		refsFileUpdating.renameTo(refsFile);
+	}
+	
+	private static void copyFile(File source, File target) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(source));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+		byte[] buffer = new byte[65536];
+		for (int r; (r = in.read(buffer, 0, buffer.length)) != -1;)
+			out.write(buffer, 0, r);
+		out.flush();
+		out.close();
+		in.close();
+	}
+}
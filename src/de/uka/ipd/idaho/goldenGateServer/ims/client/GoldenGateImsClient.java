@@ -510,25 +510,7 @@ public class GoldenGateImsClient implements GoldenGateImsConstants {
 		bw.newLine();
 		
 		//	send filter (if any)
-		if ((filter == null) || filter.isEmpty())
-			bw.write("");
-		else {
-			StringBuffer filterString = new StringBuffer();
-			for (Iterator fit = filter.keySet().iterator(); fit.hasNext();) {
-				String filterName = ((String) fit.next());
-				String filterValue = filter.getProperty(filterName, "");
-				String[] filterValues = filterValue.split("[\\r\\n]++");
-				for (int v = 0; v < filterValues.length; v++) {
-					filterValue = filterValues[v].trim();
-					if (filterValue.length() == 0)
-						continue;
-					if (filterString.length() != 0)
-						filterString.append("&");
-					filterString.append(filterName + "=" + URLEncoder.encode(filterValues[v], ENCODING));
-				}
-			}
-			bw.write(filterString.toString());
-		}
+		bw.write(getFilterString(filter));
 		bw.newLine();
 		bw.flush();
 		
@@ -551,6 +533,93 @@ public class GoldenGateImsClient implements GoldenGateImsConstants {
 		}
 	}
 	
+	/**
+	 * Obtain a page of the list of documents available from the IMS. Apart
+	 * from the size threshold not applying, the same rules as for the full
+	 * list apply regarding which documents are included. The documents are
+	 * sorted by the argument sort field, with the document ID as the tie
+	 * breaker. To retrieve the next page, hand the cursor obtained from the
+	 * getNextPageCursor() method of the returned list to this method in a
+	 * subsequent call, together with the same sort field and filter. If the
+	 * latter method returns null, the returned page is the last one. The
+	 * cursor is available right away, i.e., before reading any documents
+	 * from the returned list.
+	 * @param filter a properties object containing filter predicates for the
+	 *            document list
+	 * @param sortField the list field to sort by (null sorts by document name)
+	 * @param pageSize the maximum number of documents to retrieve
+	 * @param pageCursor the cursor pointing to the page to retrieve (null
+	 *            retrieves the first page)
+	 * @param pm a progress monitor to observe the loading process
+	 * @return the requested page of the list of documents available from the
+	 *            backing IMS
+	 */
+	public ImsDocumentList getDocumentListPage(Properties filter, String sortField, int pageSize, String pageCursor, ProgressMonitor pm) throws IOException {
+		
+		//	make sure we're logged in
+		if (!this.authClient.isLoggedIn()) throw new IOException("Not logged in.");
+		
+		//	connect to backend
+		final Connection con = this.authClient.getConnection();
+		BufferedWriter bw = con.getWriter();
+		
+		bw.write(GET_DOCUMENT_LIST_PAGE);
+		bw.newLine();
+		bw.write(this.authClient.getSessionID());
+		bw.newLine();
+		
+		//	send filter (if any), sort field, page size, and cursor
+		bw.write(getFilterString(filter));
+		bw.newLine();
+		bw.write((sortField == null) ? "" : sortField);
+		bw.newLine();
+		bw.write("" + pageSize);
+		bw.newLine();
+		bw.write((pageCursor == null) ? "" : pageCursor);
+		bw.newLine();
+		bw.flush();
+		
+		//	get cursor for next page and document list proper
+		final BufferedReader br = con.getReader();
+		String error = br.readLine();
+		if (GET_DOCUMENT_LIST_PAGE.equals(error)) {
+			String nextPageCursor = br.readLine();
+			return ImsDocumentList.readDocumentList(new Reader() {
+				public void close() throws IOException {
+					br.close();
+					con.close();
+				}
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					return br.read(cbuf, off, len);
+				}
+			}, (((nextPageCursor == null) || (nextPageCursor.length() == 0)) ? null : nextPageCursor), pm);
+		}
+		else {
+			con.close();
+			throw new IOException(error);
+		}
+	}
+	
+	private static String getFilterString(Properties filter) throws IOException {
+		if ((filter == null) || filter.isEmpty())
+			return "";
+		StringBuffer filterString = new StringBuffer();
+		for (Iterator fit = filter.keySet().iterator(); fit.hasNext();) {
+			String filterName = ((String) fit.next());
+			String filterValue = filter.getProperty(filterName, "");
+			String[] filterValues = filterValue.split("[\\r\\n]++");
+			for (int v = 0; v < filterValues.length; v++) {
+				filterValue = filterValues[v].trim();
+				if (filterValue.length() == 0)
+					continue;
+				if (filterString.length() != 0)
+					filterString.append("&");
+				filterString.append(filterName + "=" + URLEncoder.encode(filterValues[v], ENCODING));
+			}
+		}
+		return filterString.toString();
+	}
+	
 	/**
 	 * Obtain a document from the IMS. The valid document IDs can be read from
 	 * the document list returned by getDocumentList(). The document is not
@@ -139,6 +139,20 @@ public abstract class ImsDocumentList extends DocumentList implements GoldenGate
 		return filterableDataFields.contains(listFieldName);
 	}
 	
+	/**
+	 * Retrieve the cursor pointing to the page of documents following the
+	 * ones in this list, if the list was retrieved page-wise. The cursor is
+	 * an opaque string that is only valid for the sort field the list was
+	 * retrieved for. In lists generated locally, the cursor is only available
+	 * after the last document of the page has been read. This default
+	 * implementation returns null, indicating that there are no further
+	 * documents; sub classes representing pages overwrite it as needed.
+	 * @return the cursor pointing to the next page of documents
+	 */
+	public String getNextPageCursor() {
+		return null;
+	}
+	
 	/**
 	 * Wrap a document list around a reader, which provides the list's data in
 	 * form of a character stream. Do not close the specified reader after this
@@ -165,6 +179,24 @@ public abstract class ImsDocumentList extends DocumentList implements GoldenGate
 	 * @throws IOException
 	 */
 	public static ImsDocumentList readDocumentList(Reader in, ProgressMonitor pm) throws IOException {
+		return readDocumentList(in, null, pm);
+	}
+	
+	/**
+	 * Wrap a document list around a reader, which provides the list's data in
+	 * form of a character stream. Do not close the specified reader after this
+	 * method returns. The reader is closed by the returned list after the last
+	 * document list element is read. This method is intended for reading
+	 * individual pages of a document list, with the cursor pointing to the
+	 * next page having been transferred ahead of the list data proper.
+	 * @param in the Reader to read from
+	 * @param nextPageCursor the cursor pointing to the next page
+	 * @param pm a progress monitor observing the reading process
+	 * @return a document list that makes the data from the specified reader
+	 *         available as document list elements
+	 * @throws IOException
+	 */
+	public static ImsDocumentList readDocumentList(Reader in, final String nextPageCursor, ProgressMonitor pm) throws IOException {
 		
 		//	wrap IMS specific behavior around generic list
 		final DocumentList dl = DocumentList.readDocumentList(in, pm);
@@ -193,6 +225,9 @@ public abstract class ImsDocumentList extends DocumentList implements GoldenGate
 			public boolean isFilterable(String listFieldName) {
 				return (super.isFilterable(listFieldName) || dl.isFilterable(listFieldName));
 			}
+			public String getNextPageCursor() {
+				return nextPageCursor;
+			}
 		};
 	}
 }
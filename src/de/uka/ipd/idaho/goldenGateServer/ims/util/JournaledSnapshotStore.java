@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ims.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent storage for in-memory data structures that are modified
+ * incrementally, like indexes or statistics, so they do not have to be
+ * rebuilt from scratch on every startup. The data is stored as a snapshot
+ * file plus a journal file recording all modifications since the snapshot
+ * was taken. The snapshot is re-written and the journal truncated on
+ * shutdown, as well as whenever the journal grows too long.<br>
+ * Both snapshot entries and journal entries are arrays of strings, which
+ * are URL encoded and stored as one tab separated line each, journal lines
+ * followed by a checksum, so a line only partially written in a crash is
+ * recognized as such and dropped, even if it happens to parse. Sub classes
+ * have to perform all modifications to their data while holding the
+ * monitor of this object, and log each modification right away, so the
+ * snapshot and journal stay in sync. Logging a modification only buffers
+ * it in memory, however, and the actual writing to the journal file, as
+ * well as compacting the journal into a new snapshot, happens in a
+ * dedicated writer thread, outside the monitor.
+ * 
+ * @author sautter
+ */
+public abstract class JournaledSnapshotStore {
+	private static final String ENCODING = "UTF-8";
+	private static final String END_MARKER = "#E"; // URL encoding escapes '#', so no entry can ever start with this
+	private static final String CHECKSUM_MARKER = "\t#"; // URL encoding escapes '#', so no entry can ever contain this
+	
+	private File dataFolder;
+	private String snapshotFileName;
+	private String journalFileName;
+	private int maxJournalSize;
+	
+	private ArrayList pendingModifications = new ArrayList();
+	private JournalWriter journalWriter = null;
+	private boolean closed = false;
+	
+	private final Object journalLock = new Object();
+	private BufferedWriter journalOut = null;
+	private int journalSize = 0;
+	private boolean journalTruncated = false;
+	
+	/** Constructor
+	 * @param dataFolder the folder to store the data in
+	 * @param name the name of the data, used for the snapshot and journal
+	 *            file names
+	 * @param maxJournalSize the number of journal entries after which to
+	 *            compact the journal into a new snapshot
+	 */
+	protected JournaledSnapshotStore(File dataFolder, String name, int maxJournalSize) {
+		this.dataFolder = dataFolder;
+		this.snapshotFileName = (name + ".txt");
+		this.journalFileName = (name + ".journal.txt");
+		this.maxJournalSize = maxJournalSize;
+	}
+	
+	/**
+	 * Clear the in-memory data. This method is called before restoring the
+	 * data from the snapshot and journal, and after doing so fails.
+	 */
+	protected abstract void clearData();
+	
+	/**
+	 * Restore a single entry from the snapshot into the in-memory data.
+	 * Implementations may throw runtime exceptions on malformed data, which
+	 * count as a failure to restore the snapshot.
+	 * @param entry the entry to restore
+	 * @return true if the entry was restored successfully
+	 */
+	protected abstract boolean restoreSnapshotEntry(String[] entry);
+	
+	/**
+	 * Add the entries representing the in-memory data to a list, for writing
+	 * them to a snapshot. This method is called while holding the monitor of
+	 * this object, so the list reflects a consistent state of the data. The
+	 * list is written to the snapshot file only after the monitor has been
+	 * released, so implementations must not modify the arrays afterwards.
+	 * @param entries the list to add the entries to
+	 */
+	protected abstract void captureSnapshotEntries(ArrayList entries);
+	
+	/**
+	 * Apply a single modification from the journal to the in-memory data.
+	 * Implementations may throw runtime exceptions on malformed data, which
+	 * count as a failure to replay the journal.
+	 * @param modification the modification to apply
+	 * @return true if the modification was applied successfully
+	 */
+	protected abstract boolean replayModification(String[] modification);
+	
+	/**
+	 * Restore the in-memory data from the snapshot and journal files. If
+	 * this method returns false, the in-memory data is empty, and client
+	 * code has to populate it by other means, and then store a snapshot.
+	 * @return true if the data was restored successfully
+	 */
+	public boolean load() {
+		synchronized (this.journalLock) {
+			synchronized (this) {
+				this.clearData();
+				this.journalTruncated = false;
+				try {
+					if (this.readSnapshot() && this.replayJournal()) {
+						
+						//	get rid of incomplete last journal line right away, as further modifications would be appended after it
+						if (this.journalTruncated)
+							this.storeSnapshot();
+						return true;
+					}
+				}
+				catch (Exception e /* IO as well as number format and decoding exceptions */) {}
+				this.clearData();
+				return false;
+			}
+		}
+	}
+	
+	private boolean readSnapshot() throws IOException {
+		File snapshotFile = new File(this.dataFolder, this.snapshotFileName);
+		if (!snapshotFile.exists())
+			return false;
+		BufferedReader snapshotIn = new BufferedReader(new InputStreamReader(new FileInputStream(snapshotFile), ENCODING));
+		try {
+			int entryCount = 0;
+			for (String line; (line = snapshotIn.readLine()) != null;) {
+				String[] entry = line.split("\\t", -1);
+				
+				//	we have a complete snapshot only if we reach the end marker
+				if (END_MARKER.equals(entry[0]))
+					return ((entry.length == 2) && (entryCount == Integer.parseInt(entry[1])));
+				if (!this.restoreSnapshotEntry(decode(entry)))
+					return false;
+				entryCount++;
+			}
+			return false;
+		}
+		finally {
+			snapshotIn.close();
+		}
+	}
+	
+	private boolean replayJournal() throws IOException {
+		File journalFile = new File(this.dataFolder, this.journalFileName);
+		if (!journalFile.exists())
+			return true; // no modifications after snapshot
+		BufferedReader journalIn = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), ENCODING));
+		try {
+			int modificationCount = 0;
+			for (String line; (line = journalIn.readLine()) != null;) {
+				if (line.length() == 0)
+					continue;
+				boolean replayed;
+				try {
+					String[] modification = decodeJournalLine(line);
+					replayed = ((modification != null) && this.replayModification(modification));
+				}
+				catch (RuntimeException re /* number format, decoding, or array length */) {
+					replayed = false;
+				}
+				
+				//	last line might be incomplete if we crashed in the middle of writing it, but not any other line
+				if (replayed)
+					modificationCount++;
+				else if (journalIn.ready())
+					return false;
+				else this.journalTruncated = true;
+			}
+			this.journalSize = modificationCount;
+			return true;
+		}
+		finally {
+			journalIn.close();
+		}
+	}
+	
+	/**
+	 * Store a snapshot of the in-memory data, and truncate the journal. This
+	 * includes any modifications logged, but not yet written to the journal.
+	 * @throws IOException
+	 */
+	public void storeSnapshot() throws IOException {
+		synchronized (this.journalLock) {
+			
+			//	capture data, and drop pending modifications, as they are part of the snapshot
+			ArrayList entries = new ArrayList();
+			synchronized (this) {
+				this.captureSnapshotEntries(entries);
+				this.pendingModifications.clear();
+			}
+			
+			//	close journal, we're starting over
+			if (this.journalOut != null) {
+				this.journalOut.close();
+				this.journalOut = null;
+			}
+			
+			//	write snapshot to temporary file
+			File snapshotFile = new File(this.dataFolder, this.snapshotFileName);
+			File snapshotFileWriting = new File(this.dataFolder, (this.snapshotFileName + ".writing"));
+			BufferedWriter snapshotOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(snapshotFileWriting), ENCODING));
+			for (int e = 0; e < entries.size(); e++) {
+				snapshotOut.write(encode((String[]) entries.get(e)));
+				snapshotOut.newLine();
+			}
+			snapshotOut.write(END_MARKER + "\t" + entries.size());
+			snapshotOut.newLine();
+			snapshotOut.flush();
+			snapshotOut.close();
+			
+			//	replace snapshot and clear journal
+			if (snapshotFile.exists())
+				snapshotFile.delete();
+			snapshotFileWriting.renameTo(snapshotFile);
+			File journalFile = new File(this.dataFolder, this.journalFileName);
+			if (journalFile.exists())
+				journalFile.delete();
+			this.journalSize = 0;
+		}
+	}
+	
+	/**
+	 * Log a modification of the in-memory data. Client code has to call this
+	 * method while still holding the monitor of this object it acquired for
+	 * making the modification proper, so the order of modifications in the
+	 * journal matches the one in memory. The modification is only buffered,
+	 * and written to the journal asynchronously.
+	 * @param modification the modification to log
+	 */
+	protected synchronized void logModification(String[] modification) {
+		this.pendingModifications.add(modification);
+		if (this.closed)
+			return;
+		if (this.journalWriter == null) {
+			this.journalWriter = new JournalWriter();
+			this.journalWriter.start();
+		}
+		this.notify();
+	}
+	
+	private class JournalWriter extends Thread {
+		JournalWriter() {
+			super("JournalWriter-" + journalFileName);
+			this.setDaemon(true);
+		}
+		public void run() {
+			while (true) {
+				synchronized (JournaledSnapshotStore.this) {
+					while (pendingModifications.isEmpty() && !closed) try {
+						JournaledSnapshotStore.this.wait();
+					} catch (InterruptedException ie) {}
+					if (closed)
+						return; // pending modifications go into final snapshot
+				}
+				writeJournal();
+			}
+		}
+	}
+	
+	private void writeJournal() {
+		synchronized (this.journalLock) {
+			ArrayList modifications;
+			synchronized (this) {
+				if (this.pendingModifications.isEmpty())
+					return; // taken care of by snapshot
+				modifications = this.pendingModifications;
+				this.pendingModifications = new ArrayList();
+			}
+			try {
+				if (this.journalOut == null) {
+					File journalFile = new File(this.dataFolder, this.journalFileName);
+					boolean journalExists = (journalFile.exists() && (journalFile.length() != 0));
+					this.journalOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), ENCODING));
+					if (journalExists)
+						this.journalOut.newLine(); // terminate last line in case we crashed in the middle of writing it
+				}
+				for (Iterator mit = modifications.iterator(); mit.hasNext();) {
+					this.journalOut.write(encodeJournalLine((String[]) mit.next()));
+					this.journalOut.newLine();
+				}
+				this.journalOut.flush();
+				
+				//	compact journal into snapshot if it gets too long
+				this.journalSize += modifications.size();
+				if (this.journalSize > this.maxJournalSize)
+					this.storeSnapshot();
+			}
+			catch (IOException ioe) {
+				
+				//	make sure we rebuild on next startup rather than working with incomplete data
+				this.discard();
+			}
+		}
+	}
+	
+	private void discard() {
+		synchronized (this.journalLock) {
+			try {
+				if (this.journalOut != null)
+					this.journalOut.close();
+			} catch (IOException ioe) {}
+			this.journalOut = null;
+			new File(this.dataFolder, this.snapshotFileName).delete();
+		}
+	}
+	
+	/**
+	 * Store a final snapshot and close the journal. After this method has
+	 * been called, logged modifications are no longer written to the
+	 * journal.
+	 */
+	public void close() {
+		synchronized (this) {
+			this.closed = true;
+			this.notify();
+		}
+		try {
+			this.storeSnapshot();
+		}
+		catch (IOException ioe) {
+			this.discard();
+		}
+	}
+	
+	private static String encode(String[] data) throws IOException {
+		StringBuffer line = new StringBuffer();
+		for (int d = 0; d < data.length; d++) {
+			if (d != 0)
+				line.append('\t');
+			line.append(URLEncoder.encode(data[d], ENCODING));
+		}
+		return line.toString();
+	}
+	
+	private static String encodeJournalLine(String[] modification) throws IOException {
+		String line = encode(modification);
+		return (line + CHECKSUM_MARKER + getChecksum(line));
+	}
+	
+	private static String[] decodeJournalLine(String line) {
+		int checksumStart = line.lastIndexOf(CHECKSUM_MARKER);
+		if (checksumStart == -1)
+			return null;
+		String data = line.substring(0, checksumStart);
+		if (!getChecksum(data).equals(line.substring(checksumStart + CHECKSUM_MARKER.length())))
+			return null;
+		return decode(data.split("\\t", -1));
+	}
+	
+	private static String getChecksum(String line) {
+		CRC32 checksum = new CRC32();
+		try {
+			checksum.update(line.getBytes(ENCODING));
+		}
+		catch (IOException ioe) {
+			throw new RuntimeException(ioe.getMessage()); // UTF-8 is always supported
+		}
+		return Long.toString(checksum.getValue(), 16);
+	}
+	
+	private static String[] decode(String[] data) {
+		for (int d = 0; d < data.length; d++) try {
+			data[d] = URLDecoder.decode(data[d], ENCODING);
+		}
+		catch (IOException ioe) {
+			throw new RuntimeException(ioe.getMessage()); // UTF-8 is always supported
+		}
+		return data;
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) / KIT nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.ims.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Preparation stage fetching or setting up data ahead of time, e.g. when
+ * the data will be needed by some asynchronous action scheduled to run
+ * later, so the action finds the data ready once it gets to work, rather
+ * than idling during I/O. Prefetching runs in a bounded number of worker
+ * threads, and the total size of prefetched data not yet claimed by client
+ * code is bounded as well. Prefetched data not claimed within a given time
+ * is discarded, so data that is never claimed cannot block the stage. If
+ * data has not been prefetched, client code simply fetches it itself.<br>
+ * Prefetched data is identified by string keys. Sub classes have to
+ * implement the actual prefetching and discarding of unclaimed data, and
+ * can weigh prefetched data for the size bound. Running prefetches count
+ * against the size bound as well, with whatever size sub classes report
+ * for them along the way.
+ * 
+ * @author sautter
+ */
+public abstract class Prefetcher {
+	private long maxPrefetched;
+	private long maxPrefetchedAge;
+	
+	private LinkedList pending = new LinkedList();
+	private HashMap prefetches = new HashMap();
+	private long prefetched = 0;
+	
+	private ArrayList workers = new ArrayList();
+	private boolean shutdown = false;
+	
+	/** Constructor
+	 * @param name the name of the prefetcher, used for naming the worker threads
+	 * @param maxWorkers the maximum number of prefetches to run in parallel
+	 *            (0 deactivates prefetching altogether)
+	 * @param maxPrefetched the maximum total size of prefetched data to hold
+	 *            on to, as measured by <code>getSize()</code>
+	 * @param maxPrefetchedAge the time after which to discard unclaimed
+	 *            prefetched data (in milliseconds)
+	 */
+	protected Prefetcher(String name, int maxWorkers, long maxPrefetched, long maxPrefetchedAge) {
+		this.maxPrefetched = Math.max(1, maxPrefetched);
+		this.maxPrefetchedAge = maxPrefetchedAge;
+		for (int w = 0; w < maxWorkers; w++) {
+			Thread worker = new Thread(name + ((maxWorkers == 1) ? "" : ("" + w))) {
+				public void run() {
+					while (true) {
+						Prefetch prefetch = getNextPrefetch();
+						if (prefetch == null)
+							return;
+						prefetch.run();
+					}
+				}
+			};
+			worker.setDaemon(true);
+			this.workers.add(worker);
+			worker.start();
+		}
+	}
+	
+	/**
+	 * Prefetch the data for a given key. Any exception or error thrown from
+	 * this method counts as a failed prefetch, and client code will have to
+	 * fetch the data itself.
+	 * @param key the key to prefetch the data for
+	 * @return the prefetched data
+	 * @throws Exception
+	 */
+	protected abstract Object prefetch(String key) throws Exception;
+	
+	/**
+	 * Measure the size of prefetched data, for the bound on the total size
+	 * of prefetched data held on to. This default implementation returns 1,
+	 * making the bound a maximum number of prefetches. Sub classes are
+	 * welcome to overwrite it as needed.
+	 * @param prefetched the prefetched data, as returned by <code>prefetch()</code>
+	 * @return the size of the prefetched data
+	 */
+	protected long getSize(Object prefetched) {
+		return 1;
+	}
+	
+	/**
+	 * Discard prefetched data that was not claimed, either within the age
+	 * limit or before shutdown, and clean up after it.
+	 * @param key the key the data was prefetched for
+	 * @param prefetched the prefetched data, as returned by <code>prefetch()</code>
+	 */
+	protected abstract void discard(String key, Object prefetched);
+	
+	/**
+	 * Report the size of data prefetched so far while a prefetch is still
+	 * running, e.g. the number of bytes downloaded, so running prefetches
+	 * count against the bound on the total size of prefetched data. Sub
+	 * classes should call this method from <code>prefetch()</code> as the
+	 * data grows. Once the prefetch is finished, the result of
+	 * <code>getSize()</code> replaces any size reported here.
+	 * @param key the key the data is being prefetched for
+	 * @param size the current size of the data
+	 */
+	protected synchronized void setPrefetchingSize(String key, long size) {
+		Prefetch prefetch = ((Prefetch) this.prefetches.get(key));
+		if ((prefetch == null) || !prefetch.started || prefetch.finished || (size <= prefetch.size))
+			return;
+		this.prefetched += (size - prefetch.size);
+		prefetch.size = size;
+	}
+	
+	/**
+	 * Cancel any running prefetches on shutdown. This method is called after
+	 * no further prefetches can start, but before waiting for the worker
+	 * threads to finish. This default implementation does nothing, relying on
+	 * the worker threads being interrupted. Sub classes whose prefetches block
+	 * in a way interrupting does not end (like reading from a socket) should
+	 * overwrite it to release the respective resources.
+	 */
+	protected void cancelPrefetches() {}
+	
+	/**
+	 * Check whether or not the prefetcher has been shut down, e.g. to end a
+	 * prefetch early.
+	 * @return true if the prefetcher has been shut down
+	 */
+	protected synchronized boolean isShutdown() {
+		return this.shutdown;
+	}
+	
+	/**
+	 * Enqueue the data for a given key for prefetching. If the prefetcher
+	 * has been shut down, or if the data for the argument key is already
+	 * enqueued or prefetched, this method has no effect.
+	 * @param key the key to prefetch the data for
+	 */
+	public synchronized void enqueue(String key) {
+		if (this.shutdown || this.workers.isEmpty() || this.prefetches.containsKey(key))
+			return;
+		Prefetch prefetch = new Prefetch(key);
+		this.prefetches.put(key, prefetch);
+		this.pending.addLast(prefetch);
+		this.notifyAll();
+	}
+	
+	private Prefetch getNextPrefetch() {
+		while (true) {
+			ArrayList expired;
+			synchronized (this) {
+				if (this.shutdown)
+					return null;
+				if (!this.pending.isEmpty() && (this.prefetched < this.maxPrefetched)) {
+					Prefetch prefetch = ((Prefetch) this.pending.removeFirst());
+					prefetch.started = true;
+					prefetch.size = 1; // count running prefetch right away, sub class reports actual size as it grows
+					this.prefetched += prefetch.size;
+					return prefetch;
+				}
+				try {
+					this.wait(Math.max(1000, (this.maxPrefetchedAge / 2)));
+				} catch (InterruptedException ie) {}
+				expired = this.removeExpired();
+			}
+			
+			//	discard expired data outside monitor, as cleanup might take a while
+			for (int e = 0; e < expired.size(); e++) {
+				Prefetch prefetch = ((Prefetch) expired.get(e));
+				this.discard(prefetch.key, prefetch.prefetched);
+			}
+		}
+	}
+	
+	private ArrayList removeExpired() {
+		long time = System.currentTimeMillis();
+		ArrayList expired = new ArrayList();
+		for (Iterator pit = this.prefetches.values().iterator(); pit.hasNext();) {
+			Prefetch prefetch = ((Prefetch) pit.next());
+			if (prefetch.finished && (prefetch.error == null) && ((prefetch.finishTime + this.maxPrefetchedAge) < time)) {
+				pit.remove();
+				this.prefetched -= prefetch.size;
+				expired.add(prefetch);
+			}
+		}
+		if (expired.size() != 0)
+			this.notifyAll();
+		return expired;
+	}
+	
+	private synchronized void prefetchFinished(Prefetch prefetch, long size) {
+		prefetch.finished = true;
+		prefetch.finishTime = System.currentTimeMillis();
+		this.prefetched -= prefetch.size;
+		if (prefetch.error == null) {
+			prefetch.size = size;
+			this.prefetched += prefetch.size;
+		}
+		else this.prefetches.remove(prefetch.key);
+		this.notifyAll();
+	}
+	
+	/**
+	 * Claim the prefetched data for a given key. If the prefetch is still
+	 * running, this method waits for it to finish. If the prefetch has not
+	 * started yet, it is cancelled. In either of the latter two cases, as
+	 * well as if the prefetch failed, this method returns null, and client
+	 * code has to fetch the data itself. Claimed data is no longer accounted
+	 * for in the size bound, and client code is responsible for cleaning up
+	 * after it.
+	 * @param key the key to claim the prefetched data for
+	 * @return the prefetched data
+	 */
+	public synchronized Object claim(String key) {
+		Prefetch prefetch = ((Prefetch) this.prefetches.get(key));
+		if (prefetch == null)
+			return null;
+		if (!prefetch.started) {
+			this.pending.remove(prefetch);
+			this.prefetches.remove(key);
+			return null;
+		}
+		while (!prefetch.finished) try {
+			this.wait();
+		} catch (InterruptedException ie) {}
+		if (prefetch.error != null)
+			return null;
+		this.prefetches.remove(key);
+		this.prefetched -= prefetch.size;
+		this.notifyAll();
+		return prefetch.prefetched;
+	}
+	
+	/**
+	 * Shut down the worker threads, discarding any prefetched data. Running
+	 * prefetches are interrupted, and any data they produce is discarded as
+	 * well.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			this.shutdown = true;
+			this.pending.clear();
+			this.notifyAll();
+		}
+		for (int w = 0; w < this.workers.size(); w++)
+			((Thread) this.workers.get(w)).interrupt();
+		this.cancelPrefetches();
+		for (int w = 0; w < this.workers.size(); w++) try {
+			((Thread) this.workers.get(w)).join();
+		} catch (InterruptedException ie) {}
+		ArrayList unclaimed = new ArrayList();
+		synchronized (this) {
+			for (Iterator pit = this.prefetches.values().iterator(); pit.hasNext();) {
+				Prefetch prefetch = ((Prefetch) pit.next());
+				if (prefetch.finished && (prefetch.error == null))
+					unclaimed.add(prefetch);
+			}
+			this.prefetches.clear();
+			this.prefetched = 0;
+		}
+		for (int u = 0; u < unclaimed.size(); u++) {
+			Prefetch prefetch = ((Prefetch) unclaimed.get(u));
+			this.discard(prefetch.key, prefetch.prefetched);
+		}
+	}
+	
+	private class Prefetch {
+		final String key;
+		boolean started = false;
+		boolean finished = false;
+		long finishTime = -1;
+		Object prefetched;
+		long size = 0;
+		Throwable error;
+		Prefetch(String key) {
+			this.key = key;
+		}
+		void run() {
+			long size = 0;
+			try {
+				this.prefetched = prefetch(this.key);
+				size = getSize(this.prefetched);
+			}
+			catch (Throwable t) {
+				this.error = t;
+				if (this.prefetched != null)
+					discard(this.key, this.prefetched); // sizing failed
+			}
+			prefetchFinished(this, size);
+		}
+	}
+}